@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that WeatherProvider's bulkInsert, which binds every row to one compiled statement, is
+ * clearly faster for a large ingest, such as a backfill of history, than the previous
+ * implementation: one SQLiteDatabase#insert per row, inside a single transaction. Both timings are
+ * also written to the log under the tag "TestBulkInsertPerformance" so they can be compared across
+ * devices.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBulkInsertPerformance {
+
+    private static final String TAG = TestBulkInsertPerformance.class.getSimpleName();
+
+    private static final int ROWS_TO_INGEST = 20000;
+
+    /* Each way of inserting is timed this many times, and its fastest run is compared */
+    private static final int RUNS = 2;
+
+    /*
+     * Compiling each row's INSERT again is most of the old way's cost, so bulkInsert should be
+     * well over this. The margin leaves room for a noisy device, but still fails if the compiled
+     * statement stops being reused.
+     */
+    private static final double MIN_SPEEDUP = 1.25;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(mContext);
+        deleteAllWeather();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllWeather();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void testBulkInsertIsFasterThanInsertPerRow() {
+
+        ContentValues[] ingest = createIngest(ROWS_TO_INGEST);
+
+        long insertPerRowMillis = Long.MAX_VALUE;
+        long bulkInsertMillis = Long.MAX_VALUE;
+
+        /* Alternate the two, so that neither alone pays for the first, cold run */
+        for (int run = 0; run < RUNS; run++) {
+            insertPerRowMillis = Math.min(insertPerRowMillis, timeInsertPerRow(ingest));
+            assertEquals("Every row should have been inserted one at a time.",
+                    ROWS_TO_INGEST, countWeather());
+            deleteAllWeather();
+
+            long start = SystemClock.elapsedRealtime();
+            int rowsInserted = mContext.getContentResolver()
+                    .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, ingest);
+            bulkInsertMillis = Math.min(bulkInsertMillis, SystemClock.elapsedRealtime() - start);
+
+            assertEquals("bulkInsert should report every row it inserted.",
+                    ROWS_TO_INGEST, rowsInserted);
+            assertEquals("Every row should have been inserted by bulkInsert.",
+                    ROWS_TO_INGEST, countWeather());
+            deleteAllWeather();
+        }
+
+        Log.i(TAG, ROWS_TO_INGEST + " rows: insert per row " + insertPerRowMillis + "ms, "
+                + "bulkInsert " + bulkInsertMillis + "ms");
+
+        assertTrue("bulkInsert took " + bulkInsertMillis + "ms, and inserting one row at a time "
+                        + insertPerRowMillis + "ms; bulkInsert should be at least " + MIN_SPEEDUP
+                        + " times as fast.",
+                bulkInsertMillis * MIN_SPEEDUP <= insertPerRowMillis);
+    }
+
+    /**
+     * Inserts the rows the way bulkInsert used to: building and compiling a new INSERT for every
+     * row with SQLiteDatabase#insert, all within one transaction.
+     */
+    private long timeInsertPerRow(ContentValues[] ingest) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransactionNonExclusive();
+        try {
+            for (ContentValues value : ingest) {
+                long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                        WeatherEncoding.encode(value));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    /* One row per day, starting the day after TestUtilities.DATE_NORMALIZED */
+    private static ContentValues[] createIngest(int rows) {
+        ContentValues[] ingest = new ContentValues[rows];
+
+        long weatherDate = TestUtilities.DATE_NORMALIZED;
+        for (int i = 0; i < rows; i++) {
+            weatherDate += SunshineDateUtils.DAY_IN_MILLIS;
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, weatherDate);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 10);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65 - i % 10);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+
+            ingest[i] = weatherValues;
+        }
+
+        return ingest;
+    }
+
+    private long countWeather() {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                WeatherContract.WeatherEntry.TABLE_NAME);
+    }
+
+    private void deleteAllWeather() {
+        mDbHelper.getWritableDatabase().delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+}
\ No newline at end of file
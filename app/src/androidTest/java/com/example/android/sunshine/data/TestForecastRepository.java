@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.app.Instrumentation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that ForecastRepository serves the weather WeatherProvider holds, and never a forecast it
+ * loaded before the weather was written. The weather is written through the provider, as a sync
+ * would write it, for the preferred location.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastRepository {
+
+    /* Subscribers hear of a write through a ContentObserver, later, on the main thread */
+    private static final long CHANGE_TIMEOUT_MILLIS = 5000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /**
+     * A day of the forecast reads the same from the whole forecast and on its own, in the
+     * columns of FORECAST_COLUMNS, and reads the new weather as soon as it is written, before
+     * any observer has been told, as a sync that notifies the user reads it.
+     */
+    @Test
+    public void testForecastFollowsWrites() {
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        ForecastRepository repository = ForecastRepository.getInstance(mContext);
+
+        insertDay(today, 21.0);
+        assertMaxTemp("The day wasn't read as it was written",
+                repository.queryDay(today, ForecastRepository.FORECAST_COLUMNS), today, 21.0);
+
+        Cursor forecast = repository.queryForecast(ForecastRepository.FORECAST_COLUMNS);
+        assertNotNull("The forecast couldn't be read", forecast);
+        try {
+            assertTrue("The forecast didn't start with today", forecast.moveToFirst());
+            assertEquals(today, forecast.getLong(ForecastRepository.INDEX_WEATHER_DATE));
+            assertEquals(21.0, forecast.getDouble(ForecastRepository.INDEX_WEATHER_MAX_TEMP), 0);
+        } finally {
+            forecast.close();
+        }
+
+        /* The forecast above was loaded, so this must not be answered from it */
+        insertDay(today, 25.5);
+        assertMaxTemp("The day was read from a forecast loaded before it was written",
+                repository.queryDay(today, ForecastRepository.FORECAST_COLUMNS), today, 25.5);
+    }
+
+    /**
+     * The subscribers of the forecast are told when a day outside of it, such as one that has
+     * passed, is written, so that a detail screen showing that day reads it again.
+     */
+    @Test
+    public void testSubscribersHearOfPastDays() throws Exception {
+        long yesterday = SunshineDateUtils.normalizeDate(System.currentTimeMillis())
+                - SunshineDateUtils.DAY_IN_MILLIS;
+        final ForecastRepository repository = ForecastRepository.getInstance(mContext);
+        final CountDownLatch changed = new CountDownLatch(1);
+        final ForecastRepository.Listener listener = new ForecastRepository.Listener() {
+            @Override
+            public void onForecastChanged() {
+                changed.countDown();
+            }
+        };
+
+        /* Listeners are only added and removed on the main thread */
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                repository.addListener(listener);
+            }
+        });
+        try {
+            insertDay(yesterday, 18.0);
+            assertTrue("The subscribers weren't told of a past day's weather",
+                    changed.await(CHANGE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            assertMaxTemp("The past day wasn't read as it was written",
+                    repository.queryDay(yesterday, ForecastRepository.FORECAST_COLUMNS),
+                    yesterday, 18.0);
+        } finally {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    repository.removeListener(listener);
+                }
+            });
+        }
+    }
+
+    private void insertDay(long date, double maxTemp) {
+        ContentValues weatherValues = TestUtilities.createTestWeatherContentValues();
+        weatherValues.remove(WeatherEntry._ID);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, date);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{weatherValues});
+    }
+
+    private static void assertMaxTemp(String error, Cursor day, long date, double maxTemp) {
+        assertNotNull(error, day);
+        try {
+            assertEquals(error, 1, day.getCount());
+            day.moveToFirst();
+            assertEquals(error, date, day.getLong(ForecastRepository.INDEX_WEATHER_DATE));
+            assertEquals(error, maxTemp,
+                    day.getDouble(ForecastRepository.INDEX_WEATHER_MAX_TEMP), 0);
+        } finally {
+            day.close();
+        }
+    }
+}
\ No newline at end of file
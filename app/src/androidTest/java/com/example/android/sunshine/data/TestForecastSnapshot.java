@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests that ForecastSnapshot reads back the forecast it wrote. The snapshot is only a cache of
+ * the last sync, so the tests overwrite it freely; the next sync writes it again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastSnapshot {
+
+    private static final String LOCATION = "Test location, 94043";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /**
+     * The days of the forecast come back with the values they were written with, in any order
+     * of columns, except for the days that have already passed.
+     */
+    @Test
+    public void testForecastIsReadBack() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long yesterday = today - SunshineDateUtils.DAY_IN_MILLIS;
+        long tomorrow = today + SunshineDateUtils.DAY_IN_MILLIS;
+
+        MatrixCursor forecast = new MatrixCursor(ForecastSnapshot.COLUMNS);
+        forecast.addRow(new Object[]{yesterday, 10.5, 1.25, 500});
+        forecast.addRow(new Object[]{today, 21.0, 12.75, 800});
+        forecast.addRow(new Object[]{tomorrow, -3.5, -9.0, 601});
+        ForecastSnapshot.write(mContext, LOCATION, forecast);
+        forecast.close();
+
+        String[] projection = {
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_MAX_TEMP,
+        };
+        Cursor snapshot = ForecastSnapshot.read(mContext, LOCATION, projection);
+        assertNotNull("The snapshot that was just written couldn't be read", snapshot);
+        try {
+            assertEquals("Days that have passed should be left out", 2, snapshot.getCount());
+
+            snapshot.moveToPosition(0);
+            assertEquals(800, snapshot.getInt(0));
+            assertEquals(today, snapshot.getLong(1));
+            assertEquals(12.75, snapshot.getDouble(2), 0);
+            assertEquals(21.0, snapshot.getDouble(3), 0);
+
+            snapshot.moveToPosition(1);
+            assertEquals(601, snapshot.getInt(0));
+            assertEquals(tomorrow, snapshot.getLong(1));
+            assertEquals(-9.0, snapshot.getDouble(2), 0);
+            assertEquals(-3.5, snapshot.getDouble(3), 0);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * A snapshot of another location's forecast, or a projection the snapshot can't answer, is
+     * never returned.
+     */
+    @Test
+    public void testOtherLocationsAndColumnsAreRejected() {
+        MatrixCursor forecast = new MatrixCursor(ForecastSnapshot.COLUMNS);
+        forecast.addRow(new Object[]{SunshineDateUtils.getNormalizedUtcDateForToday(),
+                21.0, 12.75, 800});
+        ForecastSnapshot.write(mContext, LOCATION, forecast);
+        forecast.close();
+
+        assertNull("A snapshot of another location was returned",
+                ForecastSnapshot.read(mContext, "Another location", ForecastSnapshot.COLUMNS));
+        assertNull("A column the snapshot doesn't hold was returned",
+                ForecastSnapshot.read(mContext, LOCATION,
+                        new String[]{WeatherEntry.COLUMN_HUMIDITY}));
+    }
+}
\ No newline at end of file
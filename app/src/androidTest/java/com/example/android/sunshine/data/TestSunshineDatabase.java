@@ -18,12 +18,16 @@ package com.example.android.sunshine.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -32,6 +36,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static com.example.android.sunshine.data.TestUtilities.getConstantNameByStringValue;
@@ -55,8 +60,10 @@ import static junit.framework.Assert.fail;
  * 3) When a record is already stored in the weather table with a particular date, a new record
  * with the same date will overwrite that record.
  * 4) Verify that NON NULL constraints are working properly on record inserts
- * 5) Verify auto increment is working with the ID
+ * 5) Verify the same date may be stored once for each location
  * 6) Test the onUpgrade functionality of the WeatherDbHelper
+ * 7) Verify reads are not blocked by a sync that is still writing
+ * 8) Verify weather is stored as epoch days and hundredths, and read back in its own units
  */
 @RunWith(AndroidJUnit4.class)
 public class TestSunshineDatabase {
@@ -193,7 +200,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 8;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -238,7 +245,7 @@ public class TestSunshineDatabase {
         database.insert(
                 WeatherContract.WeatherEntry.TABLE_NAME,
                 null,
-                testWeatherValues);
+                WeatherEncoding.encode(testWeatherValues));
 
         /*
          * We don't really care what this ID is, just that it is different than the original and
@@ -252,7 +259,7 @@ public class TestSunshineDatabase {
         database.insert(
                 WeatherContract.WeatherEntry.TABLE_NAME,
                 null,
-                testWeatherValues);
+                WeatherEncoding.encode(testWeatherValues));
 
         /* Query for a weather record with our new weather ID */
         Cursor newWeatherIdCursor = database.query(
@@ -291,16 +298,17 @@ public class TestSunshineDatabase {
         String[] weatherTableColumnNames = weatherTableCursor.getColumnNames();
         weatherTableCursor.close();
 
-        /* Obtain weather values from TestUtilities and make a copy to avoid altering singleton */
-        ContentValues testValues = TestUtilities.createTestWeatherContentValues();
+        /*
+         * Obtain weather values from TestUtilities, in the units the weather table stores, and
+         * make a copy to avoid altering singleton
+         */
+        ContentValues testValues =
+                WeatherEncoding.encode(TestUtilities.createTestWeatherContentValues());
         /* Create a copy of the testValues to save as a reference point to restore values */
         ContentValues testValuesReferenceCopy = new ContentValues(testValues);
 
         for (String columnName : weatherTableColumnNames) {
 
-            /* We don't need to verify the _ID column value is not null, the system does */
-            if (columnName.equals(WeatherContract.WeatherEntry._ID)) continue;
-
             /* Set the value to null */
             testValues.putNull(columnName);
 
@@ -325,8 +333,15 @@ public class TestSunshineDatabase {
                     -1,
                     shouldFailRowId);
 
-            /* "Restore" the original value in testValues */
-            testValues.put(columnName, testValuesReferenceCopy.getAsDouble(columnName));
+            /*
+             * "Restore" the original value in testValues. Columns with a default value, such as
+             * the location ID, aren't part of the test values and are simply removed again.
+             */
+            if (testValuesReferenceCopy.containsKey(columnName)) {
+                testValues.put(columnName, testValuesReferenceCopy.getAsDouble(columnName));
+            } else {
+                testValues.remove(columnName);
+            }
         }
 
         /* Close database */
@@ -334,88 +349,145 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * Tests to ensure that inserts into your database results in automatically
-     * incrementing row IDs.
->>>>>>> 4174cf2... S07.02-Exercise-PreventInvalidInserts
+     * Tests that the weather table is keyed by location and date rather than by date alone: the
+     * same date may be stored once for each location, and the rows of one location don't
+     * replace the rows of another.
      */
     @Test
-    public void testIntegerAutoincrement() {
+    public void testSameDateIsStoredOncePerLocation() {
 
-        /* First, let's ensure we have some values in our table initially */
-        testInsertSingleRecordIntoWeatherTable();
+        ContentValues preferredLocationValues = TestUtilities.createTestWeatherContentValues();
 
-        /* Obtain weather values from TestUtilities */
-        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        ContentValues otherLocationValues = TestUtilities.createTestWeatherContentValues();
+        otherLocationValues.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID, 1);
+        otherLocationValues.put(REFLECTED_COLUMN_WEATHER_ID,
+                preferredLocationValues.getAsInteger(REFLECTED_COLUMN_WEATHER_ID) + 1);
 
-        /* Get the date of the testWeatherValues to ensure we use a different date later */
-        long originalDate = testWeatherValues.getAsLong(REFLECTED_COLUMN_DATE);
+        database.insert(REFLECTED_TABLE_NAME, null,
+                WeatherEncoding.encode(preferredLocationValues));
+        database.insert(REFLECTED_TABLE_NAME, null, WeatherEncoding.encode(otherLocationValues));
 
-        /* Insert ContentValues into database and get a row ID back */
-        long firstRowId = database.insert(
+        Cursor weatherCursor = database.query(
                 REFLECTED_TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOCATION_ID},
+                REFLECTED_COLUMN_DATE + " = ?",
+                new String[]{Long.toString(
+                        WeatherEncoding.encodeDate(TestUtilities.DATE_NORMALIZED))},
                 null,
-                testWeatherValues);
+                null,
+                WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
 
-        /* Delete the row we just inserted to see if the database will reuse the rowID */
-        database.delete(
-                REFLECTED_TABLE_NAME,
-                "_ID == " + firstRowId,
-                null);
+        String shouldHaveOneRowPerLocation =
+                "Each location should hold its own row for the same date.";
+        assertEquals(shouldHaveOneRowPerLocation, 2, weatherCursor.getCount());
 
-        /*
-         * Now we need to change the date associated with our test content values because the
-         * database policy is to replace identical dates on conflict.
-         */
-        long dayAfterOriginalDate = originalDate + TimeUnit.DAYS.toMillis(1);
-        testWeatherValues.put(REFLECTED_COLUMN_DATE, dayAfterOriginalDate);
+        /* Rows without an explicit location belong to the preferred location, 0 */
+        weatherCursor.moveToFirst();
+        assertEquals(0, weatherCursor.getLong(0));
+        weatherCursor.moveToNext();
+        assertEquals(1, weatherCursor.getLong(0));
 
-        /* Insert ContentValues into database and get another row ID back */
-        long secondRowId = database.insert(
-                REFLECTED_TABLE_NAME,
-                null,
-                testWeatherValues);
+        weatherCursor.close();
+    }
+
+    /**
+     * Tests that the weather table stores the date as days since the epoch and measurements as
+     * integer hundredths, rounded to the nearest one, and that the weather view reads them back
+     * in the units they were inserted in.
+     */
+    @Test
+    public void testWeatherIsStoredInCompactUnits() {
+
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        testWeatherValues.put(REFLECTED_COLUMN_MIN, -3.456);
+        database.insert(REFLECTED_TABLE_NAME, null, WeatherEncoding.encode(testWeatherValues));
 
-        String sequentialInsertsDoNotAutoIncrementId =
-                "IDs were reused and shouldn't be if autoincrement is setup properly.";
-        assertNotSame(sequentialInsertsDoNotAutoIncrementId,
-                firstRowId, secondRowId);
+        Cursor storedCursor = database.query(
+                REFLECTED_TABLE_NAME,
+                new String[]{REFLECTED_COLUMN_DATE, REFLECTED_COLUMN_MIN, REFLECTED_COLUMN_MAX},
+                null, null, null, null, null);
+        assertTrue("Error: No Records returned from weather query", storedCursor.moveToFirst());
+        assertEquals("The date should be stored as days since the epoch.",
+                TestUtilities.DATE_NORMALIZED / SunshineDateUtils.DAY_IN_MILLIS,
+                storedCursor.getLong(0));
+        assertEquals("Measurements should be stored as rounded hundredths.",
+                -346, storedCursor.getLong(1));
+        assertEquals("Measurements should be stored as rounded hundredths.",
+                7500, storedCursor.getLong(2));
+        storedCursor.close();
+
+        Cursor viewCursor = database.query(
+                WeatherContract.WeatherEntry.VIEW_NAME,
+                new String[]{REFLECTED_COLUMN_DATE, REFLECTED_COLUMN_MIN, REFLECTED_COLUMN_MAX},
+                null, null, null, null, null);
+        assertTrue("Error: No Records returned from weather view", viewCursor.moveToFirst());
+        assertEquals(TestUtilities.DATE_NORMALIZED, viewCursor.getLong(0));
+        assertEquals(-3.46, viewCursor.getDouble(1), 0.0001);
+        assertEquals(75.0, viewCursor.getDouble(2), 0.0001);
+        viewCursor.close();
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)} from
+     * version 3, the last schema with an AUTOINCREMENT _ID. The weather already stored must
+     * survive the upgrade, belong to the preferred location, receive the _ID derived from its
+     * date and read back through the weather view with the values it was stored with.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
 
-        testInsertSingleRecordIntoWeatherTable();
+        /*
+         * Version 3 had nothing but the weather table, so the views and tables later versions
+         * added are dropped for their upgrade steps to create them again
+         */
+        database.execSQL("DROP VIEW " + WeatherContract.WeatherEntry.VIEW_NAME);
+        database.execSQL("DROP VIEW " + WeatherContract.ArchiveEntry.VIEW_NAME);
+        database.execSQL("DROP TABLE " + WeatherContract.ArchiveEntry.TABLE_NAME);
+        database.execSQL("DROP TABLE " + WeatherContract.LocationEntry.TABLE_NAME);
+
+        /* Recreate the weather table exactly as version 3 created it */
+        database.execSQL("DROP TABLE " + REFLECTED_TABLE_NAME);
+        database.execSQL("CREATE TABLE " + REFLECTED_TABLE_NAME + " (" +
+                WeatherContract.WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                REFLECTED_COLUMN_DATE + " INTEGER NOT NULL, " +
+                REFLECTED_COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                REFLECTED_COLUMN_MIN + " REAL NOT NULL, " +
+                REFLECTED_COLUMN_MAX + " REAL NOT NULL, " +
+                REFLECTED_COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                REFLECTED_COLUMN_PRESSURE + " REAL NOT NULL, " +
+                REFLECTED_COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                REFLECTED_COLUMN_WIND_DIR + " REAL NOT NULL, " +
+                " UNIQUE (" + REFLECTED_COLUMN_DATE + ") ON CONFLICT REPLACE);");
+
+        /* Version 3 generated its own _ID, so we leave ours out */
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        ContentValues versionThreeValues = new ContentValues(testWeatherValues);
+        versionThreeValues.remove(WeatherContract.WeatherEntry._ID);
+        database.insert(REFLECTED_TABLE_NAME, null, versionThreeValues);
 
-        dbHelper.onUpgrade(database, 13, 14);
+        dbHelper.onUpgrade(database, 3, REFLECTED_DATABASE_VERSION);
 
         /*
          * This Cursor will contain the names of each table in our database and we will use it to
-         * make sure that our weather table is still in the database after upgrading.
+         * make sure that our weather table is still in the database after upgrading, and that
+         * the upgrade didn't leave any intermediate table behind.
          */
         Cursor tableNameCursor = database.rawQuery(
-                "SELECT name FROM sqlite_master WHERE type='table' AND name='" + REFLECTED_TABLE_NAME + "'",
+                "SELECT name FROM sqlite_master WHERE type='table' AND name LIKE '"
+                        + REFLECTED_TABLE_NAME + "%' AND name != '"
+                        + WeatherContract.ArchiveEntry.TABLE_NAME + "'",
                 null);
 
-        /*
-         * Our database should only contain one table, and so the above query should have one
-         * record in the cursor that queried for our table names.
-         */
         int expectedTableCount = 1;
         String shouldHaveSingleTable = "There should only be one table returned from this query.";
         assertEquals(shouldHaveSingleTable,
                 expectedTableCount,
                 tableNameCursor.getCount());
 
-        /* We are done verifying our table names, so we can close this cursor */
         tableNameCursor.close();
 
-        Cursor shouldBeEmptyWeatherCursor = database.query(
-                REFLECTED_TABLE_NAME,
+        Cursor upgradedWeatherCursor = database.query(
+                WeatherContract.WeatherEntry.VIEW_NAME,
                 null,
                 null,
                 null,
@@ -423,39 +495,116 @@ public class TestSunshineDatabase {
                 null,
                 null);
 
-        int expectedRecordCountAfterUpgrade = 0;
-        /* We will finally verify that our weather table is empty after */
-        String weatherTableShouldBeEmpty =
-                "Weather table should be empty after upgrade, but wasn't."
-                        + "\nNumber of records: ";
-        assertEquals(weatherTableShouldBeEmpty,
-                expectedRecordCountAfterUpgrade,
-                shouldBeEmptyWeatherCursor.getCount());
+        String weatherShouldSurviveUpgrade = "Weather stored before the upgrade was lost.";
+        assertTrue(weatherShouldSurviveUpgrade, upgradedWeatherCursor.moveToFirst());
+
+        TestUtilities.validateCurrentRecord(weatherShouldSurviveUpgrade,
+                upgradedWeatherCursor,
+                testWeatherValues);
+
+        int locationIdIndex = upgradedWeatherCursor
+                .getColumnIndex(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+        assertEquals("Upgraded weather should belong to the preferred location.",
+                0, upgradedWeatherCursor.getLong(locationIdIndex));
+
+        assertFalse("Error: More than one record returned from weather query",
+                upgradedWeatherCursor.moveToNext());
 
-        /* Test is over, close the cursor */
+        upgradedWeatherCursor.close();
         database.close();
     }
 
+    /**
+     * Tests that the database uses write-ahead logging and that, because of it, readers are not
+     * held up by a sync that is still writing. A writer thread inserts a large batch of weather
+     * inside a transaction and keeps that transaction open while we query from this thread. The
+     * query must return promptly with only the weather committed before the batch.
+     */
+    @Test
+    public void testReadsProceedDuringLargeIngest() throws InterruptedException {
+
+        String journalMode = DatabaseUtils.stringForQuery(database, "PRAGMA journal_mode", null);
+        assertEquals("The weather database should use write-ahead logging.",
+                "wal", journalMode.toLowerCase());
+
+        /* This row is committed before the ingest starts, so readers should always see it */
+        testInsertSingleRecordIntoWeatherTable();
+
+        final int rowsToIngest = 5000;
+        final CountDownLatch ingestWritten = new CountDownLatch(1);
+        final CountDownLatch readFinished = new CountDownLatch(1);
+        final Throwable[] writerError = new Throwable[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    database.beginTransactionNonExclusive();
+                    try {
+                        ContentValues values = WeatherEncoding.encode(
+                                TestUtilities.createTestWeatherContentValues());
+                        long date = TestUtilities.DATE_NORMALIZED;
+                        for (int i = 0; i < rowsToIngest; i++) {
+                            date += SunshineDateUtils.DAY_IN_MILLIS;
+                            values.put(REFLECTED_COLUMN_DATE, WeatherEncoding.encodeDate(date));
+                            database.insert(REFLECTED_TABLE_NAME, null, values);
+                        }
+
+                        /* Hold the transaction open until the reader is done, or gives up */
+                        ingestWritten.countDown();
+                        readFinished.await(10, TimeUnit.SECONDS);
+
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                } catch (Throwable t) {
+                    writerError[0] = t;
+                    ingestWritten.countDown();
+                }
+            }
+        });
+        writer.start();
+
+        assertTrue("The ingest took too long to write its rows.",
+                ingestWritten.await(30, TimeUnit.SECONDS));
+
+        long readStart = SystemClock.elapsedRealtime();
+        long rowsVisibleDuringIngest =
+                DatabaseUtils.queryNumEntries(database, REFLECTED_TABLE_NAME);
+        long readMillis = SystemClock.elapsedRealtime() - readStart;
+
+        readFinished.countDown();
+        writer.join();
+
+        assertEquals("The ingest failed: " + writerError[0], null, writerError[0]);
+
+        assertTrue("Reading took " + readMillis + "ms while a sync was writing; reads should "
+                        + "not wait for the sync to commit.",
+                readMillis < 1000);
+
+        assertEquals("Rows of an uncommitted ingest should not be visible to readers.",
+                1, rowsVisibleDuringIngest);
+
+        assertEquals("All rows of the ingest should be visible once it commits.",
+                rowsToIngest + 1, DatabaseUtils.queryNumEntries(database, REFLECTED_TABLE_NAME));
+    }
+
     /**
      * This method tests that our database contains all of the tables that we think it should
-     * contain. Although in our case, we just have one table that we expect should be added
-     * <p>
-     * {@link com.example.android.sunshine.data.WeatherContract.WeatherEntry#TABLE_NAME}.
-     * <p>
-     * Despite only needing to check one table name in Sunshine, we set this method up so that
-     * you can use it in other apps to test databases with more than one table.
+     * contain: the weather table,
+     * {@link com.example.android.sunshine.data.WeatherContract.WeatherEntry#TABLE_NAME}, and the
+     * weather archive,
+     * {@link com.example.android.sunshine.data.WeatherContract.ArchiveEntry#TABLE_NAME}.
      */
     @Test
     public void testCreateDb() {
-        /*
-         * Will contain the name of every table in our database. Even though in our case, we only
-         * have only table, in many cases, there are multiple tables. Because of that, we are
-         * showing you how to test that a database with multiple tables was created properly.
-         */
+        /* Will contain the name of every table in our database */
         final HashSet<String> tableNameHashSet = new HashSet<>();
 
-        /* Here, we add the name of our only table in this particular database */
+        /* Here, we add the names of the tables in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveEntry.TABLE_NAME);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
@@ -515,11 +664,11 @@ public class TestSunshineDatabase {
         /* Obtain weather values from TestUtilities */
         ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
 
-        /* Insert ContentValues into database and get a row ID back */
+        /* Insert ContentValues into database, in the units it stores, and get a row ID back */
         long weatherRowId = database.insert(
                 REFLECTED_TABLE_NAME,
                 null,
-                testWeatherValues);
+                WeatherEncoding.encode(testWeatherValues));
 
         /* If the insert fails, database.insert returns -1 */
         int valueOfIdIfInsertFails = -1;
@@ -533,8 +682,8 @@ public class TestSunshineDatabase {
          * a database in Android.
          */
         Cursor weatherCursor = database.query(
-                /* Name of table on which to perform the query */
-                REFLECTED_TABLE_NAME,
+                /* The view that reads the weather table back in the units it was inserted in */
+                WeatherContract.WeatherEntry.VIEW_NAME,
                 /* Columns; leaving this null returns every column in the table */
                 null,
                 /* Optional specification for columns in the "where" clause above */
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that SunshinePreferences' snapshot of the preferences follows their changes, whether
+ * they are made through SunshinePreferences or straight through SharedPreferences.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshinePreferences {
+
+    /* SharedPreferences reports changes made off the main thread a little later, on it */
+    private static final long CHANGE_TIMEOUT_MILLIS = 5000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private SharedPreferences mPreferences;
+    private Map<String, ?> mSavedPreferences;
+
+    @Before
+    public void setUp() {
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedPreferences = mPreferences.getAll();
+    }
+
+    /* Puts the preferences back the way they were before the test */
+    @After
+    public void tearDown() {
+        SharedPreferences.Editor editor = mPreferences.edit().clear();
+        for (Map.Entry<String, ?> preference : mSavedPreferences.entrySet()) {
+            Object value = preference.getValue();
+            if (value instanceof String) {
+                editor.putString(preference.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(preference.getKey(), (Boolean) value);
+            } else if (value instanceof Long) {
+                editor.putLong(preference.getKey(), (Long) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(preference.getKey(), (Integer) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(preference.getKey(), (Float) value);
+            }
+        }
+        editor.commit();
+    }
+
+    /**
+     * The setters refresh the snapshot themselves, so their changes are read back straight away
+     * on the thread that made them, without waiting for the listener on the main thread.
+     */
+    @Test
+    public void testSettersAreVisibleImmediately() {
+        SunshinePreferences.setLocationDetails(mContext, 37.42, -122.08);
+        assertTrue("Coordinates weren't available right after they were set",
+                SunshinePreferences.isLocationLatLonAvailable(mContext));
+        double[] coordinates = SunshinePreferences.getLocationCoordinates(mContext);
+        assertEquals(37.42, coordinates[0]);
+        assertEquals(-122.08, coordinates[1]);
+
+        /* Changing the returned array must not change the preferences */
+        coordinates[0] = 0;
+        assertEquals(37.42, SunshinePreferences.getLocationCoordinates(mContext)[0]);
+
+        SunshinePreferences.resetLocationCoordinates(mContext);
+        assertFalse("Coordinates were still available right after they were reset",
+                SunshinePreferences.isLocationLatLonAvailable(mContext));
+
+        SunshinePreferences.saveLastNotificationTime(mContext, 1234L);
+        assertEquals(1234L, SunshinePreferences.getLastNotificationTimeInMillis(mContext));
+    }
+
+    /**
+     * A preference changed straight through SharedPreferences, as the settings screen does, is
+     * picked up by the snapshot once the change listener has heard of it.
+     */
+    @Test
+    public void testSharedPreferenceChangesAreFollowed() throws Exception {
+        final String unitsKey = mContext.getString(R.string.pref_units_key);
+
+        mPreferences.edit()
+                .putString(unitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        PollingCheck.check("The snapshot didn't switch to metric units", CHANGE_TIMEOUT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return SunshinePreferences.isMetric(mContext);
+                    }
+                });
+
+        mPreferences.edit()
+                .putString(unitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        PollingCheck.check("The snapshot didn't switch to imperial units", CHANGE_TIMEOUT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return !SunshinePreferences.isMetric(mContext);
+                    }
+                });
+    }
+}
\ No newline at end of file
@@ -29,6 +29,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,6 +42,7 @@ import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COL
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry._ID;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
@@ -120,6 +123,7 @@ class TestUtilities {
 
         ContentValues testWeatherValues = new ContentValues();
 
+        testWeatherValues.put(_ID, DATE_NORMALIZED / SunshineDateUtils.DAY_IN_MILLIS);
         testWeatherValues.put(COLUMN_DATE, DATE_NORMALIZED);
         testWeatherValues.put(COLUMN_DEGREES, 1.1);
         testWeatherValues.put(COLUMN_HUMIDITY, 1.2);
@@ -189,6 +193,9 @@ class TestUtilities {
         final HandlerThread mHT;
         boolean mContentChanged;
 
+        /* Counted down by the first notification */
+        private final CountDownLatch mNotified = new CountDownLatch(1);
+
         private TestContentObserver(HandlerThread ht) {
             super(new Handler(ht.getLooper()));
             mHT = ht;
@@ -223,6 +230,18 @@ class TestUtilities {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mNotified.countDown();
+        }
+
+        /**
+         * Waits for a notification, but no longer than the given time. Use it to check that no
+         * notification arrives, which a polling check can't tell from one that is late.
+         *
+         * @param timeoutMillis The longest time to wait, in milliseconds
+         * @return Whether a notification arrived in time
+         */
+        boolean awaitNotification(long timeoutMillis) throws InterruptedException {
+            return mNotified.await(timeoutMillis, TimeUnit.MILLISECONDS);
         }
 
         /**
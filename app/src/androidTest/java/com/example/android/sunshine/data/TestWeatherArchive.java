@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
+import static com.example.android.sunshine.data.TestUtilities.DATE_NORMALIZED;
+import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the weather archive: moving past days out of the weather table, querying the archive by
+ * date range, and compacting it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherArchive {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private WeatherDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(mContext);
+        deleteAllWeather();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllWeather();
+        mDbHelper.close();
+    }
+
+    /**
+     * The test forecast starts the day after DATE_NORMALIZED. Archiving with "today" five days
+     * after DATE_NORMALIZED should move the first four days into the archive and leave the rest
+     * of the forecast in place.
+     */
+    @Test
+    public void testArchivePastWeatherMovesPastDays() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherEntry.CONTENT_URI, createBulkInsertTestWeatherValues());
+
+        long today = DATE_NORMALIZED + 5 * SunshineDateUtils.DAY_IN_MILLIS;
+        int daysMoved = archivePastWeather(today);
+
+        assertEquals("Every day before today should have been archived.", 4, daysMoved);
+        assertEquals("The days from today onwards should remain in the weather table.",
+                BULK_INSERT_RECORDS_TO_INSERT - 4,
+                DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                        WeatherEntry.TABLE_NAME));
+
+        Cursor archiveCursor = contentResolver.query(
+                ArchiveEntry.CONTENT_URI,
+                new String[]{ArchiveEntry.COLUMN_DATE, ArchiveEntry.COLUMN_MONTH,
+                        ArchiveEntry.COLUMN_DAYS},
+                null,
+                null,
+                null);
+
+        assertEquals(4, archiveCursor.getCount());
+        while (archiveCursor.moveToNext()) {
+            assertTrue("Only days before today should be archived.",
+                    archiveCursor.getLong(0) < today);
+            assertEquals("October 2016 should be stored as month 201610.",
+                    201610, archiveCursor.getInt(1));
+            assertEquals("Archived days should cover a single day.", 1, archiveCursor.getInt(2));
+        }
+        archiveCursor.close();
+
+        /* Archiving again is a no-op, as nothing before today is left in the weather table */
+        assertEquals(0, archivePastWeather(today));
+    }
+
+    /**
+     * A date range query should return the archived days within the range, both ends included.
+     */
+    @Test
+    public void testArchiveDateRangeQuery() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherEntry.CONTENT_URI, createBulkInsertTestWeatherValues());
+        archivePastWeather(DATE_NORMALIZED + 11 * SunshineDateUtils.DAY_IN_MILLIS);
+
+        long fromDate = DATE_NORMALIZED + 3 * SunshineDateUtils.DAY_IN_MILLIS;
+        long toDate = DATE_NORMALIZED + 5 * SunshineDateUtils.DAY_IN_MILLIS;
+        Cursor rangeCursor = contentResolver.query(
+                ArchiveEntry.buildArchiveUriWithDateRange(fromDate, toDate),
+                new String[]{ArchiveEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+
+        assertEquals("The range should include three days.", 3, rangeCursor.getCount());
+        rangeCursor.moveToFirst();
+        assertEquals(fromDate, rangeCursor.getLong(0));
+        rangeCursor.moveToLast();
+        assertEquals(toDate, rangeCursor.getLong(0));
+        rangeCursor.close();
+    }
+
+    /**
+     * Archive URIs scoped to a location should return that location's archived weather only,
+     * while archive URIs that aren't scoped return the preferred location's.
+     */
+    @Test
+    public void testArchiveQueriesScopedToLocation() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherEntry.CONTENT_URI, createBulkInsertTestWeatherValues());
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "Lisbon, PT");
+        long otherLocationId = ContentUris.parseId(
+                contentResolver.insert(LocationEntry.CONTENT_URI, locationValues));
+        contentResolver.bulkInsert(
+                WeatherEntry.buildUriForLocation(WeatherEntry.CONTENT_URI, otherLocationId),
+                Arrays.copyOf(createBulkInsertTestWeatherValues(), 3));
+
+        archivePastWeather(DATE_NORMALIZED + 11 * SunshineDateUtils.DAY_IN_MILLIS);
+
+        Uri rangeUri = ArchiveEntry.buildArchiveUriWithDateRange(
+                DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS,
+                DATE_NORMALIZED + 10 * SunshineDateUtils.DAY_IN_MILLIS);
+        assertEquals("The preferred location should keep its own archive.",
+                10, countRows(contentResolver.query(rangeUri, null, null, null, null)));
+        assertEquals("The archive URI should only return the preferred location's days.",
+                10, countRows(contentResolver.query(
+                        ArchiveEntry.CONTENT_URI, null, null, null, null)));
+        assertEquals("A scoped range should only return its location's archive.",
+                3, countRows(contentResolver.query(
+                        ArchiveEntry.buildUriForLocation(rangeUri, otherLocationId),
+                        null, null, null, null)));
+        assertEquals("The scoped archive should only return its location's days.",
+                3, countRows(contentResolver.query(
+                        ArchiveEntry.buildUriForLocation(ArchiveEntry.CONTENT_URI,
+                                otherLocationId),
+                        null, null, null, null)));
+
+        contentResolver.delete(LocationEntry.buildLocationUri(otherLocationId), null, null);
+    }
+
+    /**
+     * A statistics query over the archive should summarize the archived days within the range in
+     * a single row, computed by the database.
+     */
+    @Test
+    public void testArchiveStatsQuery() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherEntry.CONTENT_URI, createBulkInsertTestWeatherValues());
+        archivePastWeather(DATE_NORMALIZED + 11 * SunshineDateUtils.DAY_IN_MILLIS);
+
+        /* Days 3 to 7 of the test forecast: minimums 63 to 59, maximums 77 to 81 */
+        long fromDate = DATE_NORMALIZED + 3 * SunshineDateUtils.DAY_IN_MILLIS;
+        long toDate = DATE_NORMALIZED + 7 * SunshineDateUtils.DAY_IN_MILLIS;
+        Cursor statsCursor = contentResolver.query(
+                ArchiveEntry.buildStatsUri(fromDate, toDate),
+                new String[]{StatsEntry.COLUMN_DAYS, StatsEntry.COLUMN_MIN_TEMP,
+                        StatsEntry.COLUMN_MAX_TEMP, StatsEntry.COLUMN_AVG_MAX_TEMP},
+                null,
+                null,
+                null);
+
+        assertEquals("Statistics should be returned in a single row.", 1, statsCursor.getCount());
+        statsCursor.moveToFirst();
+        assertEquals(5, statsCursor.getInt(0));
+        assertEquals(59.0, statsCursor.getDouble(1), 0.001);
+        assertEquals(81.0, statsCursor.getDouble(2), 0.001);
+        assertEquals(79.0, statsCursor.getDouble(3), 0.001);
+        statsCursor.close();
+    }
+
+    /**
+     * Compaction should drop months outside of the retention period, merge the days of months
+     * older than FULL_RESOLUTION_MONTHS into rows of up to a week, keep recent months as they
+     * are, and change nothing when run a second time.
+     */
+    @Test
+    public void testCompactionDownsamplesAndAppliesRetention() {
+        long now = System.currentTimeMillis();
+        int currentMonth = WeatherArchive.getMonth(now);
+
+        int expiredMonth = WeatherArchive.addMonths(currentMonth, -30);
+        int oldMonth = WeatherArchive.addMonths(currentMonth, -6);
+
+        int expiredDays = insertArchivedMonth(expiredMonth);
+        int oldDays = insertArchivedMonth(oldMonth);
+        int currentDays = insertArchivedMonth(currentMonth);
+
+        int rowsRemoved = compactArchive(24);
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        assertEquals("Months outside of the retention period should be dropped.",
+                0, countArchivedRows(db, expiredMonth));
+        assertEquals("Recent months should keep one row per day.",
+                currentDays, countArchivedRows(db, currentMonth));
+
+        long compactedRows = countArchivedRows(db, oldMonth);
+        assertTrue("Old months should be merged into rows of up to a week.",
+                compactedRows <= 6 && compactedRows >= 4);
+        assertEquals("Merged rows should still account for every day of the month.",
+                oldDays, DatabaseUtils.longForQuery(db,
+                        "SELECT SUM(" + ArchiveEntry.COLUMN_DAYS + ") FROM "
+                                + ArchiveEntry.TABLE_NAME + " WHERE "
+                                + ArchiveEntry.COLUMN_MONTH + " = " + oldMonth, null));
+
+        assertEquals(expiredDays + oldDays - compactedRows, rowsRemoved);
+
+        assertEquals("Compacting an already compacted archive should change nothing.",
+                0, compactArchive(24));
+        assertEquals(compactedRows, countArchivedRows(db, oldMonth));
+    }
+
+    /**
+     * A week compacted from days with one missing should still summarize only the days it was
+     * merged from, but cover every date up to its last day, so that a range query of that last
+     * day finds it.
+     */
+    @Test
+    public void testCompactedWeekWithMissingDayCoversItsSpan() {
+        int oldMonth = WeatherArchive.addMonths(
+                WeatherArchive.getMonth(System.currentTimeMillis()), -6);
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(oldMonth / 100, oldMonth % 100 - 1, 1);
+
+        /* The first group of DAYS_PER_COMPACTED_ROW days that starts within the month */
+        int daysPerRow = WeatherArchive.DAYS_PER_COMPACTED_ROW;
+        long firstDay = WeatherEncoding.encodeDate(calendar.getTimeInMillis());
+        long weekStart = (firstDay + daysPerRow - 1) / daysPerRow * daysPerRow;
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ContentValues values = TestUtilities.createTestWeatherContentValues();
+        for (int day = 0; day < daysPerRow; day++) {
+            if (day == 2) {
+                continue;
+            }
+            values.put(ArchiveEntry.COLUMN_DATE,
+                    (weekStart + day) * SunshineDateUtils.DAY_IN_MILLIS);
+            ContentValues archived = WeatherEncoding.encode(values);
+            archived.put(ArchiveEntry.COLUMN_MONTH, oldMonth);
+            db.insert(ArchiveEntry.TABLE_NAME, null, archived);
+        }
+
+        compactArchive(0);
+
+        long lastDate = (weekStart + daysPerRow - 1) * SunshineDateUtils.DAY_IN_MILLIS;
+        Cursor rangeCursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildUriForLocation(
+                        ArchiveEntry.buildArchiveUriWithDateRange(lastDate, lastDate), 0),
+                new String[]{ArchiveEntry.COLUMN_DAYS, ArchiveEntry.COLUMN_SPAN},
+                null,
+                null,
+                null);
+
+        assertEquals("The last day of the week should find the merged row.",
+                1, rangeCursor.getCount());
+        rangeCursor.moveToFirst();
+        assertEquals("Averages should only be weighted by the days merged.",
+                daysPerRow - 1, rangeCursor.getInt(0));
+        assertEquals(daysPerRow, rangeCursor.getInt(1));
+        rangeCursor.close();
+    }
+
+    /*
+     * Inserts one archived row for every day of a month, in the units the archive stores,
+     * returning the number of days
+     */
+    private int insertArchivedMonth(int month) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(month / 100, month % 100 - 1, 1);
+        int daysInMonth = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ContentValues values = TestUtilities.createTestWeatherContentValues();
+        for (int day = 0; day < daysInMonth; day++) {
+            long date = calendar.getTimeInMillis() + day * SunshineDateUtils.DAY_IN_MILLIS;
+            values.put(ArchiveEntry.COLUMN_DATE, date);
+            ContentValues archived = WeatherEncoding.encode(values);
+            archived.put(ArchiveEntry.COLUMN_MONTH, month);
+            db.insert(ArchiveEntry.TABLE_NAME, null, archived);
+        }
+        return daysInMonth;
+    }
+
+    private int archivePastWeather(long today) {
+        Bundle result = mContext.getContentResolver().call(
+                ArchiveEntry.CONTENT_URI,
+                ArchiveEntry.METHOD_ARCHIVE_PAST_WEATHER,
+                Long.toString(today),
+                null);
+        return result.getInt(ArchiveEntry.EXTRA_ROW_COUNT);
+    }
+
+    private int compactArchive(int retentionMonths) {
+        Bundle extras = new Bundle();
+        extras.putInt(ArchiveEntry.EXTRA_RETENTION_MONTHS, retentionMonths);
+        Bundle result = mContext.getContentResolver().call(
+                ArchiveEntry.CONTENT_URI,
+                ArchiveEntry.METHOD_COMPACT_ARCHIVE,
+                null,
+                extras);
+        return result.getInt(ArchiveEntry.EXTRA_ROW_COUNT);
+    }
+
+    /* Counts the rows of a cursor, then closes it */
+    private static int countRows(Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long countArchivedRows(SQLiteDatabase db, int month) {
+        return DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME,
+                ArchiveEntry.COLUMN_MONTH + " = ?", new String[]{Integer.toString(month)});
+    }
+
+    private void deleteAllWeather() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(ArchiveEntry.TABLE_NAME, null, null);
+    }
+}
\ No newline at end of file
@@ -16,24 +16,41 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -57,6 +74,26 @@ import static junit.framework.Assert.fail;
  *   4) A test to determine if you've implemented the delete functionality of your
  *    ContentProvider properly.
  * <p>
+ *   5) A test to ensure a single day can be inserted and then corrected in place
+ * <p>
+ *   6) A test to ensure applyBatch notifies observers once for the whole batch
+ * <p>
+ *   7) A test to ensure changing one day doesn't notify the observers of other days
+ * <p>
+ *   8) A test to ensure repeated queries for a day are cached until that day is written
+ * <p>
+ *   9) A test to ensure statistics over a range of days are computed in a single row
+ * <p>
+ *   10) A test to ensure debug builds count the queries the provider serves
+ * <p>
+ *   11) A test to ensure the from and range URIs select and page the right days
+ * <p>
+ *   12) A test to ensure maintenance leaves no free pages in an intact database
+ * <p>
+ *   13) A test to ensure forecast queries answered from memory match SQLite, in any order
+ * <p>
+ *   14) A test to ensure each tracked location keeps its own forecast
+ * <p>
  * If any of these tests fail, you should see useful error messages in the testing console's
  * output window.
  * <p>
@@ -68,6 +105,15 @@ import static junit.framework.Assert.fail;
 @RunWith(AndroidJUnit4.class)
 public class TestWeatherProvider {
 
+    /* How long to wait for a notification that should arrive */
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 5000;
+
+    /*
+     * How long to wait for a notification that shouldn't arrive. Notifications are delivered in
+     * milliseconds, so one that hasn't arrived by then isn't coming.
+     */
+    private static final long STRAY_NOTIFICATION_TIMEOUT_MILLIS = 500;
+
     /* Context used to access various parts of the system */
     private final Context mContext = InstrumentationRegistry.getTargetContext();
 
@@ -176,8 +222,8 @@ public class TestWeatherProvider {
                 /* Table to insert values into */
                 WeatherContract.WeatherEntry.TABLE_NAME,
                 null,
-                /* Values to insert into table */
-                testWeatherValues);
+                /* Values to insert into table, in the units it stores */
+                WeatherEncoding.encode(testWeatherValues));
 
         String insertFailed = "Unable to insert into the database";
         assertTrue(insertFailed, weatherRowId != -1);
@@ -424,7 +470,617 @@ public class TestWeatherProvider {
     }
 
     /**
-     * This method will clear all rows from the weather table in our database.
+     * This test inserts a forecast, then corrects a single day of it through the URI for that
+     * day. Only that day's row should change, and observers should be notified.
+     */
+    @Test
+    public void testInsertAndUpdateSingleDay() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        Uri insertedUri = contentResolver.insert(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                testWeatherValues);
+
+        Uri expectedUri = WeatherContract.WeatherEntry
+                .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+        assertEquals("insert should return the URI of the inserted day.",
+                expectedUri, insertedUri);
+
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, forecast);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                weatherObserver);
+
+        ContentValues correction = new ContentValues();
+        correction.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 80);
+
+        int rowsUpdated = contentResolver.update(insertedUri, correction, null, null);
+
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        assertEquals("Updating a single day should change exactly one row.", 1, rowsUpdated);
+
+        testWeatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 80);
+        TestUtilities.validateThenCloseCursor("The corrected day doesn't match the correction.",
+                contentResolver.query(insertedUri, null, null, null, null),
+                testWeatherValues);
+
+        /* The rest of the forecast must be left exactly as it was inserted */
+        for (ContentValues dayValues : forecast) {
+            Uri dayUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                    dayValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            TestUtilities.validateThenCloseCursor("Updating one day changed another day.",
+                    contentResolver.query(dayUri, null, null, null, null),
+                    dayValues);
+        }
+    }
+
+    /**
+     * This test applies a batch of inserts through applyBatch. Observers of the weather as a whole
+     * should be notified once for the whole batch rather than once per operation, and every row
+     * should be inserted.
+     */
+    @Test
+    public void testApplyBatchNotifiesOnce() throws Exception {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues dayValues : createBulkInsertTestWeatherValues()) {
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(dayValues)
+                    .withYieldAllowed(true)
+                    .build());
+        }
+
+        HandlerThread observerThread = new HandlerThread("ApplyBatchObserverThread");
+        observerThread.start();
+        final CountDownLatch firstNotification = new CountDownLatch(1);
+        final CountDownLatch secondNotification = new CountDownLatch(2);
+        ContentObserver countingObserver = new ContentObserver(
+                new Handler(observerThread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                firstNotification.countDown();
+                secondNotification.countDown();
+            }
+        };
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_LIST_URI,
+                true,
+                countingObserver);
+
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertTrue("applyBatch should notify observers of the batch.",
+                firstNotification.await(NOTIFICATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        boolean notifiedAgain = secondNotification.await(STRAY_NOTIFICATION_TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS);
+        contentResolver.unregisterContentObserver(countingObserver);
+        observerThread.quit();
+
+        assertFalse("applyBatch should notify observers once for the whole batch.",
+                notifiedAgain);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, results.length);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Every operation of the batch should have been applied.",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * This test corrects one day of a forecast. Observers of that day and of the weather as a
+     * whole should be notified, but the observer of another day shouldn't be.
+     */
+    @Test
+    public void testChangingOneDayOnlyNotifiesThatDay() throws InterruptedException {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ContentValues[] forecast = createBulkInsertTestWeatherValues();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, forecast);
+
+        Uri changedDayUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                forecast[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        Uri otherDayUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                forecast[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+
+        /* Cursors register for descendants of their notification URI, so we do the same */
+        TestUtilities.TestContentObserver changedDayObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherDayObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver listObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(changedDayUri, true, changedDayObserver);
+        contentResolver.registerContentObserver(otherDayUri, true, otherDayObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_LIST_URI, true, listObserver);
+
+        ContentValues correction = new ContentValues();
+        correction.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 80);
+        contentResolver.update(changedDayUri, correction, null, null);
+
+        changedDayObserver.waitForNotificationOrFail();
+        listObserver.waitForNotificationOrFail();
+
+        boolean otherDayNotified =
+                otherDayObserver.awaitNotification(STRAY_NOTIFICATION_TIMEOUT_MILLIS);
+        contentResolver.unregisterContentObserver(changedDayObserver);
+        contentResolver.unregisterContentObserver(otherDayObserver);
+        contentResolver.unregisterContentObserver(listObserver);
+        otherDayObserver.mHT.quit();
+
+        assertFalse("Changing one day shouldn't notify the observers of another day.",
+                otherDayNotified);
+    }
+
+    /**
+     * This test queries the same day twice, then corrects it. The second query should be
+     * answered from the provider's cache, and the correction should be visible to the query
+     * after it rather than the cached weather.
+     */
+    @Test
+    public void testDateQueriesAreCachedUntilWritten() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        Uri dayUri = contentResolver.insert(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                testWeatherValues);
+
+        Bundle statsBefore = getCacheStats();
+
+        TestUtilities.validateThenCloseCursor("The first query returned the wrong weather.",
+                contentResolver.query(dayUri, null, null, null, null),
+                testWeatherValues);
+        TestUtilities.validateThenCloseCursor("The cached query returned the wrong weather.",
+                contentResolver.query(dayUri, null, null, null, null),
+                testWeatherValues);
+
+        /* Nothing has queried the forecast yet, so the replica isn't loaded to answer these */
+        Bundle statsAfter = getCacheStats();
+        assertEquals("The first query for the day should have read the database.",
+                1, getCount(statsAfter, statsBefore,
+                        WeatherContract.WeatherEntry.EXTRA_CACHE_MISSES));
+        assertEquals("The second query for the day should have been answered from the cache.",
+                1, getCount(statsAfter, statsBefore,
+                        WeatherContract.WeatherEntry.EXTRA_CACHE_HITS));
+
+        ContentValues correction = new ContentValues();
+        correction.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 80);
+        contentResolver.update(dayUri, correction, null, null);
+
+        testWeatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 80);
+        TestUtilities.validateThenCloseCursor("The cache returned weather older than an update.",
+                contentResolver.query(dayUri, null, null, null, null),
+                testWeatherValues);
+    }
+
+    /**
+     * This test inserts a forecast, then queries the statistics of five of its days. The result
+     * should be a single row summarizing exactly those days.
+     */
+    @Test
+    public void testStatsQuerySummarizesDateRange() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        /* The forecast starts the day after DATE_NORMALIZED; these are its days 3 to 7 */
+        long fromDate = TestUtilities.DATE_NORMALIZED + 3 * SunshineDateUtils.DAY_IN_MILLIS;
+        long toDate = TestUtilities.DATE_NORMALIZED + 7 * SunshineDateUtils.DAY_IN_MILLIS;
+
+        Cursor statsCursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildStatsUri(fromDate, toDate),
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", statsCursor);
+        assertEquals("Statistics should be returned in a single row.", 1, statsCursor.getCount());
+        statsCursor.moveToFirst();
+
+        assertEquals(5, getInt(statsCursor, StatsEntry.COLUMN_DAYS));
+        assertEquals(59.0, getDouble(statsCursor, StatsEntry.COLUMN_MIN_TEMP), 0.001);
+        assertEquals(81.0, getDouble(statsCursor, StatsEntry.COLUMN_MAX_TEMP), 0.001);
+        assertEquals(61.0, getDouble(statsCursor, StatsEntry.COLUMN_AVG_MIN_TEMP), 0.001);
+        assertEquals(79.0, getDouble(statsCursor, StatsEntry.COLUMN_AVG_MAX_TEMP), 0.001);
+
+        statsCursor.close();
+    }
+
+    /**
+     * Debug builds profile the provider. After a query, its profile should hold a row for
+     * queries, counting at least that one.
+     */
+    @Test
+    public void testProfileCountsQueries() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null)
+                .close();
+
+        Cursor profileCursor = contentResolver.query(
+                WeatherContract.ProfileEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+        assertNotNull("Cursor was null.", profileCursor);
+
+        int queryCount = 0;
+        while (profileCursor.moveToNext()) {
+            String operation = profileCursor.getString(profileCursor.getColumnIndexOrThrow(
+                    WeatherContract.ProfileEntry.COLUMN_OPERATION));
+            if ("query".equals(operation)) {
+                queryCount = getInt(profileCursor, WeatherContract.ProfileEntry.COLUMN_COUNT);
+            }
+        }
+        profileCursor.close();
+
+        assertTrue("The profile should have counted the query.", queryCount > 0);
+    }
+
+    /**
+     * This test inserts a forecast, then queries it from a date onwards, between two dates, and a
+     * page at a time. Each query should return exactly the expected days, in date order.
+     */
+    @Test
+    public void testFromAndRangeQueries() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        /* The forecast covers the ten days after DATE_NORMALIZED */
+        long day3 = TestUtilities.DATE_NORMALIZED + 3 * SunshineDateUtils.DAY_IN_MILLIS;
+        long day5 = TestUtilities.DATE_NORMALIZED + 5 * SunshineDateUtils.DAY_IN_MILLIS;
+
+        assertDates(contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriFromDate(day3),
+                null, null, null, null),
+                day3, BULK_INSERT_RECORDS_TO_INSERT - 2);
+
+        assertDates(contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDateRange(day3, day5),
+                null, null, null, null),
+                day3, 3);
+
+        Uri secondPage = WeatherContract.WeatherEntry.buildUriWithLimit(
+                WeatherContract.WeatherEntry.buildWeatherUriFromDate(
+                        TestUtilities.DATE_NORMALIZED),
+                2, 2);
+        assertDates(contentResolver.query(secondPage, null, null, null, null), day3, 2);
+    }
+
+    /**
+     * This test inserts a forecast and deletes it again, which leaves free pages in the database
+     * file, then maintains the database. The integrity check should pass, and every free page
+     * should have been returned to the file system.
+     */
+    @Test
+    public void testMaintenanceFreesPages() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        Bundle report = contentResolver.call(
+                WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.MaintenanceEntry.METHOD_RUN_MAINTENANCE,
+                null,
+                null);
+
+        assertNotNull("Maintenance should return a report.", report);
+        assertTrue("The database should pass its integrity check.",
+                report.getBoolean(WeatherContract.MaintenanceEntry.EXTRA_INTEGRITY_OK));
+        assertTrue("The report should count the pages of the database.",
+                report.getLong(WeatherContract.MaintenanceEntry.EXTRA_PAGE_COUNT_AFTER) > 0);
+        assertEquals("Maintenance should leave no free pages.",
+                0, report.getLong(WeatherContract.MaintenanceEntry.EXTRA_FREE_PAGE_COUNT_AFTER));
+    }
+
+    /**
+     * This test inserts a forecast, then queries all of it sorted by a measurement, and a page of
+     * it from a date onwards. Each result should match SQLite's, row for row, whether or not it
+     * came from the provider's copy of the weather. A correction and a deletion through the
+     * provider should be visible to the next query.
+     */
+    @Test
+    public void testReplicaQueriesMatchDatabase() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        String[] projection = {
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP};
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " DESC, "
+                + WeatherContract.WeatherEntry.COLUMN_DATE;
+
+        Bundle statsBefore = getCacheStats();
+        assertSameRows(
+                contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                        projection, null, null, sortOrder),
+                queryWeatherView(projection, null, sortOrder, null));
+
+        long day3 = TestUtilities.DATE_NORMALIZED + 3 * SunshineDateUtils.DAY_IN_MILLIS;
+        assertSameRows(
+                contentResolver.query(WeatherContract.WeatherEntry.buildUriWithLimit(
+                        WeatherContract.WeatherEntry.buildWeatherUriFromDate(day3), 3, 1),
+                        projection, null, null, null),
+                queryWeatherView(projection, WeatherContract.WeatherEntry.COLUMN_DATE + " >= "
+                        + day3, WeatherContract.WeatherEntry.COLUMN_DATE, "1, 3"));
+
+        if (WeatherReplica.ENABLED) {
+            assertEquals("Both queries should have been answered from memory.",
+                    2, getCount(getCacheStats(), statsBefore,
+                            WeatherContract.WeatherEntry.EXTRA_CACHE_HITS));
+        }
+
+        /* Writes of a single day replace that day in the replica rather than dropping it */
+        ContentValues correction = new ContentValues();
+        correction.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+        contentResolver.update(WeatherContract.WeatherEntry.buildWeatherUriWithDate(day3),
+                correction, null, null);
+        contentResolver.delete(WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                TestUtilities.DATE_NORMALIZED), null, null);
+
+        statsBefore = getCacheStats();
+        assertSameRows(
+                contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                        projection, null, null, sortOrder),
+                queryWeatherView(projection, null, sortOrder, null));
+
+        if (WeatherReplica.ENABLED) {
+            assertEquals("The replica should have been kept up to date by the writes.",
+                    1, getCount(getCacheStats(), statsBefore,
+                            WeatherContract.WeatherEntry.EXTRA_CACHE_HITS));
+        }
+    }
+
+    /**
+     * A copy of the weather loaded on another thread while a single day is being written reads
+     * the day as it was before the write commits. When the write had no copy to update, it must
+     * drop that copy as it publishes, rather than leave it to answer queries until the next write.
+     */
+    @Test
+    public void testReplicaLoadDuringWriteIsDropped() throws Exception {
+
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        final SQLiteDatabase database = dbHelper.getWritableDatabase();
+        final WeatherReplica replica = new WeatherReplica();
+        long locationId = DatabaseUtils.longForQuery(database,
+                "SELECT " + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " FROM "
+                        + WeatherContract.WeatherEntry.TABLE_NAME + " LIMIT 1", null);
+        long day = WeatherEncoding.encodeDate(TestUtilities.DATE_NORMALIZED);
+        String[] projection = {WeatherContract.WeatherEntry.COLUMN_MAX_TEMP};
+
+        ContentValues correction = new ContentValues();
+        correction.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+
+        WeatherReplica.Write write;
+        database.beginTransactionNonExclusive();
+        try {
+            database.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherEncoding.encode(correction),
+                    WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                            + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{Long.toString(locationId), Long.toString(day)});
+            write = replica.readBack(database, locationId, day);
+
+            /* Loads through another connection, which only sees what has been committed */
+            Thread load = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    replica.loadIfNeeded(database);
+                }
+            });
+            load.start();
+            load.join();
+            Cursor staleCursor = replica.query(locationId, day, day, projection, null, -1, 0);
+            assertNotNull("The copy should have been loaded while the write was in progress.",
+                    staleCursor);
+            staleCursor.close();
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        replica.publish(write);
+
+        Cursor cursor = replica.query(locationId, day, day, projection, null, -1, 0);
+        if (cursor != null) {
+            cursor.close();
+            fail("The copy loaded before the write committed was kept.");
+        }
+
+        replica.loadIfNeeded(database);
+        cursor = replica.query(locationId, day, day, projection, null, -1, 0);
+        assertNotNull("The copy should have been loaded again.", cursor);
+        try {
+            assertTrue("The written day is missing from the copy.", cursor.moveToFirst());
+            assertEquals("The copy didn't hold the written day.", 99.0, cursor.getDouble(0), 0);
+        } finally {
+            cursor.close();
+            database.close();
+        }
+    }
+
+    /* Queries the weather view directly, bypassing the provider and whatever it holds in memory */
+    private Cursor queryWeatherView(String[] projection, String selection, String sortOrder,
+                                    String limit) {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        return dbHelper.getReadableDatabase().query(WeatherContract.WeatherEntry.VIEW_NAME,
+                projection, selection, null, null, null, sortOrder, limit);
+    }
+
+    /* Checks that two cursors hold the same values in the same order, then closes them */
+    private static void assertSameRows(Cursor actual, Cursor expected) {
+        assertNotNull("Cursor was null.", actual);
+        assertEquals("The query returned the wrong number of rows.",
+                expected.getCount(), actual.getCount());
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                assertEquals("Row " + expected.getPosition() + " differs from the database.",
+                        expected.getString(column), actual.getString(column));
+            }
+        }
+        actual.close();
+        expected.close();
+    }
+
+    /**
+     * This test tracks two locations and syncs a forecast into each. Each location's URIs should
+     * return its own forecast, adding a location again should keep its _ID, and deleting one
+     * location should delete its weather, leave the other's alone and never give its _ID to a
+     * location added later.
+     */
+    @Test
+    public void testLocationsKeepTheirOwnWeather() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        long firstLocationId = addLocation("Mountain View, CA");
+        long secondLocationId = addLocation("Lisbon, PT");
+        assertTrue("Each location should get its own _ID.", firstLocationId != secondLocationId);
+
+        ContentValues[] firstForecast = createBulkInsertTestWeatherValues();
+        ContentValues[] secondForecast = createBulkInsertTestWeatherValues();
+        for (ContentValues dayValues : secondForecast) {
+            dayValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 21.5);
+        }
+        contentResolver.bulkInsert(getLocationWeatherUri(
+                WeatherContract.WeatherEntry.CONTENT_URI, firstLocationId), firstForecast);
+        contentResolver.bulkInsert(getLocationWeatherUri(
+                WeatherContract.WeatherEntry.CONTENT_URI, secondLocationId), secondForecast);
+
+        assertEquals("Adding a tracked location again should return its existing _ID.",
+                firstLocationId, addLocation("Mountain View, CA"));
+
+        for (int i = 0; i < firstForecast.length; i++) {
+            Uri dayUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                    firstForecast[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            TestUtilities.validateThenCloseCursor("A location returned another's weather.",
+                    contentResolver.query(getLocationWeatherUri(dayUri, firstLocationId),
+                            null, null, null, null),
+                    firstForecast[i]);
+            TestUtilities.validateThenCloseCursor("A location returned another's weather.",
+                    contentResolver.query(getLocationWeatherUri(dayUri, secondLocationId),
+                            null, null, null, null),
+                    secondForecast[i]);
+        }
+
+        int locationsDeleted = contentResolver.delete(
+                WeatherContract.LocationEntry.buildLocationUri(secondLocationId), null, null);
+        assertEquals("Deleting a location should delete exactly one location.",
+                1, locationsDeleted);
+
+        Uri firstForecastUri = getLocationWeatherUri(
+                WeatherContract.WeatherEntry.buildWeatherUriFromDate(
+                        TestUtilities.DATE_NORMALIZED),
+                firstLocationId);
+        Uri secondForecastUri = getLocationWeatherUri(
+                WeatherContract.WeatherEntry.buildWeatherUriFromDate(
+                        TestUtilities.DATE_NORMALIZED),
+                secondLocationId);
+        assertDates(contentResolver.query(firstForecastUri, null, null, null, null),
+                TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS,
+                BULK_INSERT_RECORDS_TO_INSERT);
+        assertDates(contentResolver.query(secondForecastUri, null, null, null, null),
+                TestUtilities.DATE_NORMALIZED, 0);
+
+        assertTrue("A deleted location's _ID should never be reused.",
+                addLocation("Porto, PT") > secondLocationId);
+    }
+
+    /* Adds a location through the provider and returns its _ID */
+    private long addLocation(String locationSetting) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri locationUri = mContext.getContentResolver()
+                .insert(WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        assertNotNull("Adding a location should return its URI.", locationUri);
+        return ContentUris.parseId(locationUri);
+    }
+
+    private static Uri getLocationWeatherUri(Uri weatherUri, long locationId) {
+        return WeatherContract.WeatherEntry.buildUriForLocation(weatherUri, locationId);
+    }
+
+    /* Checks that a cursor holds consecutive days starting at firstDate, then closes it */
+    private static void assertDates(Cursor cursor, long firstDate, int expectedDays) {
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("The query returned the wrong number of days.",
+                expectedDays, cursor.getCount());
+
+        int dateIndex = cursor.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long expectedDate = firstDate;
+        while (cursor.moveToNext()) {
+            assertEquals("The query returned the wrong day.",
+                    expectedDate, cursor.getLong(dateIndex));
+            expectedDate += SunshineDateUtils.DAY_IN_MILLIS;
+        }
+        cursor.close();
+    }
+
+    private static int getInt(Cursor cursor, String column) {
+        return cursor.getInt(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private Bundle getCacheStats() {
+        return mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_GET_CACHE_STATS,
+                null,
+                null);
+    }
+
+    private static int getCount(Bundle statsAfter, Bundle statsBefore, String key) {
+        return statsAfter.getInt(key) - statsBefore.getInt(key);
+    }
+
+    /*
+     * The provider keeps weather in memory, and doesn't see the writes this class makes around
+     * it. Those writes drop what it holds, so that its next query reads the database.
+     */
+    private void invalidateProviderCaches() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        assertNotNull("The weather provider isn't registered.", client);
+        try {
+            ((WeatherProvider) client.getLocalContentProvider()).invalidateCaches();
+        } finally {
+            client.release();
+        }
+    }
+
+    /**
+     * This method will clear all rows from the weather and location tables in our database.
      * <p>
      * Please note:
      * <p>
@@ -443,7 +1099,20 @@ public class TestWeatherProvider {
         /* The delete method deletes all of the desired rows from the table, not the table itself */
         database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
 
+        database.delete(WeatherContract.LocationEntry.TABLE_NAME, null, null);
+
+        /* Start the location _IDs over, as on a fresh install, see WeatherDbHelper */
+        database.execSQL("UPDATE sqlite_sequence SET seq = -1 WHERE name = '"
+                + WeatherContract.LocationEntry.TABLE_NAME + "'");
+
         /* Always close the database when you're through with it */
         database.close();
+        invalidateProviderCaches();
+
+        /*
+         * Track the preferred location again, as a sync would. Without any other locations it
+         * gets _ID 0, which is the location weather inserted straight into the table belongs to.
+         */
+        addLocation(SunshinePreferences.getPreferredWeatherLocation(mContext));
     }
 }
\ No newline at end of file
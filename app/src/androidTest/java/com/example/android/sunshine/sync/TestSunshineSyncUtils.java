@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how SunshineSyncUtils turns changes of location into syncs. The syncs themselves aren't
+ * started here; the tests play the part of the sync service, beginning a sync where it would.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshineSyncUtils {
+
+    /**
+     * Two changes of location in quick succession abandon the sync that was running straight
+     * away, and result in one sync, which begins after both and so syncs the final location.
+     */
+    @Test
+    public void testQuickLocationChangesStartOneSync() {
+        /* A sync of the old location is running */
+        int inFlightSync = SunshineSyncTask.startSync();
+
+        assertTrue("The first change of location didn't start a sync",
+                SunshineSyncUtils.requestLocationChangeSync());
+        assertTrue("The sync of the old location wasn't cancelled right away",
+                SunshineSyncTask.isSuperseded(inFlightSync));
+
+        assertFalse("A second change started another sync while the first was pending",
+                SunshineSyncUtils.requestLocationChangeSync());
+
+        /* The pending sync begins, and reads the final location */
+        int pendingSync = SunshineSyncTask.startSync();
+        assertFalse("The sync of the final location was cancelled",
+                SunshineSyncTask.isSuperseded(pendingSync));
+
+        assertTrue("A change after the sync began didn't start a sync of its own",
+                SunshineSyncUtils.requestLocationChangeSync());
+        assertTrue("The sync that began wasn't cancelled by the later change",
+                SunshineSyncTask.isSuperseded(pendingSync));
+
+        /* Leave nothing pending for other tests */
+        SunshineSyncTask.startSync();
+    }
+
+    /**
+     * A sync started for a change of location that never begins, because its service never ran,
+     * only holds back the syncs of later changes until it times out.
+     */
+    @Test
+    public void testPendingSyncThatNeverBeginsTimesOut() {
+        long now = SystemClock.elapsedRealtime();
+
+        assertTrue("The change of location didn't start a sync",
+                SunshineSyncUtils.requestLocationChangeSync(now));
+        assertFalse("A change soon after started another sync while the first was pending",
+                SunshineSyncUtils.requestLocationChangeSync(now + 1000));
+
+        assertTrue("A change after the pending sync timed out didn't start a sync",
+                SunshineSyncUtils.requestLocationChangeSync(
+                        now + SunshineSyncUtils.LOCATION_SYNC_PENDING_TIMEOUT_MILLIS));
+
+        /* Leave nothing pending for other tests */
+        SunshineSyncTask.startSync();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+
+/**
+ * Tests that friendly date strings are memoized, and built again after each of the broadcasts
+ * that can change them. Those broadcasts may only be sent by the system, so they are delivered
+ * straight to the receiver SunshineDateUtils registers.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSunshineDateUtils {
+
+    /* Far enough ahead to be named by the day name format, rather than as today or tomorrow */
+    private static final int DAYS_AHEAD = 3;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testFriendlyDatesAreMemoized() {
+        long date = SunshineDateUtils.getNormalizedUtcDateForToday()
+                + DAYS_AHEAD * SunshineDateUtils.DAY_IN_MILLIS;
+
+        String friendlyDate = SunshineDateUtils.getFriendlyDateString(mContext, date, false);
+        assertSame("The friendly date was built again without a change",
+                friendlyDate, SunshineDateUtils.getFriendlyDateString(mContext, date, false));
+    }
+
+    @Test
+    public void testTimeZoneChangeRebuildsFriendlyDates() {
+        assertRebuiltAfter(Intent.ACTION_TIMEZONE_CHANGED);
+    }
+
+    @Test
+    public void testLocaleChangeRebuildsFriendlyDates() {
+        assertRebuiltAfter(Intent.ACTION_LOCALE_CHANGED);
+    }
+
+    @Test
+    public void testDateChangeRebuildsFriendlyDates() {
+        assertRebuiltAfter(Intent.ACTION_DATE_CHANGED);
+    }
+
+    /*
+     * Builds the friendly strings of today and of a later day, in both forms, delivers the
+     * broadcast, and checks that each string is then built again, with the same text, since
+     * nothing it depends on actually changed. The broadcast is delivered twice, to check that
+     * every one of them clears the memo rather than only the first.
+     */
+    private void assertRebuiltAfter(String action) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long[] dates = {today, today + DAYS_AHEAD * SunshineDateUtils.DAY_IN_MILLIS};
+        boolean[] forms = {false, true};
+        BroadcastReceiver invalidator =
+                SunshineDateUtils.registerFriendlyDateInvalidator(mContext);
+
+        for (int delivery = 0; delivery < 2; delivery++) {
+            String[][] before = new String[dates.length][forms.length];
+            for (int i = 0; i < dates.length; i++) {
+                for (int j = 0; j < forms.length; j++) {
+                    before[i][j] =
+                            SunshineDateUtils.getFriendlyDateString(mContext, dates[i], forms[j]);
+                }
+            }
+
+            invalidator.onReceive(mContext, new Intent(action));
+
+            for (int i = 0; i < dates.length; i++) {
+                for (int j = 0; j < forms.length; j++) {
+                    String error = "The friendly date wasn't built again after " + action;
+                    String after =
+                            SunshineDateUtils.getFriendlyDateString(mContext, dates[i], forms[j]);
+                    assertNotSame(error, before[i][j], after);
+                    assertEquals(error, before[i][j], after);
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
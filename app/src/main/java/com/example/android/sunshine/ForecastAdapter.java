@@ -17,20 +17,37 @@ package com.example.android.sunshine;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.support.annotation.NonNull;
+import android.support.v4.view.AsyncLayoutInflater;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.accessibility.AccessibilityManager;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.sunshine.utilities.SunshineDateUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.databinding.ForecastListItemBinding;
+import com.example.android.sunshine.databinding.ListItemForecastTodayBinding;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * <p>
+ * The adapter copies the columns it displays out of each cursor it is given, then formats them
+ * into {@link ForecastRow}s on a background thread, and binds from those. When a cursor replaces
+ * one that was already displayed, the old and new rows are compared by date on that thread too,
+ * and only the days that were added, removed or changed are rebound.
  */
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -40,6 +57,9 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     /* The context we use to utility methods, app resources and layout inflaters */
     private final Context mContext;
 
+    /* Tells whether the content descriptions of the rows are needed */
+    private final AccessibilityManager mAccessibilityManager;
+
     /*
      * Below, we've defined an interface to handle clicks on items within this Adapter. In the
      * constructor of our ForecastAdapter, we receive an instance of a class that has implemented
@@ -55,6 +75,17 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         void onClick(long date);
     }
 
+    /**
+     * The interface that is told once a cursor passed to {@link #swapCursor} is displayed, which
+     * may be well after swapCursor has returned.
+     */
+    public interface ForecastAdapterOnSwapHandler {
+        /**
+         * @param firstDisplay Whether the list was empty before, rather than updated in place
+         */
+        void onSwapped(boolean firstDisplay);
+    }
+
     /*
      * Flag to determine if we want to use a separate view for the list item that represents
      * today. This flag will be true when the phone is in portrait mode and false when the phone
@@ -63,7 +94,21 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     private boolean mUseTodayLayout;
 
-    private Cursor mCursor;
+    /* The forecast currently displayed, never null */
+    private List<ForecastRow> mRows = Collections.emptyList();
+
+    /*
+     * ViewHolders whose views prewarm inflated ahead of time, by view type, for
+     * onCreateViewHolder to return instead of inflating its own
+     */
+    private final SparseArray<ArrayDeque<ForecastAdapterViewHolder>> mPrewarmedViewHolders =
+            new SparseArray<>();
+
+    /*
+     * Incremented by every swap, so that a diff that finishes after a newer cursor was swapped in
+     * is dropped rather than dispatched against rows it wasn't computed from
+     */
+    private int mSwapGeneration;
 
     /**
      * Creates a ForecastAdapter.
@@ -76,6 +121,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         mContext = context;
         mClickHandler = clickHandler;
         mUseTodayLayout = mContext.getResources().getBoolean(R.bool.use_today_layout);
+        mAccessibilityManager =
+                (AccessibilityManager) mContext.getSystemService(Context.ACCESSIBILITY_SERVICE);
     }
 
     /**
@@ -92,36 +139,103 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     @Override
     public ForecastAdapterViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
 
-        int layoutId;
+        /* A ViewHolder prepared ahead of time, if there is one left, saves inflating a layout */
+        ArrayDeque<ForecastAdapterViewHolder> prewarmed = mPrewarmedViewHolders.get(viewType);
+        ForecastAdapterViewHolder viewHolder = prewarmed == null ? null : prewarmed.poll();
+        if (viewHolder != null) {
+            return viewHolder;
+        }
+
+        LayoutInflater inflater = LayoutInflater.from(mContext);
 
         switch (viewType) {
 
-            case VIEW_TYPE_TODAY: {
-                layoutId = R.layout.list_item_forecast_today;
+            case VIEW_TYPE_TODAY:
+                viewHolder = new ForecastAdapterViewHolder(
+                        ListItemForecastTodayBinding.inflate(inflater, viewGroup, false));
                 break;
-            }
 
-            case VIEW_TYPE_FUTURE_DAY: {
-                layoutId = R.layout.forecast_list_item;
+            case VIEW_TYPE_FUTURE_DAY:
+                viewHolder = new ForecastAdapterViewHolder(
+                        ForecastListItemBinding.inflate(inflater, viewGroup, false));
                 break;
-            }
 
             default:
                 throw new IllegalArgumentException("Invalid view type, value of " + viewType);
         }
 
-        View view = LayoutInflater.from(mContext).inflate(layoutId, viewGroup, false);
+        viewHolder.itemView.setFocusable(true);
+
+        return viewHolder;
+    }
 
-        view.setFocusable(true);
+    /**
+     * Prepares enough ViewHolders to cover the screen, inflating their layouts on a background
+     * thread. MainActivity calls this while its Loader is still running, so that the first layout
+     * of the list only binds them instead of inflating each row on the main thread. Each
+     * inflated view is only bound to its data binding, and onCreateViewHolder hands out the
+     * result. ViewHolders that the list needs before theirs are ready are inflated as usual.
+     *
+     * @param recyclerView The RecyclerView this adapter is attached to, which is the parent the
+     *                     layouts are inflated for
+     */
+    void prewarm(RecyclerView recyclerView) {
+        AsyncLayoutInflater.OnInflateFinishedListener onInflated =
+                new AsyncLayoutInflater.OnInflateFinishedListener() {
+                    @Override
+                    public void onInflateFinished(View view, int layoutId, ViewGroup parent) {
+                        int viewType;
+                        ForecastAdapterViewHolder viewHolder;
+                        if (layoutId == R.layout.list_item_forecast_today) {
+                            viewType = VIEW_TYPE_TODAY;
+                            viewHolder = new ForecastAdapterViewHolder(
+                                    ListItemForecastTodayBinding.bind(view));
+                        } else {
+                            viewType = VIEW_TYPE_FUTURE_DAY;
+                            viewHolder = new ForecastAdapterViewHolder(
+                                    ForecastListItemBinding.bind(view));
+                        }
+                        viewHolder.itemView.setFocusable(true);
+
+                        ArrayDeque<ForecastAdapterViewHolder> viewHolders =
+                                mPrewarmedViewHolders.get(viewType);
+                        if (viewHolders == null) {
+                            viewHolders = new ArrayDeque<>();
+                            mPrewarmedViewHolders.put(viewType, viewHolders);
+                        }
+                        viewHolders.add(viewHolder);
+                    }
+                };
+
+        AsyncLayoutInflater inflater = new AsyncLayoutInflater(mContext);
+        if (mUseTodayLayout) {
+            inflater.inflate(R.layout.list_item_forecast_today, recyclerView, onInflated);
+        }
+        int futureDays = getVisibleRowCount();
+        for (int i = 0; i < futureDays; i++) {
+            inflater.inflate(R.layout.forecast_list_item, recyclerView, onInflated);
+        }
+    }
 
-        return new ForecastAdapterViewHolder(view);
+    /* A generous estimate of how many rows fit on the screen, from the smallest row height */
+    private int getVisibleRowCount() {
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        TypedValue rowHeight = new TypedValue();
+        mContext.getTheme()
+                .resolveAttribute(android.R.attr.listPreferredItemHeight, rowHeight, true);
+        int rowHeightPixels = (int) rowHeight.getDimension(metrics);
+        if (rowHeightPixels <= 0) {
+            return 1;
+        }
+        return metrics.heightPixels / rowHeightPixels + 1;
     }
 
     /**
      * OnBindViewHolder is called by the RecyclerView to display the data at the specified
      * position. In this method, we update the contents of the ViewHolder to display the weather
      * details for this particular position, using the "position" argument that is conveniently
-     * passed into us.
+     * passed into us. Everything displayed was already formatted off the main thread, see
+     * {@link ForecastRow}.
      *
      * @param forecastAdapterViewHolder The ViewHolder which should be updated to represent the
      *                                  contents of the item at the given position in the data set.
@@ -129,90 +243,25 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-
-        /****************
-         * Weather Icon *
-         ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
-        int weatherImageId;
-
-        int viewType = getItemViewType(position);
-
-        switch (viewType) {
-
-            case VIEW_TYPE_TODAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getLargeArtResourceIdForWeatherCondition(weatherId);
-                break;
-
-            case VIEW_TYPE_FUTURE_DAY:
-                weatherImageId = SunshineWeatherUtils
-                        .getSmallArtResourceIdForWeatherCondition(weatherId);
-                break;
-
-            default:
-                throw new IllegalArgumentException("Invalid view type, value of " + viewType);
+        ForecastRow row = mRows.get(position);
+
+        forecastAdapterViewHolder.iconView.setImageResource(row.getIconResourceId());
+        forecastAdapterViewHolder.dateView.setText(row.getDateText());
+        forecastAdapterViewHolder.descriptionView.setText(row.getDescription());
+        forecastAdapterViewHolder.highTempView.setText(row.getHighText());
+        forecastAdapterViewHolder.lowTempView.setText(row.getLowText());
+
+        /* Content descriptions (for accessibility purposes) are only built when they're needed */
+        if (mAccessibilityManager.isEnabled()) {
+            forecastAdapterViewHolder.descriptionView
+                    .setContentDescription(row.getDescriptionA11y(mContext));
+            forecastAdapterViewHolder.highTempView.setContentDescription(row.getHighA11y(mContext));
+            forecastAdapterViewHolder.lowTempView.setContentDescription(row.getLowA11y(mContext));
+        } else {
+            forecastAdapterViewHolder.descriptionView.setContentDescription(null);
+            forecastAdapterViewHolder.highTempView.setContentDescription(null);
+            forecastAdapterViewHolder.lowTempView.setContentDescription(null);
         }
-
-        forecastAdapterViewHolder.iconView.setImageResource(weatherImageId);
-
-        /****************
-         * Weather Date *
-         ****************/
-         /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
-         /* Get human readable string using our utility method */
-        String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
-
-         /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
-
-        /***********************
-         * Weather Description *
-         ***********************/
-        String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
-         /* Create the accessibility (a11y) String from the weather description */
-        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
-
-        /**************************
-         * High (max) temperature *
-         **************************/
-         /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String highString = SunshineWeatherUtils.formatTemperature(mContext, highInCelsius);
-         /* Create the accessibility (a11y) String from the weather description */
-        String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
-
-        /*************************
-         * Low (min) temperature *
-         *************************/
-         /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String lowString = SunshineWeatherUtils.formatTemperature(mContext, lowInCelsius);
-        String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
     }
 
     /**
@@ -223,8 +272,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        return mRows.size();
     }
 
     /**
@@ -249,16 +297,176 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     /**
      * Swaps the cursor used by the ForecastAdapter for its weather data. This method is called by
      * MainActivity after a load has finished, as well as when the Loader responsible for loading
-     * the weather data is reset. When this method is called, we assume we have a completely new
-     * set of data, so we call notifyDataSetChanged to tell the RecyclerView to update.
+     * the weather data is reset.
+     * <p>
+     * The columns the adapter displays are copied out of the cursor right away, since the Loader
+     * closes the previous cursor as soon as this returns. They are then formatted into rows on a
+     * thread of AsyncTask's pool. AsyncTask's serial executor isn't used, since a sync or a
+     * maintenance job running there would hold the rows up. If nothing was displayed before, the
+     * RecyclerView is simply told that everything changed once the rows are ready. Otherwise, the
+     * old and new rows are compared on that thread too, and the RecyclerView is then told only
+     * about the days that differ.
+     * <p>
+     * Anything that depends on the new rows, such as scrolling to one of them, belongs in the
+     * swap handler, which is called once the RecyclerView has been told about them. A swap that
+     * is replaced by a newer one before its rows are ready never calls its handler.
+     *
+     * @param newCursor   the new cursor to use as ForecastAdapter's data source
+     * @param swapHandler told once the new cursor is displayed, or null
+     */
+    void swapCursor(Cursor newCursor, final ForecastAdapterOnSwapHandler swapHandler) {
+        final int generation = ++mSwapGeneration;
+        final List<ForecastRow> oldRows = mRows;
+        final ForecastColumns columns = ForecastColumns.copyOf(newCursor);
+
+        if (columns.getCount() == 0) {
+            mRows = Collections.emptyList();
+            notifyDataSetChanged();
+            if (swapHandler != null) {
+                swapHandler.onSwapped(oldRows.isEmpty());
+            }
+            return;
+        }
+
+        final boolean withA11y = mAccessibilityManager.isEnabled();
+        new AsyncTask<Void, Void, DiffUtil.DiffResult>() {
+
+            private List<ForecastRow> mNewRows;
+
+            @Override
+            protected DiffUtil.DiffResult doInBackground(Void... params) {
+                mNewRows = columns.format(mContext, mUseTodayLayout, withA11y);
+                if (oldRows.isEmpty()) {
+                    return null;
+                }
+                /* Forecasts are sorted by date, so there are no moves to detect */
+                return DiffUtil.calculateDiff(new ForecastDiff(oldRows, mNewRows), false);
+            }
+
+            @Override
+            protected void onPostExecute(DiffUtil.DiffResult diff) {
+                if (generation != mSwapGeneration) {
+                    return;
+                }
+                mRows = mNewRows;
+                if (diff == null) {
+                    notifyDataSetChanged();
+                } else {
+                    diff.dispatchUpdatesTo(ForecastAdapter.this);
+                }
+                if (swapHandler != null) {
+                    swapHandler.onSwapped(oldRows.isEmpty());
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Displays a cursor right away, formatting it on the calling thread rather than in the
+     * background, so that it is displayed on the next frame. MainActivity uses this for the
+     * {@link com.example.android.sunshine.data.ForecastSnapshot} it shows while its Loader is
+     * still running. The Loader's cursor then replaces it with {@link #swapCursor}, which
+     * only rebinds the days that differ.
      *
-     * @param newCursor the new cursor to use as ForecastAdapter's data source
+     * @param cursor the cursor to display, which may be closed once this returns
      */
-    void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
+    void showCursorNow(Cursor cursor) {
+        mSwapGeneration++;
+        mRows = ForecastColumns.copyOf(cursor)
+                .format(mContext, mUseTodayLayout, mAccessibilityManager.isEnabled());
         notifyDataSetChanged();
     }
 
+    /**
+     * The columns of a forecast that the adapter displays, copied out of a cursor so that they
+     * can be formatted after the cursor is closed.
+     */
+    private static final class ForecastColumns {
+
+        private static final ForecastColumns EMPTY = new ForecastColumns(0);
+
+        private final long[] mDates;
+        private final int[] mWeatherIds;
+        private final double[] mMaxTemps;
+        private final double[] mMinTemps;
+
+        private ForecastColumns(int count) {
+            mDates = new long[count];
+            mWeatherIds = new int[count];
+            mMaxTemps = new double[count];
+            mMinTemps = new double[count];
+        }
+
+        static ForecastColumns copyOf(Cursor cursor) {
+            if (cursor == null || cursor.getCount() == 0) {
+                return EMPTY;
+            }
+
+            ForecastColumns columns = new ForecastColumns(cursor.getCount());
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                columns.mDates[i] = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+                columns.mWeatherIds[i] = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+                columns.mMaxTemps[i] = cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+                columns.mMinTemps[i] = cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+            }
+            return columns;
+        }
+
+        int getCount() {
+            return mDates.length;
+        }
+
+        /*
+         * Formats every day, on a thread of AsyncTask's pool, see swapCursor. The first one may
+         * use the "today" layout.
+         */
+        List<ForecastRow> format(Context context, boolean useTodayLayout, boolean withA11y) {
+            List<ForecastRow> rows = new ArrayList<>(getCount());
+            for (int i = 0; i < getCount(); i++) {
+                rows.add(new ForecastRow(context, mDates[i], mWeatherIds[i], mMaxTemps[i],
+                        mMinTemps[i], useTodayLayout && i == 0, withA11y));
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Compares two forecasts day by day. A day is the same item in both if it has the same date,
+     * and it is displayed the same if its formatted row is unchanged, which also covers changes
+     * of units or of the current day, and it doesn't move into or out of the "today" layout.
+     */
+    private final class ForecastDiff extends DiffUtil.Callback {
+
+        private final List<ForecastRow> mOld;
+        private final List<ForecastRow> mNew;
+
+        ForecastDiff(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+            mOld = oldRows;
+            mNew = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.get(oldItemPosition).getDate() == mNew.get(newItemPosition).getDate();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return getItemViewType(oldItemPosition) == getItemViewType(newItemPosition)
+                    && mOld.get(oldItemPosition).isDisplayedLike(mNew.get(newItemPosition));
+        }
+    }
+
     /**
      * A ViewHolder is a required part of the pattern for RecyclerViews. It mostly behaves as
      * a cache of the child views for a forecast item. It's also a convenient place to set an
@@ -272,14 +480,27 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         final TextView highTempView;
         final TextView lowTempView;
 
-        ForecastAdapterViewHolder(View view) {
+        /* The two layouts have the same views, which data binding has already found */
+        ForecastAdapterViewHolder(ListItemForecastTodayBinding binding) {
+            this(binding.getRoot(), binding.weatherIcon, binding.date, binding.weatherDescription,
+                    binding.highTemperature, binding.lowTemperature);
+        }
+
+        ForecastAdapterViewHolder(ForecastListItemBinding binding) {
+            this(binding.getRoot(), binding.weatherIcon, binding.date, binding.weatherDescription,
+                    binding.highTemperature, binding.lowTemperature);
+        }
+
+        private ForecastAdapterViewHolder(View view, ImageView iconView, TextView dateView,
+                                          TextView descriptionView, TextView highTempView,
+                                          TextView lowTempView) {
             super(view);
 
-            iconView = (ImageView) view.findViewById(R.id.weather_icon);
-            dateView = (TextView) view.findViewById(R.id.date);
-            descriptionView = (TextView) view.findViewById(R.id.weather_description);
-            highTempView = (TextView) view.findViewById(R.id.high_temperature);
-            lowTempView = (TextView) view.findViewById(R.id.low_temperature);
+            this.iconView = iconView;
+            this.dateView = dateView;
+            this.descriptionView = descriptionView;
+            this.highTempView = highTempView;
+            this.lowTempView = lowTempView;
 
             view.setOnClickListener(this);
         }
@@ -294,8 +515,10 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            long dateInMillis = mRows.get(adapterPosition).getDate();
             mClickHandler.onClick(dateInMillis);
         }
     }
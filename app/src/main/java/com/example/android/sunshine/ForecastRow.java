@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+/**
+ * One day of the forecast list, formatted exactly as {@link ForecastAdapter} displays it. Rows
+ * are built on a background thread, so that binding one only assigns its values to the views.
+ * <p>
+ * The accessibility descriptions are only needed while accessibility services are running. They
+ * are built along with the rest of the row if the services were running at the time, and
+ * otherwise the first time they are asked for.
+ */
+final class ForecastRow {
+
+    private final long mDate;
+
+    private final int mIconResourceId;
+    private final String mDateText;
+    private final String mDescription;
+    private final String mHighText;
+    private final String mLowText;
+
+    /* Built on demand, see getDescriptionA11y and the other getters below */
+    private String mDescriptionA11y;
+    private String mHighA11y;
+    private String mLowA11y;
+
+    /**
+     * Formats a day of the forecast. This reads resources and preferences, and should be called
+     * off the main thread.
+     *
+     * @param context        Used to access app resources and preferences
+     * @param date           The normalized UTC date of the day, in milliseconds
+     * @param weatherId      The day's weather condition ID
+     * @param highInCelsius  The day's high temperature, in degrees Celsius
+     * @param lowInCelsius   The day's low temperature, in degrees Celsius
+     * @param useLargeArt    Whether the day is displayed with the "today" layout
+     * @param withA11y       Whether to build the accessibility descriptions now
+     */
+    ForecastRow(Context context, long date, int weatherId, double highInCelsius,
+                double lowInCelsius, boolean useLargeArt, boolean withA11y) {
+        mDate = date;
+        mIconResourceId = useLargeArt
+                ? SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId)
+                : SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
+        mDateText = SunshineDateUtils.getFriendlyDateString(context, date, false);
+        mDescription = SunshineWeatherUtils.getStringForWeatherCondition(context, weatherId);
+        mHighText = SunshineWeatherUtils.formatTemperature(context, highInCelsius);
+        mLowText = SunshineWeatherUtils.formatTemperature(context, lowInCelsius);
+
+        if (withA11y) {
+            getDescriptionA11y(context);
+            getHighA11y(context);
+            getLowA11y(context);
+        }
+    }
+
+    long getDate() {
+        return mDate;
+    }
+
+    int getIconResourceId() {
+        return mIconResourceId;
+    }
+
+    String getDateText() {
+        return mDateText;
+    }
+
+    String getDescription() {
+        return mDescription;
+    }
+
+    String getHighText() {
+        return mHighText;
+    }
+
+    String getLowText() {
+        return mLowText;
+    }
+
+    String getDescriptionA11y(Context context) {
+        if (mDescriptionA11y == null) {
+            mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+        }
+        return mDescriptionA11y;
+    }
+
+    String getHighA11y(Context context) {
+        if (mHighA11y == null) {
+            mHighA11y = context.getString(R.string.a11y_high_temp, mHighText);
+        }
+        return mHighA11y;
+    }
+
+    String getLowA11y(Context context) {
+        if (mLowA11y == null) {
+            mLowA11y = context.getString(R.string.a11y_low_temp, mLowText);
+        }
+        return mLowA11y;
+    }
+
+    /**
+     * Returns whether another row displays the same thing as this one. The accessibility
+     * descriptions aren't compared, since they only depend on the rest of the row.
+     *
+     * @param other The row to compare this one to
+     * @return Whether binding the other row would leave the views unchanged
+     */
+    boolean isDisplayedLike(ForecastRow other) {
+        return mDate == other.mDate
+                && mIconResourceId == other.mIconResourceId
+                && mDateText.equals(other.mDateText)
+                && mDescription.equals(other.mDescription)
+                && mHighText.equals(other.mHighText)
+                && mLowText.equals(other.mLowText);
+    }
+}
\ No newline at end of file
@@ -20,7 +20,6 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
@@ -32,13 +31,16 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.ProgressBar;
 
+import com.example.android.sunshine.data.ForecastRepository;
+import com.example.android.sunshine.data.ForecastSnapshot;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
 
 public class MainActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor>,
-        ForecastAdapter.ForecastAdapterOnClickHandler {
+        ForecastAdapter.ForecastAdapterOnClickHandler,
+        ForecastAdapter.ForecastAdapterOnSwapHandler {
 
     private final String TAG = MainActivity.class.getSimpleName();
 
@@ -142,8 +144,26 @@ public class MainActivity extends AppCompatActivity implements
         /* Setting the adapter attaches it to the RecyclerView in our layout. */
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        /*
+         * The last sync left a snapshot of the forecast behind. Showing it now puts the forecast
+         * on screen on the first frame, instead of a loading indicator until the database has
+         * opened and answered the Loader's query. The Loader's result replaces it when it comes.
+         */
+        Cursor snapshot = ForecastSnapshot.read(this,
+                SunshinePreferences.getPreferredWeatherLocation(this), MAIN_FORECAST_PROJECTION);
+        if (snapshot != null && snapshot.getCount() != 0) {
+            mForecastAdapter.showCursorNow(snapshot);
+            showWeatherDataView();
+        } else {
+            showLoading();
 
-        showLoading();
+            /*
+             * While the Loader runs, inflate the rows the list will need on a background thread,
+             * so that its first layout doesn't have to.
+             */
+            mForecastAdapter.prewarm(mRecyclerView);
+        }
+        if (snapshot != null) snapshot.close();
 
         /*
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
@@ -198,23 +218,12 @@ public class MainActivity extends AppCompatActivity implements
         switch (loaderId) {
 
             case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-                String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
                 /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * The weather data from today onwards, in ascending order by date. It is read
+                 * from the forecast the repository holds for the whole app, which the detail
+                 * screen, the notification and the watch face read as well.
                  */
-                String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
-
-                return new CursorLoader(this,
-                        forecastQueryUri,
-                        MAIN_FORECAST_PROJECTION,
-                        selection,
-                        null,
-                        sortOrder);
+                return new ForecastRepository.ForecastLoader(this, MAIN_FORECAST_PROJECTION);
 
             default:
                 throw new RuntimeException("Loader Not Implemented: " + loaderId);
@@ -234,12 +243,24 @@ public class MainActivity extends AppCompatActivity implements
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        /* The adapter formats the rows in the background, and calls onSwapped once they're shown */
+        mForecastAdapter.swapCursor(data, this);
+        if (data.getCount() != 0) showWeatherDataView();
+    }
 
-
-        mForecastAdapter.swapCursor(data);
+    /**
+     * Called by the adapter once the forecast of a finished load is displayed. Only scroll when
+     * the forecast is first displayed. Later loads, after a sync or a change of units, update the
+     * rows in place and leave the list where the user left it.
+     *
+     * @param firstDisplay Whether the list was empty before this forecast
+     */
+    @Override
+    public void onSwapped(boolean firstDisplay) {
         if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
-        mRecyclerView.smoothScrollToPosition(mPosition);
-        if (data.getCount() != 0) showWeatherDataView();
+        if (firstDisplay && mForecastAdapter.getItemCount() != 0) {
+            mRecyclerView.smoothScrollToPosition(mPosition);
+        }
     }
 
     /**
@@ -254,7 +275,7 @@ public class MainActivity extends AppCompatActivity implements
          * Since this Loader's data is now invalid, we need to clear the Adapter that is
          * displaying the data.
          */
-        mForecastAdapter.swapCursor(null);
+        mForecastAdapter.swapCursor(null, null);
     }
 
     /**
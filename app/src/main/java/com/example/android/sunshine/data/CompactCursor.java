@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read-only cursor over a small set of rows held in primitive arrays.
+ * <p>
+ * Every SQLiteCursor fills a CursorWindow, which reserves 2MB of native memory however few rows
+ * it holds, and keeps it until the cursor is closed. Most of Sunshine's queries return a single
+ * day or a two week forecast, and loaders keep their cursors open for as long as the screen is
+ * shown. WeatherProvider has SQLite fill each result into one of a few windows it reuses, copies
+ * results of up to {@link #MAX_ROWS} rows into a CompactCursor and closes the SQLiteCursor
+ * straight away, so no small query allocates a window, and no cursor a loader keeps holds one.
+ * <p>
+ * The copied rows are immutable, so any number of cursors can share them. WeatherRowCache keeps
+ * them to answer later queries for the same day, and WeatherReplica keeps every row of the
+ * forecast to answer queries for any selection of its rows, in any order.
+ */
+final class CompactCursor extends AbstractCursor {
+
+    /* Results with more rows than this stay in their SQLiteCursor */
+    static final int MAX_ROWS = 64;
+
+    /* The precision of CursorWindow's text for a REAL, see formatDouble */
+    private static final MathContext SIGNIFICANT_DIGITS =
+            new MathContext(6, RoundingMode.HALF_EVEN);
+
+    private final Rows mRows;
+
+    /* The index within the rows of each of this cursor's columns */
+    private final int[] mColumns;
+
+    /* The index within the rows of each of this cursor's rows, or null for every row in order */
+    private final int[] mRowIndexes;
+
+    private final String[] mColumnNames;
+
+    private CompactCursor(Rows rows, int[] columns, int[] rowIndexes) {
+        mRows = rows;
+        mColumns = columns;
+        mRowIndexes = rowIndexes;
+        mColumnNames = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            mColumnNames[i] = rows.mColumnNames[columns[i]];
+        }
+    }
+
+    /**
+     * Copies every row of a cursor into a new CompactCursor. The cursor is read from its first
+     * row, and isn't closed.
+     *
+     * @param cursor The cursor to copy
+     * @return A cursor over the copied rows
+     */
+    static CompactCursor copyOf(Cursor cursor) {
+        return Rows.copyOf(cursor).newCursor(null);
+    }
+
+    private int getCell(int column) {
+        checkPosition();
+        int row = mRowIndexes == null ? getPosition() : mRowIndexes[getPosition()];
+        return row * mRows.mColumnNames.length + mColumns[column];
+    }
+
+    @Override
+    public int getCount() {
+        return mRowIndexes == null ? mRows.mRowCount : mRowIndexes.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        return mRows.mTypes[getCell(column)];
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getType(column) == FIELD_TYPE_NULL;
+    }
+
+    @Override
+    public String getString(int column) {
+        int cell = getCell(column);
+        switch (mRows.mTypes[cell]) {
+            case FIELD_TYPE_INTEGER:
+                return Long.toString(mRows.mValues[cell]);
+            case FIELD_TYPE_FLOAT:
+                return formatDouble(Double.longBitsToDouble(mRows.mValues[cell]));
+            case FIELD_TYPE_STRING:
+                return (String) mRows.mObjects[cell];
+            case FIELD_TYPE_BLOB:
+                throw new SQLiteException("Unable to convert BLOB to string");
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        int cell = getCell(column);
+        switch (mRows.mTypes[cell]) {
+            case FIELD_TYPE_BLOB:
+                return (byte[]) mRows.mObjects[cell];
+            case FIELD_TYPE_STRING:
+                return ((String) mRows.mObjects[cell]).getBytes(StandardCharsets.UTF_8);
+            case FIELD_TYPE_NULL:
+                return null;
+            default:
+                throw new SQLiteException("Unable to convert a number to a BLOB");
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        int cell = getCell(column);
+        switch (mRows.mTypes[cell]) {
+            case FIELD_TYPE_INTEGER:
+                return mRows.mValues[cell];
+            case FIELD_TYPE_FLOAT:
+                return (long) Double.longBitsToDouble(mRows.mValues[cell]);
+            case FIELD_TYPE_STRING:
+                return (long) parseDouble((String) mRows.mObjects[cell]);
+            case FIELD_TYPE_BLOB:
+                throw new SQLiteException("Unable to convert BLOB to long");
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int cell = getCell(column);
+        switch (mRows.mTypes[cell]) {
+            case FIELD_TYPE_INTEGER:
+                return mRows.mValues[cell];
+            case FIELD_TYPE_FLOAT:
+                return Double.longBitsToDouble(mRows.mValues[cell]);
+            case FIELD_TYPE_STRING:
+                return parseDouble((String) mRows.mObjects[cell]);
+            case FIELD_TYPE_BLOB:
+                throw new SQLiteException("Unable to convert BLOB to double");
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /*
+     * Formats a REAL the way CursorWindow#getString does, with C's "%g": six significant digits
+     * without trailing zeros, in scientific notation for very small or large values. Callers
+     * compare these strings, so they must not change with the cursor a query happened to get.
+     */
+    private static String formatDouble(double value) {
+        if (Double.isNaN(value)) {
+            return "nan";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        } else if (value == 0) {
+            return (1 / value) < 0 ? "-0" : "0";
+        }
+
+        BigDecimal rounded = new BigDecimal(value).round(SIGNIFICANT_DIGITS);
+        int exponent = rounded.precision() - rounded.scale() - 1;
+        if (exponent < -4 || exponent >= 6) {
+            String mantissa = rounded.movePointLeft(exponent).stripTrailingZeros().toPlainString();
+            int absoluteExponent = Math.abs(exponent);
+            return mantissa + (exponent < 0 ? "e-" : "e+")
+                    + (absoluteExponent < 10 ? "0" : "") + absoluteExponent;
+        }
+        return rounded.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * An immutable copy of a set of rows. Each cell's type is kept in a byte; integers, and
+     * REALs as their bits, in a long. Only text and blobs need objects, so rows of numbers, like
+     * the weather, are held in two primitive arrays.
+     */
+    static final class Rows {
+
+        private final String[] mColumnNames;
+        private final int mRowCount;
+        private final byte[] mTypes;
+        private final long[] mValues;
+        private final Object[] mObjects;
+
+        private Rows(String[] columnNames, int rowCount, byte[] types, long[] values,
+                     Object[] objects) {
+            mColumnNames = columnNames;
+            mRowCount = rowCount;
+            mTypes = types;
+            mValues = values;
+            mObjects = objects;
+        }
+
+        /**
+         * Copies every row of a cursor, from its first row. The cursor isn't closed.
+         *
+         * @param cursor The cursor to copy
+         * @return The copied rows
+         */
+        static Rows copyOf(Cursor cursor) {
+            String[] columnNames = cursor.getColumnNames();
+            int columnCount = columnNames.length;
+            int rowCount = cursor.getCount();
+
+            byte[] types = new byte[rowCount * columnCount];
+            long[] values = new long[rowCount * columnCount];
+            Object[] objects = null;
+
+            int cell = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columnCount; column++, cell++) {
+                    int type = cursor.getType(column);
+                    types[cell] = (byte) type;
+                    switch (type) {
+                        case FIELD_TYPE_INTEGER:
+                            values[cell] = cursor.getLong(column);
+                            break;
+                        case FIELD_TYPE_FLOAT:
+                            values[cell] = Double.doubleToRawLongBits(cursor.getDouble(column));
+                            break;
+                        case FIELD_TYPE_STRING:
+                        case FIELD_TYPE_BLOB:
+                            if (objects == null) {
+                                objects = new Object[rowCount * columnCount];
+                            }
+                            objects[cell] = type == FIELD_TYPE_STRING
+                                    ? cursor.getString(column)
+                                    : cursor.getBlob(column);
+                            break;
+                    }
+                }
+            }
+
+            return new Rows(columnNames, rowCount, types, values, objects);
+        }
+
+        /**
+         * Creates a cursor over these rows.
+         *
+         * @param projection The columns of the cursor, or null for all of them
+         * @return A cursor over the rows, or null if the projection names a column they don't
+         * hold
+         */
+        CompactCursor newCursor(String[] projection) {
+            return newCursor(projection, null);
+        }
+
+        /**
+         * Creates a cursor over some of these rows, in any order.
+         *
+         * @param projection The columns of the cursor, or null for all of them
+         * @param rowIndexes The index of each of the cursor's rows, or null for every row in order
+         * @return A cursor over the rows, or null if the projection names a column they don't
+         * hold
+         */
+        CompactCursor newCursor(String[] projection, int[] rowIndexes) {
+            int[] columns;
+            if (projection == null) {
+                columns = new int[mColumnNames.length];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = i;
+                }
+            } else {
+                columns = new int[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    columns[i] = getColumnIndex(projection[i]);
+                    if (columns[i] == -1) {
+                        return null;
+                    }
+                }
+            }
+            return new CompactCursor(this, columns, rowIndexes);
+        }
+
+        /**
+         * Copies these rows with some of them replaced, such as the rows of a day that was
+         * written.
+         *
+         * @param start       The index of the first row to remove, where the new rows go
+         * @param removeCount The number of rows to remove
+         * @param inserted    The rows to insert, which must have the same columns as these rows
+         * @return The new rows
+         */
+        Rows splice(int start, int removeCount, Rows inserted) {
+            int columnCount = mColumnNames.length;
+            int rowCount = mRowCount - removeCount + inserted.mRowCount;
+            byte[] types = new byte[rowCount * columnCount];
+            long[] values = new long[rowCount * columnCount];
+            Object[] objects = mObjects == null && inserted.mObjects == null
+                    ? null
+                    : new Object[rowCount * columnCount];
+
+            int headCells = start * columnCount;
+            int insertedCells = inserted.mRowCount * columnCount;
+            int tailCells = (mRowCount - start - removeCount) * columnCount;
+            copyCells(this, 0, types, values, objects, 0, headCells);
+            copyCells(inserted, 0, types, values, objects, headCells, insertedCells);
+            copyCells(this, (start + removeCount) * columnCount, types, values, objects,
+                    headCells + insertedCells, tailCells);
+
+            return new Rows(mColumnNames, rowCount, types, values, objects);
+        }
+
+        private static void copyCells(Rows source, int sourceCell, byte[] types, long[] values,
+                                      Object[] objects, int cell, int cellCount) {
+            System.arraycopy(source.mTypes, sourceCell, types, cell, cellCount);
+            System.arraycopy(source.mValues, sourceCell, values, cell, cellCount);
+            if (source.mObjects != null) {
+                System.arraycopy(source.mObjects, sourceCell, objects, cell, cellCount);
+            }
+        }
+
+        int getRowCount() {
+            return mRowCount;
+        }
+
+        /* Reads an INTEGER cell, such as a date or a location */
+        long getLong(int row, int column) {
+            return mValues[row * mColumnNames.length + column];
+        }
+
+        /**
+         * Compares a column of two rows the way SQLite's ORDER BY does: NULL first, then numbers,
+         * then text, then blobs. Text is compared by its UTF-16 code units, which only differs
+         * from SQLite's BINARY collation for characters outside the Basic Multilingual Plane.
+         *
+         * @return A negative number, zero or a positive number as the first row's cell sorts
+         * before, with or after the second row's
+         */
+        int compare(int row1, int row2, int column) {
+            int cell1 = row1 * mColumnNames.length + column;
+            int cell2 = row2 * mColumnNames.length + column;
+            int rank1 = getSortRank(mTypes[cell1]);
+            int rank2 = getSortRank(mTypes[cell2]);
+            if (rank1 != rank2) {
+                return rank1 < rank2 ? -1 : 1;
+            }
+
+            switch (mTypes[cell1]) {
+                case FIELD_TYPE_INTEGER:
+                case FIELD_TYPE_FLOAT:
+                    if (mTypes[cell1] == FIELD_TYPE_INTEGER
+                            && mTypes[cell2] == FIELD_TYPE_INTEGER) {
+                        return Long.compare(mValues[cell1], mValues[cell2]);
+                    }
+                    return Double.compare(getNumber(cell1), getNumber(cell2));
+                case FIELD_TYPE_STRING:
+                    return ((String) mObjects[cell1]).compareTo((String) mObjects[cell2]);
+                case FIELD_TYPE_BLOB:
+                    return compareBlobs((byte[]) mObjects[cell1], (byte[]) mObjects[cell2]);
+                default:
+                    return 0;
+            }
+        }
+
+        private double getNumber(int cell) {
+            return mTypes[cell] == FIELD_TYPE_INTEGER
+                    ? mValues[cell]
+                    : Double.longBitsToDouble(mValues[cell]);
+        }
+
+        /* Integers and REALs sort together, as numbers */
+        private static int getSortRank(byte type) {
+            return type == FIELD_TYPE_FLOAT ? FIELD_TYPE_INTEGER : type;
+        }
+
+        private static int compareBlobs(byte[] blob1, byte[] blob2) {
+            int length = Math.min(blob1.length, blob2.length);
+            for (int i = 0; i < length; i++) {
+                int difference = (blob1[i] & 0xff) - (blob2[i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return blob1.length - blob2.length;
+        }
+
+        int getColumnIndex(String columnName) {
+            for (int column = 0; column < mColumnNames.length; column++) {
+                if (mColumnNames[column].equalsIgnoreCase(columnName)) {
+                    return column;
+                }
+            }
+            return -1;
+        }
+    }
+}
\ No newline at end of file
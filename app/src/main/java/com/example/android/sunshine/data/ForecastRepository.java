@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The forecast of the preferred location from today onwards, held in memory for the whole
+ * process. The forecast list, the detail screen, the notification and the watch face all read
+ * the forecast from here, so that it is queried from WeatherProvider once per change rather than
+ * once per consumer.
+ * <p>
+ * The forecast is only served while WeatherProvider's forecast generation is the one it was
+ * loaded at. The provider increments it as soon as a write of the preferred location's weather
+ * commits, so a caller that has just written, such as a sync about to notify the user, reads its
+ * own write.
+ * <p>
+ * The repository also observes the URIs WeatherProvider notifies for those writes, and
+ * SettingsFragment calls {@link #onSettingsChanged()} when the location or the units change.
+ * While anything subscribes to the forecast, which the {@link ForecastLoader} of the whole
+ * forecast does while it is started, a change reloads the forecast once in the background and
+ * then tells the subscribers. Otherwise, it is reloaded the next time it is asked for.
+ */
+public final class ForecastRepository {
+
+    /* Every column that any of the forecast's consumers displays */
+    public static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    /*
+     * The indices of the columns above, in cursors returned for FORECAST_COLUMNS. If the order of
+     * the columns changes, these indices must be adjusted to match.
+     */
+    public static final int INDEX_WEATHER_DATE = 0;
+    public static final int INDEX_WEATHER_MAX_TEMP = 1;
+    public static final int INDEX_WEATHER_MIN_TEMP = 2;
+    public static final int INDEX_WEATHER_HUMIDITY = 3;
+    public static final int INDEX_WEATHER_PRESSURE = 4;
+    public static final int INDEX_WEATHER_WIND_SPEED = 5;
+    public static final int INDEX_WEATHER_DEGREES = 6;
+    public static final int INDEX_WEATHER_CONDITION_ID = 7;
+
+    private static volatile ForecastRepository sInstance;
+
+    /**
+     * Told on the main thread whenever the forecast, or the way it is displayed, has changed.
+     */
+    public interface Listener {
+        void onForecastChanged();
+    }
+
+    private final Context mContext;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* Only used on the main thread */
+    private final List<Listener> mListeners = new ArrayList<>();
+    private boolean mRefreshPending;
+
+    /* Held while the forecast is loaded, so that callers who need it at once share one query */
+    private final Object mLoadLock = new Object();
+
+    /* The forecast as it was last loaded, or null if it hasn't been */
+    private Forecast mForecast;
+
+    /**
+     * The forecast as it was loaded, with the location, the day and the forecast generation it
+     * was loaded for.
+     */
+    private static final class Forecast {
+
+        private final String mLocationSetting;
+        private final long mToday;
+        private final long mGeneration;
+        private final CompactCursor.Rows mRows;
+
+        /* The date of each row, in the order of the rows, which is by date */
+        private final long[] mDates;
+
+        Forecast(String locationSetting, long today, long generation, CompactCursor.Rows rows) {
+            mLocationSetting = locationSetting;
+            mToday = today;
+            mGeneration = generation;
+            mRows = rows;
+            mDates = new long[rows.getRowCount()];
+            int dateColumn = rows.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            for (int row = 0; row < mDates.length; row++) {
+                mDates[row] = rows.getLong(row, dateColumn);
+            }
+        }
+    }
+
+    /*
+     * Reloads the forecast for its subscribers whenever the preferred location's weather or the
+     * locations change. Called on the main thread, some time after the write has committed, by
+     * which time the forecast may already have been loaded again by whoever asked first.
+     */
+    private final ContentObserver mWeatherObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            refreshIfObserved();
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            getForecast();
+            mMainHandler.post(mRefreshed);
+        }
+    };
+
+    private final Runnable mRefreshed = new Runnable() {
+        @Override
+        public void run() {
+            mRefreshPending = false;
+            notifyListeners();
+        }
+    };
+
+    private ForecastRepository(Context context) {
+        mContext = context.getApplicationContext();
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.registerContentObserver(WeatherEntry.CONTENT_LIST_URI, false,
+                mWeatherObserver);
+        contentResolver.registerContentObserver(LocationEntry.CONTENT_LIST_URI, false,
+                mWeatherObserver);
+    }
+
+    public static ForecastRepository getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (ForecastRepository.class) {
+                if (sInstance == null) {
+                    sInstance = new ForecastRepository(context);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the forecast from today onwards, in date order. This may query WeatherProvider,
+     * and must be called off the main thread.
+     *
+     * @param projection The columns to return, all of which must be in {@link #FORECAST_COLUMNS}
+     * @return A cursor over the forecast
+     */
+    public Cursor queryForecast(String[] projection) {
+        return getForecast().mRows.newCursor(projection);
+    }
+
+    /**
+     * Returns the weather of a single day. Days of the forecast are read from memory, and any
+     * other day, such as one that has passed, from WeatherProvider. This may query
+     * WeatherProvider, and must be called off the main thread.
+     *
+     * @param date       The normalized date of the day
+     * @param projection The columns to return, all of which must be in {@link #FORECAST_COLUMNS}
+     * @return A cursor over the day's weather, or null if WeatherProvider couldn't be queried
+     */
+    public Cursor queryDay(long date, String[] projection) {
+        Forecast forecast = getForecast();
+        int row = Arrays.binarySearch(forecast.mDates, date);
+        if (row >= 0) {
+            return forecast.mRows.newCursor(projection, new int[]{row});
+        }
+        return mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherUriWithDate(date), projection, null, null, null);
+    }
+
+    /**
+     * Tells the subscribers that the forecast is to be displayed differently, such as in other
+     * units. A change of location is noticed the next time the forecast is asked for, as the
+     * forecast remembers the location it was loaded for. Must be called on the main thread.
+     */
+    public void onSettingsChanged() {
+        notifyListeners();
+    }
+
+    /* Listeners are only added and removed on the main thread */
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /*
+     * Reloads the forecast in the background if anything subscribes to it, then tells the
+     * subscribers. A change that comes while a reload is pending is left to that reload: it
+     * either sees the change, or drops what it read and leaves the subscribers to load again.
+     */
+    private void refreshIfObserved() {
+        if (mListeners.isEmpty() || mRefreshPending) {
+            return;
+        }
+        mRefreshPending = true;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(mRefresh);
+    }
+
+    private void notifyListeners() {
+        /* A listener may remove itself as it is told */
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onForecastChanged();
+        }
+    }
+
+    /*
+     * Returns the forecast, loading it if the weather was written since it was loaded, or the
+     * location or the day changed.
+     */
+    private Forecast getForecast() {
+        Forecast forecast = getCurrentForecast();
+        if (forecast != null) {
+            return forecast;
+        }
+
+        synchronized (mLoadLock) {
+            /* Another caller may have loaded it while we waited */
+            forecast = getCurrentForecast();
+            if (forecast != null) {
+                return forecast;
+            }
+
+            forecast = loadForecast();
+
+            synchronized (this) {
+                mForecast = forecast;
+            }
+            return forecast;
+        }
+    }
+
+    private Forecast getCurrentForecast() {
+        Forecast forecast;
+        synchronized (this) {
+            forecast = mForecast;
+        }
+        if (forecast == null
+                || forecast.mGeneration != WeatherProvider.getForecastGeneration()
+                || forecast.mToday != SunshineDateUtils.normalizeDate(System.currentTimeMillis())
+                || !forecast.mLocationSetting.equals(
+                SunshinePreferences.getPreferredWeatherLocation(mContext))) {
+            return null;
+        }
+        return forecast;
+    }
+
+    /*
+     * Queries the forecast of the preferred location from today onwards. The generation is read
+     * first, so that a write that commits while we read leaves the forecast stale rather than
+     * current.
+     */
+    private Forecast loadForecast() {
+        long generation = WeatherProvider.getForecastGeneration();
+        String locationSetting = SunshinePreferences.getPreferredWeatherLocation(mContext);
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherUriFromDate(today), FORECAST_COLUMNS, null, null, null);
+        if (cursor == null) {
+            cursor = new MatrixCursor(FORECAST_COLUMNS, 0);
+        }
+        try {
+            return new Forecast(locationSetting, today, generation,
+                    CompactCursor.Rows.copyOf(cursor));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Loads the whole forecast, or a single day of it, from the ForecastRepository. It is used in
+     * place of a CursorLoader by the forecast list and the detail screen.
+     * <p>
+     * The whole forecast is loaded again whenever the repository changes. A single day is only
+     * loaded again when the URI of its date is notified, which WeatherProvider does when that day
+     * is written, and SettingsFragment, by notifying every weather URI, when the settings change.
+     */
+    public static final class ForecastLoader extends AsyncTaskLoader<Cursor>
+            implements Listener {
+
+        /* Loads the whole forecast rather than a single day */
+        private static final long ALL_DAYS = Long.MIN_VALUE;
+
+        private final ForecastRepository mRepository;
+        private final long mDate;
+        private final String[] mProjection;
+
+        /* Observes the URI of a single day's date, or null for the whole forecast */
+        private final ForceLoadContentObserver mDayObserver;
+
+        private Cursor mCursor;
+        private boolean mListening;
+
+        /**
+         * Creates a loader of the whole forecast.
+         *
+         * @param context    Used to reach the repository
+         * @param projection The columns to load, all of which must be in
+         *                   {@link #FORECAST_COLUMNS}
+         */
+        public ForecastLoader(Context context, String[] projection) {
+            this(context, ALL_DAYS, projection);
+        }
+
+        /**
+         * Creates a loader of a single day.
+         *
+         * @param context    Used to reach the repository
+         * @param date       The normalized date of the day
+         * @param projection The columns to load, all of which must be in
+         *                   {@link #FORECAST_COLUMNS}
+         */
+        public ForecastLoader(Context context, long date, String[] projection) {
+            super(context);
+            mRepository = getInstance(context);
+            mDate = date;
+            mProjection = projection;
+            mDayObserver = date == ALL_DAYS ? null : new ForceLoadContentObserver();
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            Cursor cursor = mDate == ALL_DAYS
+                    ? mRepository.queryForecast(mProjection)
+                    : mRepository.queryDay(mDate, mProjection);
+            if (cursor != null) {
+                /* As CursorLoader does, count the rows here rather than on the main thread */
+                cursor.getCount();
+            }
+            return cursor;
+        }
+
+        @Override
+        public void onForecastChanged() {
+            onContentChanged();
+        }
+
+        @Override
+        public void deliverResult(Cursor cursor) {
+            if (isReset()) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                return;
+            }
+            Cursor oldCursor = mCursor;
+            mCursor = cursor;
+
+            if (isStarted()) {
+                super.deliverResult(cursor);
+            }
+
+            if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
+                oldCursor.close();
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (!mListening) {
+                if (mDayObserver == null) {
+                    mRepository.addListener(this);
+                } else {
+                    getContext().getContentResolver().registerContentObserver(
+                            WeatherEntry.buildWeatherUriWithDate(mDate), false, mDayObserver);
+                }
+                mListening = true;
+            }
+            if (mCursor != null) {
+                deliverResult(mCursor);
+            }
+            if (takeContentChanged() || mCursor == null) {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        public void onCanceled(Cursor cursor) {
+            if (cursor != null && !cursor.isClosed()) {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void onReset() {
+            super.onReset();
+            onStopLoading();
+
+            if (mListening) {
+                if (mDayObserver == null) {
+                    mRepository.removeListener(this);
+                } else {
+                    getContext().getContentResolver().unregisterContentObserver(mDayObserver);
+                }
+                mListening = false;
+            }
+            if (mCursor != null && !mCursor.isClosed()) {
+                mCursor.close();
+            }
+            mCursor = null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A copy of the forecast list, left in a small binary file by every sync so that MainActivity can
+ * display the forecast on its first frame, without waiting for the database to open and answer
+ * its query. MainActivity then replaces it with the query's result when that arrives.
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by the location setting the
+ * forecast is for, and the days of the forecast from the date of the sync onwards, each as its
+ * date, high and low temperatures and weather ID. It is replaced atomically, and read through a
+ * read-only memory mapping of what AtomicFile opens, which is the previous file if a write was
+ * interrupted. A file of another version, for a location other than the one asked for, or whose
+ * length doesn't match its header, is ignored.
+ */
+public final class ForecastSnapshot {
+
+    private static final String TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.snapshot";
+
+    /* "SUNS", to recognize the file */
+    private static final int MAGIC = 0x53554e53;
+
+    /* Increment whenever the layout of the file changes, so that older files are ignored */
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The columns the cursor passed to {@link #write(Context, String, Cursor)} must hold, in this
+     * order. These are also the only columns {@link #read(Context, String, String[])} can return.
+     */
+    public static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_MAX_TEMP = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_WEATHER_ID = 3;
+
+    /* The size of the file's header: the magic, the version and the length of the location */
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+
+    /* The size of a day in the file: its date, both temperatures and its weather ID */
+    private static final int DAY_SIZE = 8 + 8 + 8 + 4;
+
+    private ForecastSnapshot() {
+    }
+
+    /**
+     * Replaces the snapshot with a location's forecast. This writes to storage, and must be called
+     * off the main thread.
+     *
+     * @param context         Used to find the app's files directory
+     * @param locationSetting The location the forecast is for
+     * @param forecast        The forecast, in date order, with the columns of {@link #COLUMNS}
+     */
+    public static void write(Context context, String locationSetting, Cursor forecast) {
+        AtomicFile file = getFile(context);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            byte[] location = locationSetting.getBytes(UTF_8);
+            out.writeInt(location.length);
+            out.write(location);
+
+            out.writeInt(forecast.getCount());
+            for (int i = 0; forecast.moveToPosition(i); i++) {
+                out.writeLong(forecast.getLong(INDEX_DATE));
+                out.writeDouble(forecast.getDouble(INDEX_MAX_TEMP));
+                out.writeDouble(forecast.getDouble(INDEX_MIN_TEMP));
+                out.writeInt(forecast.getInt(INDEX_WEATHER_ID));
+            }
+
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write the forecast snapshot", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot of a location's forecast, leaving out the days that have passed since
+     * it was written. The file is small and only mapped, so this may be called on the main
+     * thread before the first frame.
+     *
+     * @param context         Used to find the app's files directory
+     * @param locationSetting The location whose forecast is wanted
+     * @param projection      The columns to return, all of which must be in {@link #COLUMNS}
+     * @return A cursor over the forecast, in date order, or null if there is no snapshot of that
+     * location's forecast, or if the projection names a column the snapshot doesn't hold
+     */
+    public static Cursor read(Context context, String locationSetting, String[] projection) {
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = indexOf(projection[i]);
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+
+        FileInputStream stream;
+        try {
+            stream = getFile(context).openRead();
+        } catch (FileNotFoundException e) {
+            /* No sync has left a snapshot yet */
+            return null;
+        }
+
+        try {
+            FileChannel channel = stream.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                Log.w(TAG, "Ignoring a forecast snapshot of only " + size + " bytes");
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            /* The location is followed by the number of days */
+            int locationLength = buffer.getInt();
+            if (locationLength < 0 || locationLength > buffer.remaining() - 4) {
+                Log.w(TAG, "Ignoring a forecast snapshot with a damaged header");
+                return null;
+            }
+            byte[] location = new byte[locationLength];
+            buffer.get(location);
+            if (!locationSetting.equals(new String(location, UTF_8))) {
+                return null;
+            }
+
+            long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+            int count = buffer.getInt();
+            if (count < 0 || buffer.remaining() != (long) count * DAY_SIZE) {
+                Log.w(TAG, "Ignoring a forecast snapshot whose length doesn't match its days");
+                return null;
+            }
+            MatrixCursor cursor = new MatrixCursor(projection, count);
+            Object[] values = new Object[COLUMNS.length];
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < count; i++) {
+                long date = buffer.getLong();
+                values[INDEX_DATE] = date;
+                values[INDEX_MAX_TEMP] = buffer.getDouble();
+                values[INDEX_MIN_TEMP] = buffer.getDouble();
+                values[INDEX_WEATHER_ID] = buffer.getInt();
+                if (date < today) {
+                    continue;
+                }
+                /* addRow copies the values, so the arrays can be reused */
+                for (int j = 0; j < columns.length; j++) {
+                    row[j] = values[columns[j]];
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        } catch (IOException | BufferUnderflowException e) {
+            /* A missing or damaged snapshot only means waiting for the database */
+            Log.w(TAG, "Couldn't read the forecast snapshot", e);
+            return null;
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
\ No newline at end of file
@@ -21,6 +21,17 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.R;
 
+/**
+ * Reads and writes Sunshine's preferences.
+ * <p>
+ * Some preferences are read for every item of the forecast as it is bound, such as the units
+ * every temperature is formatted in, and reading one from SharedPreferences means looking up its
+ * key and default in the resources, then its value in a map. Instead, the getters read an
+ * immutable {@link Snapshot} of every preference, which is read once and read again whenever a
+ * preference changes. SharedPreferences reports changes on the main thread, so the setters below
+ * also refresh the snapshot themselves, and their changes are visible straight away on the
+ * thread that made them.
+ */
 public final class SunshinePreferences {
 
     /*
@@ -31,6 +42,125 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /* The preferences as they were when they last changed, or null until they are first read */
+    private static volatile Snapshot sSnapshot;
+
+    /*
+     * Reads the snapshot again whenever a preference changes. SharedPreferences only keeps a weak
+     * reference to its listeners, so we keep this one for as long as the process lives.
+     */
+    private static SharedPreferences.OnSharedPreferenceChangeListener sChangeListener;
+
+    /**
+     * Every Sunshine preference, read at once and typed. A snapshot never changes; a new one
+     * replaces it when a preference changes.
+     */
+    private static final class Snapshot {
+
+        final String mPreferredWeatherLocation;
+        final boolean mIsMetric;
+        final boolean mLocationLatLonAvailable;
+        final double[] mLocationCoordinates;
+        final boolean mNotificationsEnabled;
+        final int mArchiveRetentionMonths;
+        final long mLastNotificationTimeInMillis;
+
+        private Snapshot(Context context, SharedPreferences sp) {
+            mPreferredWeatherLocation = sp.getString(
+                    context.getString(R.string.pref_location_key),
+                    context.getString(R.string.pref_location_default));
+
+            String metric = context.getString(R.string.pref_units_metric);
+            mIsMetric = metric.equals(
+                    sp.getString(context.getString(R.string.pref_units_key), metric));
+
+            mLocationLatLonAvailable = sp.contains(PREF_COORD_LAT)
+                    && sp.contains(PREF_COORD_LONG);
+
+            /*
+             * This is a hack we have to resort to since you can't store doubles in
+             * SharedPreferences.
+             *
+             * Double.doubleToLongBits returns an integer corresponding to the bits of the given
+             * IEEE 754 double precision value.
+             *
+             * Double.longBitsToDouble does the opposite, converting a long (that represents a
+             * double) into the double itself.
+             */
+            mLocationCoordinates = new double[]{
+                    Double.longBitsToDouble(
+                            sp.getLong(PREF_COORD_LAT, Double.doubleToRawLongBits(0.0))),
+                    Double.longBitsToDouble(
+                            sp.getLong(PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)))};
+
+            /*
+             * In Sunshine, the user has the ability to say whether she would like notifications
+             * enabled or not. If no preference has been chosen, we reference a bool stored in
+             * bools.xml.
+             */
+            mNotificationsEnabled = sp.getBoolean(
+                    context.getString(R.string.pref_enable_notifications_key),
+                    context.getResources().getBoolean(R.bool.show_notifications_by_default));
+
+            mArchiveRetentionMonths = Integer.parseInt(sp.getString(
+                    context.getString(R.string.pref_archive_retention_key),
+                    context.getString(R.string.pref_archive_retention_2_years)));
+
+            /*
+             * If no notification was ever shown, we use 0. We compare this time to the current
+             * system time, and the difference will then always be greater than a day, so that a
+             * notification is shown.
+             */
+            mLastNotificationTimeInMillis = sp.getLong(
+                    context.getString(R.string.pref_last_notification), 0);
+        }
+    }
+
+    /*
+     * Returns the current snapshot of the preferences, reading it and registering the listener
+     * that keeps it current the first time.
+     */
+    private static Snapshot getSnapshot(Context context) {
+        Snapshot snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        synchronized (SunshinePreferences.class) {
+            if (sSnapshot == null) {
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(appContext);
+
+                sChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        sSnapshot = new Snapshot(appContext, sharedPreferences);
+                    }
+                };
+                sp.registerOnSharedPreferenceChangeListener(sChangeListener);
+
+                sSnapshot = new Snapshot(appContext, sp);
+            }
+            return sSnapshot;
+        }
+    }
+
+    /*
+     * Reads the snapshot again after one of the setters below has applied its change, which
+     * SharedPreferences already holds in memory. Its listeners would only hear of it later, on
+     * the main thread, when the change is made on another thread.
+     */
+    private static void refreshSnapshot(Context context, SharedPreferences sp) {
+        synchronized (SunshinePreferences.class) {
+            if (sSnapshot == null) {
+                getSnapshot(context);
+            } else {
+                sSnapshot = new Snapshot(context.getApplicationContext(), sp);
+            }
+        }
+    }
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -48,6 +178,8 @@ public final class SunshinePreferences {
         editor.putLong(PREF_COORD_LAT, Double.doubleToRawLongBits(lat));
         editor.putLong(PREF_COORD_LONG, Double.doubleToRawLongBits(lon));
         editor.apply();
+
+        refreshSnapshot(context, sp);
     }
 
     /**
@@ -62,6 +194,8 @@ public final class SunshinePreferences {
         editor.remove(PREF_COORD_LAT);
         editor.remove(PREF_COORD_LONG);
         editor.apply();
+
+        refreshSnapshot(context, sp);
     }
 
     /**
@@ -74,12 +208,7 @@ public final class SunshinePreferences {
      * "94043,USA" if SharedPreferences have not been implemented yet.
      */
     public static String getPreferredWeatherLocation(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForLocation = context.getString(R.string.pref_location_key);
-        String defaultLocation = context.getString(R.string.pref_location_default);
-
-        return sp.getString(keyForLocation, defaultLocation);
+        return getSnapshot(context).mPreferredWeatherLocation;
     }
 
     /**
@@ -89,19 +218,7 @@ public final class SunshinePreferences {
      * @return true if metric display should be used, false if imperial display should be used
      */
     public static boolean isMetric(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        String keyForUnits = context.getString(R.string.pref_units_key);
-        String defaultUnits = context.getString(R.string.pref_units_metric);
-        String preferredUnits = sp.getString(keyForUnits, defaultUnits);
-        String metric = context.getString(R.string.pref_units_metric);
-
-        boolean userPrefersMetric = false;
-        if (metric.equals(preferredUnits)) {
-            userPrefersMetric = true;
-        }
-
-        return userPrefersMetric;
+        return getSnapshot(context).mIsMetric;
     }
 
     /**
@@ -113,25 +230,8 @@ public final class SunshinePreferences {
      * @return an array containing the two coordinate values for the user's preferred location
      */
     public static double[] getLocationCoordinates(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        double[] preferredCoordinates = new double[2];
-
-        /*
-         * This is a hack we have to resort to since you can't store doubles in SharedPreferences.
-         *
-         * Double.doubleToLongBits returns an integer corresponding to the bits of the given
-         * IEEE 754 double precision value.
-         *
-         * Double.longBitsToDouble does the opposite, converting a long (that represents a double)
-         * into the double itself.
-         */
-        preferredCoordinates[0] = Double
-                 .longBitsToDouble(sp.getLong(PREF_COORD_LAT, Double.doubleToRawLongBits(0.0)));
-        preferredCoordinates[1] = Double
-                .longBitsToDouble(sp.getLong(PREF_COORD_LONG, Double.doubleToRawLongBits(0.0)));
-
-        return preferredCoordinates;
+        /* A copy, as the snapshot can't be allowed to change */
+        return getSnapshot(context).mLocationCoordinates.clone();
     }
 
     /**
@@ -142,17 +242,7 @@ public final class SunshinePreferences {
      * @return true if lat/long are saved in SharedPreferences
      */
     public static boolean isLocationLatLonAvailable(Context context) {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        boolean spContainLatitude = sp.contains(PREF_COORD_LAT);
-        boolean spContainLongitude = sp.contains(PREF_COORD_LONG);
-
-        boolean spContainBothLatitudeAndLongitude = false;
-        if (spContainLatitude && spContainLongitude) {
-            spContainBothLatitudeAndLongitude = true;
-        }
-
-        return spContainBothLatitudeAndLongitude;
+        return getSnapshot(context).mLocationLatLonAvailable;
     }
 
     /**
@@ -163,26 +253,19 @@ public final class SunshinePreferences {
      * @return true if the user prefers to see notifications, false otherwise
      */
     public static boolean areNotificationsEnabled(Context context) {
-        /* Key for accessing the preference for showing notifications */
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-
-        /*
-         * In Sunshine, the user has the ability to say whether she would like notifications
-         * enabled or not. If no preference has been chosen, we want to be able to determine
-         * whether or not to show them. To do this, we reference a bool stored in bools.xml.
-         */
-        boolean shouldDisplayNotificationsByDefault = context
-                .getResources()
-                .getBoolean(R.bool.show_notifications_by_default);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        /* If a value is stored with the key, we extract it here. If not, use a default. */
-        boolean shouldDisplayNotifications = sp
-                .getBoolean(displayNotificationsKey, shouldDisplayNotificationsByDefault);
+        return getSnapshot(context).mNotificationsEnabled;
+    }
 
-        return shouldDisplayNotifications;
+    /**
+     * Returns how many months of weather history the user wants to keep, counting the current
+     * month. Older history is dropped from the archive the next time it is compacted. This
+     * preference can be changed by the user within the SettingsFragment.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The number of months of weather history to keep
+     */
+    public static int getArchiveRetentionMonths(Context context) {
+        return getSnapshot(context).mArchiveRetentionMonths;
     }
 
     /**
@@ -192,25 +275,7 @@ public final class SunshinePreferences {
      * @return UNIX time of when the last notification was shown
      */
     public static long getLastNotificationTimeInMillis(Context context) {
-        /* Key for accessing the time at which Sunshine last displayed a notification */
-        String lastNotificationKey = context.getString(R.string.pref_last_notification);
-
-        /* As usual, we use the default SharedPreferences to access the user's preferences */
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-
-        /*
-         * Here, we retrieve the time in milliseconds when the last notification was shown. If
-         * SharedPreferences doesn't have a value for lastNotificationKey, we return 0. The reason
-         * we return 0 is because we compare the value returned from this method to the current
-         * system time. If the difference between the last notification time and the current time
-         * is greater than one day, we will show a notification again. When we compare the two
-         * values, we subtract the last notification time from the current system time. If the
-         * time of the last notification was 0, the difference will always be greater than the
-         * number of milliseconds in a day and we will show another notification.
-         */
-        long lastNotificationTime = sp.getLong(lastNotificationKey, 0);
-
-        return lastNotificationTime;
+        return getSnapshot(context).mLastNotificationTimeInMillis;
     }
 
     /**
@@ -241,5 +306,7 @@ public final class SunshinePreferences {
         String lastNotificationKey = context.getString(R.string.pref_last_notification);
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
+
+        refreshSnapshot(context, sp);
     }
 }
\ No newline at end of file
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Moves past weather from the weather table into the archive, and keeps the archive within its
+ * retention period. WeatherProvider runs these operations for its callers; they are kept here so
+ * the provider stays about routing requests.
+ * <p>
+ * SQLite has no native partitioning, so the archive is partitioned by month through its primary
+ * key, (location, month, date): the rows of a month are stored next to each other, and dropping
+ * or compacting a month touches only that month's pages. The weather table itself only ever
+ * holds today and the days ahead, so it stays small however much history is kept.
+ */
+final class WeatherArchive {
+
+    /*
+     * Months whose rows keep one row per day. Older months are downsampled into rows covering up
+     * to DAYS_PER_COMPACTED_ROW days each.
+     */
+    static final int FULL_RESOLUTION_MONTHS = 3;
+
+    static final int DAYS_PER_COMPACTED_ROW = 7;
+
+    /* Turns a date stored in days into the seconds strftime reads */
+    private static final long SECONDS_PER_DAY = SunshineDateUtils.DAY_IN_MILLIS / 1000;
+
+    /* A temporary table, private to the connection, holding the rows of a compaction */
+    private static final String COMPACTED_TABLE_NAME = "weather_archive_compacted";
+
+    /* The archive columns in the order the statements below read and write them */
+    private static final String ARCHIVE_COLUMNS =
+            ArchiveEntry.COLUMN_LOCATION_ID + ", " +
+            ArchiveEntry.COLUMN_MONTH + ", " +
+            ArchiveEntry.COLUMN_DATE + ", " +
+            ArchiveEntry.COLUMN_DAYS + ", " +
+            ArchiveEntry.COLUMN_SPAN + ", " +
+            ArchiveEntry.COLUMN_WEATHER_ID + ", " +
+            ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+            ArchiveEntry.COLUMN_MAX_TEMP + ", " +
+            ArchiveEntry.COLUMN_HUMIDITY + ", " +
+            ArchiveEntry.COLUMN_PRESSURE + ", " +
+            ArchiveEntry.COLUMN_WIND_SPEED + ", " +
+            ArchiveEntry.COLUMN_DEGREES;
+
+    /*
+     * Copies the days before the bound date from the weather table into the archive. Both store
+     * the weather in the same units, see WeatherEncoding, so the rows are copied as they are,
+     * straight from the table along its primary key. Only the month is worked out from the date,
+     * which is stored in days.
+     */
+    private static final String SQL_ARCHIVE_PAST_WEATHER =
+            "INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" + ARCHIVE_COLUMNS + ") SELECT " +
+                    WeatherEntry.COLUMN_LOCATION_ID + ", " +
+                    "CAST(strftime('%Y%m', " + WeatherEntry.COLUMN_DATE + " * "
+                    + SECONDS_PER_DAY + ", 'unixepoch') AS INTEGER), " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    "1, " +
+                    "1, " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherEntry.COLUMN_DEGREES +
+                    " FROM " + WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    /* Holds the merged rows while a compaction replaces the months they came from */
+    private static final String SQL_CREATE_COMPACTED_TABLE =
+            "CREATE TEMP TABLE " + COMPACTED_TABLE_NAME + " (" +
+                    ArchiveEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_SPAN + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                    ArchiveEntry.COLUMN_DEGREES + " INTEGER NOT NULL)";
+
+    /*
+     * Merges the rows of every month before the bound month that still has single-day rows into
+     * rows of up to DAYS_PER_COMPACTED_ROW days. Merged rows never span two months. Rows merged
+     * by an earlier compaction fall into the same groups again, so compacting twice changes
+     * nothing.
+     * <p>
+     * A merged row counts the days it was merged from, which its averages are weighted by, and
+     * separately spans from its first date to the end of its last row, so that a week missing
+     * some of its days is still found by the dates of its later days.
+     * <p>
+     * Temperatures keep the extremes of the merged days and the other values are averaged,
+     * weighted by the days each row already covers, and rounded back to the hundredths the
+     * archive stores. The weather ID keeps the lowest condition code, which in OpenWeatherMap's
+     * numbering (thunderstorm, drizzle, rain, snow, atmosphere, clear, clouds) is the most
+     * significant condition of the merged days. Averaging wind directions would be meaningless,
+     * so the direction is filled in afterwards from the first merged day.
+     */
+    private static final String SQL_INSERT_MERGED_ROWS =
+            "INSERT INTO " + COMPACTED_TABLE_NAME + " (" + ARCHIVE_COLUMNS + ") SELECT " +
+                    ArchiveEntry.COLUMN_LOCATION_ID + ", " +
+                    ArchiveEntry.COLUMN_MONTH + ", " +
+                    "MIN(" + ArchiveEntry.COLUMN_DATE + "), " +
+                    "SUM(" + ArchiveEntry.COLUMN_DAYS + "), " +
+                    "MAX(" + ArchiveEntry.COLUMN_DATE + " + " + ArchiveEntry.COLUMN_SPAN + ")"
+                    + " - MIN(" + ArchiveEntry.COLUMN_DATE + "), " +
+                    "MIN(" + ArchiveEntry.COLUMN_WEATHER_ID + "), " +
+                    "MIN(" + ArchiveEntry.COLUMN_MIN_TEMP + "), " +
+                    "MAX(" + ArchiveEntry.COLUMN_MAX_TEMP + "), " +
+                    weightedAverage(ArchiveEntry.COLUMN_HUMIDITY) + ", " +
+                    weightedAverage(ArchiveEntry.COLUMN_PRESSURE) + ", " +
+                    weightedAverage(ArchiveEntry.COLUMN_WIND_SPEED) + ", " +
+                    "0" +
+                    " FROM " + ArchiveEntry.TABLE_NAME +
+                    " WHERE " + ArchiveEntry.COLUMN_MONTH + " IN (" +
+                    "SELECT DISTINCT " + ArchiveEntry.COLUMN_MONTH +
+                    " FROM " + ArchiveEntry.TABLE_NAME +
+                    " WHERE " + ArchiveEntry.COLUMN_MONTH + " < ?" +
+                    " AND " + ArchiveEntry.COLUMN_DAYS + " = 1)" +
+                    " GROUP BY " + ArchiveEntry.COLUMN_LOCATION_ID + ", " +
+                    ArchiveEntry.COLUMN_MONTH + ", " +
+                    ArchiveEntry.COLUMN_DATE + " / " + DAYS_PER_COMPACTED_ROW;
+
+    private static final String SQL_FILL_COMPACTED_WIND_DIRECTIONS =
+            "UPDATE " + COMPACTED_TABLE_NAME + " SET " + ArchiveEntry.COLUMN_DEGREES + " = (" +
+                    "SELECT a." + ArchiveEntry.COLUMN_DEGREES +
+                    " FROM " + ArchiveEntry.TABLE_NAME + " a WHERE" +
+                    " a." + ArchiveEntry.COLUMN_LOCATION_ID + " = "
+                    + COMPACTED_TABLE_NAME + "." + ArchiveEntry.COLUMN_LOCATION_ID +
+                    " AND a." + ArchiveEntry.COLUMN_MONTH + " = "
+                    + COMPACTED_TABLE_NAME + "." + ArchiveEntry.COLUMN_MONTH +
+                    " AND a." + ArchiveEntry.COLUMN_DATE + " = "
+                    + COMPACTED_TABLE_NAME + "." + ArchiveEntry.COLUMN_DATE + ")";
+
+    private static final String SQL_DELETE_COMPACTED_MONTHS =
+            "DELETE FROM " + ArchiveEntry.TABLE_NAME +
+                    " WHERE " + ArchiveEntry.COLUMN_MONTH + " IN (" +
+                    "SELECT DISTINCT " + ArchiveEntry.COLUMN_MONTH +
+                    " FROM " + COMPACTED_TABLE_NAME + ")";
+
+    private static final String SQL_INSERT_COMPACTED_ROWS =
+            "INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" + ARCHIVE_COLUMNS + ")" +
+                    " SELECT " + ARCHIVE_COLUMNS + " FROM " + COMPACTED_TABLE_NAME;
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * Moves the weather of every day before the given date from the weather table into the
+     * archive, in a single transaction. A day that was already archived is replaced.
+     *
+     * @param db              The weather database
+     * @param normalizedToday Normalized UTC date of today; days before it are moved
+     * @return The number of days moved
+     */
+    static int archivePastWeather(SQLiteDatabase db, long normalizedToday) {
+        long today = WeatherEncoding.encodeDate(normalizedToday);
+        db.beginTransactionNonExclusive();
+        try {
+            db.execSQL(SQL_ARCHIVE_PAST_WEATHER, new Object[]{today});
+
+            SQLiteStatement deletePastWeather = db.compileStatement(
+                    "DELETE FROM " + WeatherEntry.TABLE_NAME +
+                            " WHERE " + WeatherEntry.COLUMN_DATE + " < ?");
+            int daysMoved;
+            try {
+                deletePastWeather.bindLong(1, today);
+                daysMoved = deletePastWeather.executeUpdateDelete();
+            } finally {
+                deletePastWeather.close();
+            }
+
+            db.setTransactionSuccessful();
+            return daysMoved;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Drops the months that have fallen out of the retention period, then downsamples every
+     * month older than {@link #FULL_RESOLUTION_MONTHS} that still holds single-day rows.
+     *
+     * @param db              The weather database
+     * @param now             The current time, in milliseconds
+     * @param retentionMonths How many months of history to keep, counting the current month, or
+     *                        0 to keep everything
+     * @return The number of archive rows removed, whether dropped or merged into other rows
+     */
+    static int compact(SQLiteDatabase db, long now, int retentionMonths) {
+        int currentMonth = getMonth(now);
+
+        db.beginTransactionNonExclusive();
+        try {
+            int rowsRemoved = 0;
+
+            if (retentionMonths > 0) {
+                rowsRemoved += db.delete(ArchiveEntry.TABLE_NAME,
+                        ArchiveEntry.COLUMN_MONTH + " < ?",
+                        new String[]{Integer.toString(
+                                addMonths(currentMonth, -(retentionMonths - 1)))});
+            }
+
+            db.execSQL("DROP TABLE IF EXISTS " + COMPACTED_TABLE_NAME);
+            db.execSQL(SQL_CREATE_COMPACTED_TABLE);
+            db.execSQL(SQL_INSERT_MERGED_ROWS,
+                    new Object[]{addMonths(currentMonth, -FULL_RESOLUTION_MONTHS)});
+            db.execSQL(SQL_FILL_COMPACTED_WIND_DIRECTIONS);
+
+            long compactedRows = DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + COMPACTED_TABLE_NAME, null);
+            if (compactedRows > 0) {
+                SQLiteStatement deleteCompactedMonths =
+                        db.compileStatement(SQL_DELETE_COMPACTED_MONTHS);
+                try {
+                    rowsRemoved += deleteCompactedMonths.executeUpdateDelete() - compactedRows;
+                } finally {
+                    deleteCompactedMonths.close();
+                }
+                db.execSQL(SQL_INSERT_COMPACTED_ROWS);
+            }
+
+            db.execSQL("DROP TABLE " + COMPACTED_TABLE_NAME);
+
+            db.setTransactionSuccessful();
+            return rowsRemoved;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the UTC month of a date, written as yyyyMM, the way
+     * {@link ArchiveEntry#COLUMN_MONTH} stores it.
+     *
+     * @param date A UTC date, in milliseconds
+     * @return The month of that date, such as 201610 for October 2016
+     */
+    static int getMonth(long date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(date);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * Adds a number of months, which may be negative, to a month written as yyyyMM.
+     *
+     * @param month  A month written as yyyyMM
+     * @param months The number of months to add
+     * @return The resulting month, written as yyyyMM
+     */
+    static int addMonths(int month, int months) {
+        int monthsSinceYearZero = (month / 100) * 12 + (month % 100 - 1) + months;
+        return (monthsSinceYearZero / 12) * 100 + monthsSinceYearZero % 12 + 1;
+    }
+
+    private static String weightedAverage(String column) {
+        return "CAST(ROUND(SUM(" + column + " * " + ArchiveEntry.COLUMN_DAYS + ") * 1.0 / SUM("
+                + ArchiveEntry.COLUMN_DAYS + ")) AS INTEGER)";
+    }
+}
\ No newline at end of file
@@ -55,6 +55,13 @@ public class WeatherContract {
      * "givemeroot". At least, let's hope not. Don't be that dev, reader. Don't be that dev.
      */
     public static final String PATH_WEATHER = "weather";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_FROM = "from";
+    public static final String PATH_RANGE = "range";
+    public static final String PATH_PROFILE = "profile";
+    public static final String PATH_LIST = "list";
+    public static final String PATH_LOCATION = "location";
 
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
@@ -64,9 +71,26 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
-        /* Used internally as the name of our weather table. */
+        /*
+         * The URI that queries spanning more than one day, such as those of CONTENT_URI and of
+         * the from, range and stats URIs, are notified on. Every write notifies it once, along
+         * with the URI of each date it changed, so that observers of a single day aren't told
+         * about changes to other days. It can't be queried itself.
+         */
+        public static final Uri CONTENT_LIST_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_LIST)
+                .build();
+
+        /*
+         * Used internally as the name of our weather table. The table stores dates as days since
+         * the epoch and the other measurements as integers, see WeatherEncoding, so it is only
+         * read through the view below.
+         */
         public static final String TABLE_NAME = "weather";
 
+        /* Used internally as the name of the view that reads the weather table in these units */
+        public static final String VIEW_NAME = "weather_view";
+
         /*
          * The date column will store the UTC date that correlates to the local date for which
          * each particular weather row represents. For example, if you live in the Eastern
@@ -85,30 +109,53 @@ public class WeatherContract {
          */
         public static final String COLUMN_DATE = "date";
 
+        /*
+         * Identifies the location a weather row was forecast for, by its LocationEntry _ID.
+         * Together with the date, it forms the primary key of the weather table, so each location
+         * holds at most one row per day, and a location's rows are stored next to each other in
+         * date order.
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
         /* Weather ID as returned by API, used to identify the icon to be used */
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
-        /* Min and max temperatures in °C for the day (stored as floats in the database) */
+        /* Min and max temperatures in °C for the day, precise to 0.01 °C */
         public static final String COLUMN_MIN_TEMP = "min";
         public static final String COLUMN_MAX_TEMP = "max";
 
-        /* Humidity is stored as a float representing percentage */
+        /* Humidity is a float representing percentage, precise to 0.01 */
         public static final String COLUMN_HUMIDITY = "humidity";
 
-        /* Pressure is stored as a float representing percentage */
+        /* Pressure is a float representing percentage, precise to 0.01 */
         public static final String COLUMN_PRESSURE = "pressure";
 
-        /* Wind speed is stored as a float representing wind speed in mph */
+        /* Wind speed is a float representing wind speed in mph, precise to 0.01 mph */
         public static final String COLUMN_WIND_SPEED = "wind";
 
         /*
-         * Degrees are meteorological degrees (e.g, 0 is north, 180 is south).
-         * Stored as floats in the database.
+         * Degrees are meteorological degrees (e.g, 0 is north, 180 is south), as a float
+         * precise to 0.01 degrees.
          *
          * Note: These degrees are not to be confused with temperature degrees of the weather.
          */
         public static final String COLUMN_DEGREES = "degrees";
 
+        /*
+         * WeatherProvider#call method returning how many queries were answered from memory, by
+         * the provider's copy of the weather table or its cache of recently read days, in
+         * EXTRA_CACHE_HITS, and how many queries for a single date had to read the database, in
+         * EXTRA_CACHE_MISSES.
+         */
+        public static final String METHOD_GET_CACHE_STATS = "getCacheStats";
+
+        public static final String EXTRA_CACHE_HITS = "cacheHits";
+        public static final String EXTRA_CACHE_MISSES = "cacheMisses";
+
+        /* The query parameters of buildUriWithLimit */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        public static final String QUERY_PARAMETER_OFFSET = "offset";
+
         /**
          * Builds a URI that adds the weather date to the end of the forecast content URI path.
          * This is used to query details about a single weather entry by date. This is what we
@@ -124,15 +171,339 @@ public class WeatherContract {
         }
 
         /**
-         * Returns just the selection part of the weather query from a normalized today value.
-         * This is used to get a weather forecast from today's date. To make this easy to use
-         * in compound selection, we embed today's date as an argument in the query.
+         * Builds a URI to query the weather from a date onwards, in date order. We assume a
+         * normalized date is passed to this method.
          *
-         * @return The selection part of the weather query for today onwards
+         * @param date Normalized date of the first day, in milliseconds
+         * @return Uri to query the weather from the date onwards
          */
-        public static String getSqlSelectForTodayOnwards() {
-            long normalizedUtcNow = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
-            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
+        public static Uri buildWeatherUriFromDate(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_FROM)
+                    .appendPath(Long.toString(date))
+                    .build();
         }
+
+        /**
+         * Builds a URI to query the weather from today onwards, in date order. This is the
+         * forecast we display.
+         *
+         * @return Uri to query the weather from today onwards
+         */
+        public static Uri buildWeatherUriFromToday() {
+            return buildWeatherUriFromDate(
+                    SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        }
+
+        /**
+         * Builds a URI to query the weather between two dates, both included, in date order. We
+         * assume normalized dates are passed to this method.
+         *
+         * @param fromDate Normalized date of the first day, in milliseconds
+         * @param toDate   Normalized date of the last day, in milliseconds
+         * @return Uri to query the weather between the two dates
+         */
+        public static Uri buildWeatherUriWithDateRange(long fromDate, long toDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(fromDate))
+                    .appendPath(Long.toString(toDate))
+                    .build();
+        }
+
+        /**
+         * Scopes a URI built by one of the methods above to the weather of a tracked location.
+         * Weather URIs that aren't scoped address the user's preferred location.
+         *
+         * @param uri        The weather URI to scope
+         * @param locationId The _ID of the location, see {@link LocationEntry}
+         * @return Uri to the same weather of the given location, such as
+         * content://com.example.android.sunshine/location/2/weather/from/1472169600000
+         */
+        public static Uri buildUriForLocation(Uri uri, long locationId) {
+            Uri.Builder builder = LocationEntry.buildLocationUri(locationId).buildUpon();
+            for (String segment : uri.getPathSegments()) {
+                builder.appendPath(segment);
+            }
+            return builder.encodedQuery(uri.getEncodedQuery()).build();
+        }
+
+        /**
+         * Limits a URI built by {@link #buildWeatherUriFromDate(long)} or
+         * {@link #buildWeatherUriWithDateRange(long, long)} to a page of its rows.
+         *
+         * @param uri    The URI to limit
+         * @param limit  The greatest number of rows to return
+         * @param offset The number of rows to skip before the first row returned
+         * @return Uri to query the page of rows
+         */
+        public static Uri buildUriWithLimit(Uri uri, int limit, int offset) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, Integer.toString(offset))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to query statistics of the forecast between two dates, both included,
+         * such as the week's lowest temperature. The result is a single row with the columns of
+         * {@link StatsEntry}. We assume normalized dates are passed to this method.
+         *
+         * @param fromDate Normalized date of the first day, in milliseconds
+         * @param toDate   Normalized date of the last day, in milliseconds
+         * @return Uri to query statistics of the forecast between the two dates
+         */
+        public static Uri buildStatsUri(long fromDate, long toDate) {
+            return StatsEntry.buildStatsUri(CONTENT_URI, fromDate, toDate);
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the location table, which holds every
+     * location Sunshine has fetched weather for. Each location's weather is kept under its _ID,
+     * so switching back to a location shows its stored forecast straight away.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /*
+         * The URI that queries of the location table are notified on, when a location is added,
+         * changed or deleted. Notifying CONTENT_URI itself would also reach the observers of every
+         * location's weather, which lies below it. It can't be queried itself.
+         */
+        public static final Uri CONTENT_LIST_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_LIST)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * The location as the user entered it in the settings, such as "94043,USA", which is also
+         * what we query OpenWeatherMap with. Each setting is stored once, so inserting a setting
+         * that is already tracked updates its row and returns its existing URI.
+         */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        /* The coordinates OpenWeatherMap returned for the location, if it has been synced */
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        /* When the location's weather was last synced, in milliseconds, or 0 if never */
+        public static final String COLUMN_LAST_SYNC = "last_sync";
+
+        /**
+         * Builds a URI to a single tracked location. Deleting it deletes the location's weather
+         * and archive along with it.
+         *
+         * @param locationId The _ID of the location
+         * @return Uri to the location
+         */
+        public static Uri buildLocationUri(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+    }
+
+    /* Inner class that defines the table contents of the weather archive table */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        /*
+         * The base CONTENT_URI used to query the weather archive from the content provider. It
+         * returns the archive of the preferred location, see buildUriForLocation for the others.
+         */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_ARCHIVE)
+                .build();
+
+        /*
+         * Used internally as the name of our weather archive table. Like the weather table, it
+         * stores dates as days since the epoch and the other measurements as integers, see
+         * WeatherEncoding, so it is only read through the view below.
+         */
+        public static final String TABLE_NAME = "weather_archive";
+
+        /* Used internally as the name of the view that reads the archive in these units */
+        public static final String VIEW_NAME = "weather_archive_view";
+
+        /*
+         * The archive keeps the weather of days that have passed. Its rows have the same columns
+         * as the weather table, plus the month, the number of days each row summarizes and the
+         * span of dates it covers.
+         */
+        public static final String COLUMN_LOCATION_ID = WeatherEntry.COLUMN_LOCATION_ID;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        /*
+         * The UTC month of the row's date, written as yyyyMM (201610 for October 2016). The
+         * archive is partitioned by month: rows are stored grouped by month, so retention and
+         * compaction work on whole months at a time.
+         */
+        public static final String COLUMN_MONTH = "month";
+
+        /*
+         * The number of days whose weather this row summarizes, which averages over several rows
+         * are weighted by. Recent rows summarize a single day. Compaction merges the days of
+         * older months into rows of up to a week, in which the temperatures are the extremes of
+         * those days, the other values their averages, and the weather ID the most significant
+         * condition among them.
+         */
+        public static final String COLUMN_DAYS = "days";
+
+        /*
+         * The number of dates this row covers, starting at its date. It is the same as
+         * COLUMN_DAYS unless the archive was missing some of the days a compacted row merged, in
+         * which case it is larger: a row merged from the 1st, 2nd and 4th of a week covers the
+         * 1st to the 4th, but summarizes three days.
+         */
+        public static final String COLUMN_SPAN = "span";
+
+        /*
+         * WeatherProvider#call methods. METHOD_ARCHIVE_PAST_WEATHER moves the weather of days
+         * before the normalized date passed as its argument from the weather table into the
+         * archive. METHOD_COMPACT_ARCHIVE drops months older than EXTRA_RETENTION_MONTHS and
+         * downsamples older months. Both return the number of rows affected in EXTRA_ROW_COUNT.
+         */
+        public static final String METHOD_ARCHIVE_PAST_WEATHER = "archivePastWeather";
+        public static final String METHOD_COMPACT_ARCHIVE = "compactArchive";
+
+        public static final String EXTRA_RETENTION_MONTHS = "retentionMonths";
+        public static final String EXTRA_ROW_COUNT = "rowCount";
+
+        /**
+         * Builds a URI to query the archived weather between two dates, both included. We
+         * assume normalized dates are passed to this method.
+         *
+         * @param fromDate Normalized date of the first day, in milliseconds
+         * @param toDate   Normalized date of the last day, in milliseconds
+         * @return Uri to query the archived weather between the two dates
+         */
+        public static Uri buildArchiveUriWithDateRange(long fromDate, long toDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(fromDate))
+                    .appendPath(Long.toString(toDate))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to query statistics of the archived weather between two dates, both
+         * included. The result is a single row with the columns of {@link StatsEntry}. A
+         * compacted row counts in full if any of its days falls within the range. We assume
+         * normalized dates are passed to this method.
+         *
+         * @param fromDate Normalized date of the first day, in milliseconds
+         * @param toDate   Normalized date of the last day, in milliseconds
+         * @return Uri to query statistics of the archived weather between the two dates
+         */
+        public static Uri buildStatsUri(long fromDate, long toDate) {
+            return StatsEntry.buildStatsUri(CONTENT_URI, fromDate, toDate);
+        }
+
+        /**
+         * Scopes CONTENT_URI, or a URI built by one of the methods above, to the archive of a
+         * tracked location. Archive URIs that aren't scoped, CONTENT_URI included, address the
+         * user's preferred location only.
+         *
+         * @param uri        The archive URI to scope
+         * @param locationId The _ID of the location, see {@link LocationEntry}
+         * @return Uri to the same archived weather of the given location, such as
+         * content://com.example.android.sunshine/location/2/archive/1472169600000/1474675200000
+         */
+        public static Uri buildUriForLocation(Uri uri, long locationId) {
+            return WeatherEntry.buildUriForLocation(uri, locationId);
+        }
+    }
+
+    /*
+     * Inner class that defines the columns of a statistics query, which summarizes the weather
+     * of a range of days in a single row computed by the database.
+     */
+    public static final class StatsEntry {
+
+        /* The query parameters holding the normalized first and last dates of the range */
+        public static final String QUERY_PARAMETER_FROM = "from";
+        public static final String QUERY_PARAMETER_TO = "to";
+
+        /* The number of days with weather within the range */
+        public static final String COLUMN_DAYS = "days";
+
+        /* The lowest and highest temperatures within the range, in °C */
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        /* The averages of the daily values within the range */
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+
+        private static Uri buildStatsUri(Uri contentUri, long fromDate, long toDate) {
+            return contentUri.buildUpon()
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(QUERY_PARAMETER_FROM, Long.toString(fromDate))
+                    .appendQueryParameter(QUERY_PARAMETER_TO, Long.toString(toDate))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the columns of the provider's profile, which counts the queries
+     * and writes it has served and how long they took. The profile is only kept in builds with
+     * BuildConfig.PROFILE_WEATHER_PROVIDER set; otherwise it is always empty.
+     */
+    public static final class ProfileEntry {
+
+        /* The URI to query the profile from the content provider, one row per kind of operation */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_PROFILE)
+                .build();
+
+        /* The kind of operation, such as "query", "bulkInsert" or "delete" */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /* The number of operations of this kind, and how many of them were slow */
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_SLOW_COUNT = "slow_count";
+
+        /* The total and the longest time the operations of this kind took, in milliseconds */
+        public static final String COLUMN_TOTAL_MILLIS = "total_ms";
+        public static final String COLUMN_MAX_MILLIS = "max_ms";
+    }
+
+    /*
+     * Inner class that names the maintenance of the database file, which has no table or URI of
+     * its own. Call it on BASE_CONTENT_URI.
+     */
+    public static final class MaintenanceEntry {
+
+        /*
+         * WeatherProvider#call method that checks the database's integrity, returns its free
+         * pages to the file system, refreshes the statistics SQLite plans queries with and
+         * checkpoints the write-ahead log. It reports the size of the database file and its
+         * number of pages, and how many of those were free, before and after, along with
+         * whether the integrity check passed.
+         */
+        public static final String METHOD_RUN_MAINTENANCE = "runMaintenance";
+
+        public static final String EXTRA_FILE_BYTES_BEFORE = "fileBytesBefore";
+        public static final String EXTRA_FILE_BYTES_AFTER = "fileBytesAfter";
+        public static final String EXTRA_PAGE_COUNT_BEFORE = "pageCountBefore";
+        public static final String EXTRA_PAGE_COUNT_AFTER = "pageCountAfter";
+        public static final String EXTRA_FREE_PAGE_COUNT_BEFORE = "freePageCountBefore";
+        public static final String EXTRA_FREE_PAGE_COUNT_AFTER = "freePageCountAfter";
+        public static final String EXTRA_INTEGRITY_OK = "integrityOk";
     }
 }
\ No newline at end of file
@@ -15,11 +15,15 @@
  */
 package com.example.android.sunshine.data;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 
 /**
  * Manages a local database for weather data.
@@ -43,10 +47,29 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 10;
+
+    /* Used to read the preferred location when the location table is added, see onUpgrade */
+    private final Context mContext;
 
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        /*
+         * While WeatherProvider is being profiled, cursors are created through the profiler's
+         * factory so that it can see the SQL of slow queries.
+         */
+        super(context, DATABASE_NAME,
+                WeatherProviderProfiler.ENABLED ? WeatherProviderProfiler.CURSOR_FACTORY : null,
+                DATABASE_VERSION);
+        mContext = context.getApplicationContext();
+
+        /*
+         * With write-ahead logging, a sync's transaction appends to a separate log instead of
+         * locking the database file, so the forecast list, the notification and the watch face
+         * keep reading the last committed weather while a sync is writing. SQLiteDatabase also
+         * gives each reading thread its own connection from a pool once WAL is enabled. The size
+         * of that pool is set by the framework; choosing it ourselves needs API 27.
+         */
+        setWriteAheadLoggingEnabled(true);
     }
 
     /**
@@ -66,48 +89,99 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
                 "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
 
+                WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT 0, "       +
+
                 /*
-                 * WeatherEntry did not explicitly declare a column called "_ID". However,
-                 * WeatherEntry implements the interface, "BaseColumns", which does have a field
-                 * named "_ID". We use that here to designate our table's primary key.
+                 * The date is stored as days since the epoch and every measurement in hundredths,
+                 * all as integers. WeatherEncoding converts values on their way in, and the view
+                 * below converts them back.
                  */
-                WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                WeatherEntry.COLUMN_DATE        + " INTEGER NOT NULL, "                 +
 
-                WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL,"                  +
 
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+                WeatherEntry.COLUMN_MIN_TEMP    + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_MAX_TEMP    + " INTEGER NOT NULL, "                 +
 
-                WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_HUMIDITY    + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_PRESSURE    + " INTEGER NOT NULL, "                 +
 
-                WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_WIND_SPEED  + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_DEGREES     + " INTEGER NOT NULL, "                 +
 
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
-                WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+                /*
+                 * Each location holds one weather entry per date, so (location, date) is our
+                 * primary key. "ON CONFLICT REPLACE" tells SQLite that if we attempt to insert
+                 * another weather entry for a location and date we already have, the new entry
+                 * replaces the old one.
+                 */
+                " PRIMARY KEY (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)" +
 
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * WITHOUT ROWID stores the rows in the primary key's B-tree itself. An ordinary
+                 * table would keep the rows in a rowid B-tree and need a second B-tree for the
+                 * key, and AUTOINCREMENT would add a write to sqlite_sequence on every insert.
+                 * Rows for one location are also stored in date order, which is exactly the
+                 * order our range queries read them in.
                  */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+                " WITHOUT ROWID;";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createWeatherView(sqLiteDatabase);
+
+        /*
+         * The archive keeps the weather of past days. Its primary key starts with the month, so
+         * each month's rows are stored together and retention and compaction can work on whole
+         * months, while date range queries are still answered from the key. It holds most of the
+         * weather Sunshine keeps, so it is stored in the same compact integers as the weather
+         * table and read through a view of its own.
+         */
+        final String SQL_CREATE_ARCHIVE_TABLE =
+
+                "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+
+                ArchiveEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT 0, "       +
+                ArchiveEntry.COLUMN_MONTH       + " INTEGER NOT NULL, "                 +
+                ArchiveEntry.COLUMN_DATE        + " INTEGER NOT NULL, "                 +
+                ArchiveEntry.COLUMN_DAYS        + " INTEGER NOT NULL DEFAULT 1, "       +
+                ArchiveEntry.COLUMN_SPAN        + " INTEGER NOT NULL DEFAULT 1, "       +
+
+                ArchiveEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL,"                  +
+
+                ArchiveEntry.COLUMN_MIN_TEMP    + " INTEGER NOT NULL, "                 +
+                ArchiveEntry.COLUMN_MAX_TEMP    + " INTEGER NOT NULL, "                 +
+
+                ArchiveEntry.COLUMN_HUMIDITY    + " INTEGER NOT NULL, "                 +
+                ArchiveEntry.COLUMN_PRESSURE    + " INTEGER NOT NULL, "                 +
+
+                ArchiveEntry.COLUMN_WIND_SPEED  + " INTEGER NOT NULL, "                 +
+                ArchiveEntry.COLUMN_DEGREES     + " INTEGER NOT NULL, "                 +
+
+                " PRIMARY KEY (" + ArchiveEntry.COLUMN_LOCATION_ID + ", "
+                        + ArchiveEntry.COLUMN_MONTH + ", "
+                        + ArchiveEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)" +
+
+                " WITHOUT ROWID;";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        createArchiveView(sqLiteDatabase);
+        createLocationTable(sqLiteDatabase);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Upgrades the database one version at a time, carrying the stored weather across each step,
+     * so that an app update doesn't leave the user looking at an empty forecast until the next
+     * sync. Note that this only fires if you change the version number for your database (in our
+     * case, DATABASE_VERSION). It does NOT depend on the version number for your application
+     * found in your app/build.gradle file.
+     * <p>
+     * Each step describes the schema as it was at that version, rather than referring to the
+     * current schema, so that later changes to onCreate don't alter what older steps do.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +189,353 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        /*
+         * Versions before 3 come from much older releases of Sunshine whose schemas we no longer
+         * know how to read. They are only a cache, so we start over.
+         */
+        if (oldVersion < 3) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        if (oldVersion < 4) {
+            upgradeToVersion4(sqLiteDatabase);
+        }
+
+        if (oldVersion < 5) {
+            upgradeToVersion5(sqLiteDatabase);
+        }
+
+        if (oldVersion < 6) {
+            upgradeToVersion6(sqLiteDatabase);
+        }
+
+        if (oldVersion < 7) {
+            upgradeToVersion7(sqLiteDatabase);
+        }
+
+        if (oldVersion < 8) {
+            upgradeToVersion8(sqLiteDatabase);
+        }
+
+        if (oldVersion < 9) {
+            upgradeToVersion9(sqLiteDatabase);
+        }
+
+        if (oldVersion < 10) {
+            upgradeToVersion10(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Creates the table of the locations Sunshine has fetched weather for. WeatherProvider looks
+     * a location up by its setting whenever the user switches locations, so the setting is
+     * UNIQUE, which gives it an index of its own. A location's weather is found through the
+     * weather table's primary key, which starts with the location.
+     * <p>
+     * The _ID is AUTOINCREMENT, so that sqlite_sequence remembers the largest _ID the table has
+     * ever held and a deleted location's _ID, which caches and other apps may still hold, is
+     * never given to another location. Its sequence starts at -1, so that the first location
+     * WeatherProvider adds gets _ID 0, see WeatherProvider#SQL_INSERT_LOCATION.
+     *
+     * @param db The database to create the table in
+     */
+    private static void createLocationTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL UNIQUE, " +
+                LocationEntry.COLUMN_COORD_LAT        + " REAL, " +
+                LocationEntry.COLUMN_COORD_LONG       + " REAL, " +
+                LocationEntry.COLUMN_LAST_SYNC        + " INTEGER NOT NULL DEFAULT 0);");
+
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES ('" +
+                LocationEntry.TABLE_NAME + "', -1);");
+    }
+
+    /**
+     * Creates the view the weather table is read through. It returns the weather in the units of
+     * WeatherEntry's columns, and the stored date as the _ID: it is unique within a location,
+     * and a row keeps the same _ID every time it is re-synced, which is what CursorAdapters and
+     * RecyclerView's stable IDs expect from it. A query of the view that compares the _ID rather
+     * than the date compares the stored date directly, and so can use the primary key.
+     *
+     * @param db The database to create the view in
+     */
+    private static void createWeatherView(SQLiteDatabase db) {
+        db.execSQL("CREATE VIEW " + WeatherEntry.VIEW_NAME + " AS SELECT " +
+                WeatherEncoding.getDecodedColumns() +
+                " FROM " + WeatherEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Creates the view the archive is read through, which returns it in the same units and with
+     * the same _ID as the weather view.
+     *
+     * @param db The database to create the view in
+     */
+    private static void createArchiveView(SQLiteDatabase db) {
+        db.execSQL("CREATE VIEW " + ArchiveEntry.VIEW_NAME + " AS SELECT " +
+                WeatherEncoding.getDecodedArchiveColumns() +
+                " FROM " + ArchiveEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Version 4 replaced the AUTOINCREMENT _ID and UNIQUE date constraint with a WITHOUT ROWID
+     * table keyed by (location, date). Existing rows all belong to the preferred location.
+     *
+     * @param db Database that is being upgraded
+     */
+    private static void upgradeToVersion4(SQLiteDatabase db) {
+        final String newTable = WeatherEntry.TABLE_NAME + "_v4";
+
+        db.execSQL("CREATE TABLE " + newTable + " (" +
+                WeatherEntry._ID                + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                WeatherEntry.COLUMN_DATE        + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP    + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP    + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY    + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE    + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED  + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES     + " REAL NOT NULL, " +
+                " PRIMARY KEY (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)" +
+                " WITHOUT ROWID;");
+
+        final String copiedColumns =
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES;
+
+        db.execSQL("INSERT INTO " + newTable + " (" +
+                WeatherEntry._ID + ", " + WeatherEntry.COLUMN_LOCATION_ID + ", " + copiedColumns +
+                ") SELECT " +
+                WeatherEntry.COLUMN_DATE + " / " + SunshineDateUtils.DAY_IN_MILLIS + ", 0, " +
+                copiedColumns +
+                " FROM " + WeatherEntry.TABLE_NAME + ";");
+
+        db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + WeatherEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Version 5 added the weather archive.
+     *
+     * @param db Database that is being upgraded
+     */
+    private static void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID                + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                ArchiveEntry.COLUMN_MONTH       + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DATE        + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DAYS        + " INTEGER NOT NULL DEFAULT 1, " +
+                ArchiveEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_MIN_TEMP    + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MAX_TEMP    + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_HUMIDITY    + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_PRESSURE    + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_WIND_SPEED  + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_DEGREES     + " REAL NOT NULL, " +
+                " PRIMARY KEY (" + ArchiveEntry.COLUMN_LOCATION_ID + ", "
+                        + ArchiveEntry.COLUMN_MONTH + ", "
+                        + ArchiveEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)" +
+                " WITHOUT ROWID;");
+    }
+
+    /**
+     * Version 6 stores the weather table's dates as days since the epoch and its measurements as
+     * hundredths, all as integers, and reads it through a view. The _ID column is dropped, as the
+     * view derives it from the date.
+     *
+     * @param db Database that is being upgraded
+     */
+    private static void upgradeToVersion6(SQLiteDatabase db) {
+        final String newTable = WeatherEntry.TABLE_NAME + "_v6";
+
+        db.execSQL("CREATE TABLE " + newTable + " (" +
+                WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                WeatherEntry.COLUMN_DATE        + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP    + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP    + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY    + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE    + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED  + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES     + " INTEGER NOT NULL, " +
+                " PRIMARY KEY (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)" +
+                " WITHOUT ROWID;");
+
+        db.execSQL("INSERT INTO " + newTable + " SELECT " +
+                WeatherEntry.COLUMN_LOCATION_ID + ", " +
+                WeatherEntry.COLUMN_DATE + " / " + SunshineDateUtils.DAY_IN_MILLIS + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                "CAST(ROUND(" + WeatherEntry.COLUMN_MIN_TEMP + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + WeatherEntry.COLUMN_MAX_TEMP + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + WeatherEntry.COLUMN_HUMIDITY + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + WeatherEntry.COLUMN_PRESSURE + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + WeatherEntry.COLUMN_WIND_SPEED + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + WeatherEntry.COLUMN_DEGREES + " * 100) AS INTEGER)" +
+                " FROM " + WeatherEntry.TABLE_NAME + ";");
+
+        db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + WeatherEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE VIEW " + WeatherEntry.VIEW_NAME + " AS SELECT " +
+                WeatherEntry.COLUMN_DATE + " AS " + WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOCATION_ID + ", " +
+                WeatherEntry.COLUMN_DATE + " * " + SunshineDateUtils.DAY_IN_MILLIS + " AS " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + " / 100.0 AS " +
+                        WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + " / 100.0 AS " +
+                        WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_HUMIDITY + " / 100.0 AS " +
+                        WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + " / 100.0 AS " +
+                        WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherEntry.COLUMN_WIND_SPEED + " / 100.0 AS " +
+                        WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES + " / 100.0 AS " +
+                        WeatherEntry.COLUMN_DEGREES +
+                " FROM " + WeatherEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Version 7 added the location table. The weather stored so far all belongs to location 0,
+     * which becomes the user's preferred location, so that its forecast is still shown after the
+     * upgrade.
+     *
+     * @param db Database that is being upgraded
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        createLocationTable(db);
+
+        ContentValues preferredLocation = new ContentValues();
+        preferredLocation.put(LocationEntry._ID, 0);
+        preferredLocation.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                SunshinePreferences.getPreferredWeatherLocation(mContext));
+        if (SunshinePreferences.isLocationLatLonAvailable(mContext)) {
+            double[] coordinates = SunshinePreferences.getLocationCoordinates(mContext);
+            preferredLocation.put(LocationEntry.COLUMN_COORD_LAT, coordinates[0]);
+            preferredLocation.put(LocationEntry.COLUMN_COORD_LONG, coordinates[1]);
+        }
+        db.insert(LocationEntry.TABLE_NAME, null, preferredLocation);
+    }
+
+    /**
+     * Version 8 stores the archive the way version 6 stores the weather table: dates as days since
+     * the epoch and measurements as hundredths, all as integers, read through a view. Its _ID
+     * column is dropped, as it was always the date in days.
+     *
+     * @param db Database that is being upgraded
+     */
+    private static void upgradeToVersion8(SQLiteDatabase db) {
+        final String newTable = ArchiveEntry.TABLE_NAME + "_v8";
+
+        db.execSQL("CREATE TABLE " + newTable + " (" +
+                ArchiveEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                ArchiveEntry.COLUMN_MONTH       + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DATE        + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DAYS        + " INTEGER NOT NULL DEFAULT 1, " +
+                ArchiveEntry.COLUMN_WEATHER_ID  + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_MIN_TEMP    + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_MAX_TEMP    + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_HUMIDITY    + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_PRESSURE    + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_WIND_SPEED  + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DEGREES     + " INTEGER NOT NULL, " +
+                " PRIMARY KEY (" + ArchiveEntry.COLUMN_LOCATION_ID + ", "
+                        + ArchiveEntry.COLUMN_MONTH + ", "
+                        + ArchiveEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)" +
+                " WITHOUT ROWID;");
+
+        db.execSQL("INSERT INTO " + newTable + " SELECT " +
+                ArchiveEntry.COLUMN_LOCATION_ID + ", " +
+                ArchiveEntry.COLUMN_MONTH + ", " +
+                ArchiveEntry.COLUMN_DATE + " / " + SunshineDateUtils.DAY_IN_MILLIS + ", " +
+                ArchiveEntry.COLUMN_DAYS + ", " +
+                ArchiveEntry.COLUMN_WEATHER_ID + ", " +
+                "CAST(ROUND(" + ArchiveEntry.COLUMN_MIN_TEMP + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + ArchiveEntry.COLUMN_MAX_TEMP + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + ArchiveEntry.COLUMN_HUMIDITY + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + ArchiveEntry.COLUMN_PRESSURE + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + ArchiveEntry.COLUMN_WIND_SPEED + " * 100) AS INTEGER), " +
+                "CAST(ROUND(" + ArchiveEntry.COLUMN_DEGREES + " * 100) AS INTEGER)" +
+                " FROM " + ArchiveEntry.TABLE_NAME + ";");
+
+        db.execSQL("DROP TABLE " + ArchiveEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + ArchiveEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE VIEW " + ArchiveEntry.VIEW_NAME + " AS SELECT " +
+                ArchiveEntry.COLUMN_DATE + " AS " + ArchiveEntry._ID + ", " +
+                ArchiveEntry.COLUMN_LOCATION_ID + ", " +
+                ArchiveEntry.COLUMN_MONTH + ", " +
+                ArchiveEntry.COLUMN_DATE + " * " + SunshineDateUtils.DAY_IN_MILLIS + " AS " +
+                ArchiveEntry.COLUMN_DATE + ", " +
+                ArchiveEntry.COLUMN_DAYS + ", " +
+                ArchiveEntry.COLUMN_WEATHER_ID + ", " +
+                ArchiveEntry.COLUMN_MIN_TEMP + " / 100.0 AS " +
+                        ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+                ArchiveEntry.COLUMN_MAX_TEMP + " / 100.0 AS " +
+                        ArchiveEntry.COLUMN_MAX_TEMP + ", " +
+                ArchiveEntry.COLUMN_HUMIDITY + " / 100.0 AS " +
+                        ArchiveEntry.COLUMN_HUMIDITY + ", " +
+                ArchiveEntry.COLUMN_PRESSURE + " / 100.0 AS " +
+                        ArchiveEntry.COLUMN_PRESSURE + ", " +
+                ArchiveEntry.COLUMN_WIND_SPEED + " / 100.0 AS " +
+                        ArchiveEntry.COLUMN_WIND_SPEED + ", " +
+                ArchiveEntry.COLUMN_DEGREES + " / 100.0 AS " +
+                        ArchiveEntry.COLUMN_DEGREES +
+                " FROM " + ArchiveEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * Version 9 stores the span of dates each archive row covers apart from the number of days
+     * it summarizes. The days a compacted row was merged from are gone, so its span is taken to
+     * reach the end of the group of DAYS_PER_COMPACTED_ROW days it was merged within: a range
+     * query may then return a row whose last days were missing, but never misses one.
+     *
+     * @param db Database that is being upgraded
+     */
+    private static void upgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + ArchiveEntry.TABLE_NAME + " ADD COLUMN " +
+                ArchiveEntry.COLUMN_SPAN + " INTEGER NOT NULL DEFAULT 1;");
+
+        db.execSQL("UPDATE " + ArchiveEntry.TABLE_NAME + " SET " + ArchiveEntry.COLUMN_SPAN +
+                " = (" + ArchiveEntry.COLUMN_DATE + " / " + WeatherArchive.DAYS_PER_COMPACTED_ROW +
+                " + 1) * " + WeatherArchive.DAYS_PER_COMPACTED_ROW + " - " +
+                ArchiveEntry.COLUMN_DATE +
+                " WHERE " + ArchiveEntry.COLUMN_DAYS + " > 1;");
+
+        db.execSQL("DROP VIEW " + ArchiveEntry.VIEW_NAME + ";");
+        createArchiveView(db);
+    }
+
+    /**
+     * Version 10 makes the location table's _ID AUTOINCREMENT, so that the _ID of a deleted
+     * location is never given to another one. Copying the locations into the new table sets its
+     * sequence to their largest _ID.
+     *
+     * @param db Database that is being upgraded
+     */
+    private static void upgradeToVersion10(SQLiteDatabase db) {
+        final String oldTable = LocationEntry.TABLE_NAME + "_v9";
+
+        db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " RENAME TO " + oldTable + ";");
+        createLocationTable(db);
+
+        db.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME + " SELECT * FROM " + oldTable +
+                ";");
+        db.execSQL("DROP TABLE " + oldTable + ";");
     }
 }
\ No newline at end of file
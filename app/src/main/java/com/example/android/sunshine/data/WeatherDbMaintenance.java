@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.MaintenanceEntry;
+
+import java.io.File;
+
+/**
+ * Keeps the weather database file healthy on devices that run Sunshine for years. Every sync
+ * deletes and archives rows, and compaction rewrites whole months of history, which leaves free
+ * pages scattered through the file and the statistics SQLite plans queries with out of date.
+ * WeatherProvider runs this maintenance for its callers, which schedule it for when the device is
+ * idle and charging.
+ * <p>
+ * Free pages are returned with incremental vacuum, which only moves the pages at the end of the
+ * file, rather than a full VACUUM, which rewrites all of it. Incremental vacuum needs the
+ * database to be in incremental auto_vacuum mode, which takes one full VACUUM to switch to; the
+ * first maintenance of a database does that.
+ */
+final class WeatherDbMaintenance {
+
+    private static final String TAG = WeatherDbMaintenance.class.getSimpleName();
+
+    /* PRAGMA auto_vacuum's value for incremental mode */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    private WeatherDbMaintenance() {
+    }
+
+    /**
+     * Checks the integrity of the database, returns its free pages to the file system, refreshes
+     * its statistics and checkpoints its write-ahead log. A database that fails the integrity
+     * check is only checkpointed, as rewriting its pages could lose more of it.
+     *
+     * @param db           The weather database, which mustn't be in a transaction
+     * @param databaseFile The file of the database
+     * @return The report described by {@link MaintenanceEntry#METHOD_RUN_MAINTENANCE}
+     */
+    static Bundle run(SQLiteDatabase db, File databaseFile) {
+        final long startMillis = SystemClock.elapsedRealtime();
+
+        Bundle report = new Bundle();
+        report.putLong(MaintenanceEntry.EXTRA_FILE_BYTES_BEFORE, getFileBytes(databaseFile));
+        report.putLong(MaintenanceEntry.EXTRA_PAGE_COUNT_BEFORE,
+                longForPragma(db, "page_count"));
+        report.putLong(MaintenanceEntry.EXTRA_FREE_PAGE_COUNT_BEFORE,
+                longForPragma(db, "freelist_count"));
+
+        boolean integrityOk = db.isDatabaseIntegrityOk();
+        report.putBoolean(MaintenanceEntry.EXTRA_INTEGRITY_OK, integrityOk);
+
+        if (integrityOk) {
+            vacuum(db);
+
+            /*
+             * ANALYZE is cheap for tables this small. PRAGMA optimize would skip tables whose
+             * statistics are still fresh, but needs a newer SQLite than API 23 ships.
+             */
+            db.execSQL("ANALYZE");
+        } else {
+            Log.e(TAG, "The weather database failed its integrity check");
+        }
+
+        /*
+         * Vacuuming and analyzing wrote to the log. Copy it back into the database file now and
+         * truncate it, rather than leaving it at its size limit until the next sync.
+         */
+        if (DatabaseUtils.longForQuery(db, "PRAGMA wal_checkpoint(TRUNCATE)", null) != 0) {
+            Log.w(TAG, "A reader kept the write-ahead log from being checkpointed");
+        }
+
+        report.putLong(MaintenanceEntry.EXTRA_FILE_BYTES_AFTER, getFileBytes(databaseFile));
+        report.putLong(MaintenanceEntry.EXTRA_PAGE_COUNT_AFTER,
+                longForPragma(db, "page_count"));
+        report.putLong(MaintenanceEntry.EXTRA_FREE_PAGE_COUNT_AFTER,
+                longForPragma(db, "freelist_count"));
+
+        Log.i(TAG, "Maintenance took " + (SystemClock.elapsedRealtime() - startMillis)
+                + "ms, integrity " + (integrityOk ? "ok" : "FAILED")
+                + ", file " + report.getLong(MaintenanceEntry.EXTRA_FILE_BYTES_BEFORE)
+                + " -> " + report.getLong(MaintenanceEntry.EXTRA_FILE_BYTES_AFTER) + " bytes"
+                + ", pages " + report.getLong(MaintenanceEntry.EXTRA_PAGE_COUNT_BEFORE)
+                + " -> " + report.getLong(MaintenanceEntry.EXTRA_PAGE_COUNT_AFTER)
+                + ", free pages " + report.getLong(MaintenanceEntry.EXTRA_FREE_PAGE_COUNT_BEFORE)
+                + " -> " + report.getLong(MaintenanceEntry.EXTRA_FREE_PAGE_COUNT_AFTER));
+        return report;
+    }
+
+    /* Returns every free page to the file system, switching to incremental mode if need be */
+    private static void vacuum(SQLiteDatabase db) {
+        if (longForPragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+            /*
+             * incremental_vacuum frees pages as it is stepped through, and execSQL only steps a
+             * statement once, so it runs as a query that is read to the end.
+             */
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        } else {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+    }
+
+    private static long longForPragma(SQLiteDatabase db, String pragma) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA " + pragma, null);
+    }
+
+    /* The size of the database file together with its write-ahead log */
+    private static long getFileBytes(File databaseFile) {
+        return databaseFile.length() + new File(databaseFile.getPath() + "-wal").length();
+    }
+}
\ No newline at end of file
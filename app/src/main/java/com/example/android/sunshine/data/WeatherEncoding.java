@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+/**
+ * Converts weather between the units of {@link WeatherEntry}'s columns and the compact integers
+ * the weather table and the archive store them as:
+ * <ul>
+ * <li>Dates are stored as days since the epoch rather than milliseconds. A stored date can't be
+ * anything but normalized, and fits in two bytes instead of six.</li>
+ * <li>Temperatures, humidity, pressure, wind speed and wind direction are stored in hundredths
+ * of the units WeatherEntry documents for them, such as 0.01 °C. SQLite stores most of them in
+ * two or three bytes instead of the eight of a REAL, and compares them as integers.</li>
+ * </ul>
+ * Values are rounded to the nearest hundredth when they are stored. The weather is only ever
+ * read through {@link WeatherEntry#VIEW_NAME} and {@link ArchiveEntry#VIEW_NAME}, which convert
+ * it back, so callers of WeatherProvider never see the stored units.
+ */
+final class WeatherEncoding {
+
+    /* Metrics are stored as this many times their value */
+    static final int METRIC_SCALE = 100;
+
+    /* The columns stored in hundredths */
+    static final String[] METRIC_COLUMNS = {
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES};
+
+    private WeatherEncoding() {
+    }
+
+    /**
+     * @param normalizedUtcDate A normalized UTC date, in milliseconds
+     * @return The stored form of the date, its number of days since the epoch
+     */
+    static long encodeDate(long normalizedUtcDate) {
+        return normalizedUtcDate / SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * @param utcMillis A UTC time, in milliseconds
+     * @return The stored form of the first date at or after that time
+     */
+    static long encodeFirstDateFrom(long utcMillis) {
+        return (utcMillis + SunshineDateUtils.DAY_IN_MILLIS - 1) / SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * @param metric A temperature, humidity, pressure, wind speed or direction
+     * @return The stored form of the metric, in hundredths of its unit
+     */
+    static long encodeMetric(double metric) {
+        return Math.round(metric * METRIC_SCALE);
+    }
+
+    /**
+     * Converts a row of weather in the units of WeatherEntry's columns into the weather table's
+     * units. The _ID is derived from the date, so it isn't stored and is left out.
+     *
+     * @param values The columns to convert; the columns that are left out stay left out
+     * @return A new set of values for the weather table
+     */
+    static ContentValues encode(ContentValues values) {
+        ContentValues encoded = new ContentValues(values);
+        encoded.remove(WeatherEntry._ID);
+
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (date != null) {
+            encoded.put(WeatherEntry.COLUMN_DATE, encodeDate(date));
+        }
+
+        for (String column : METRIC_COLUMNS) {
+            Double metric = values.getAsDouble(column);
+            if (metric != null) {
+                encoded.put(column, encodeMetric(metric));
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * @return The columns of {@link WeatherEntry#VIEW_NAME}, which read the weather table back
+     * in the units of WeatherEntry's columns. The _ID is the stored date itself.
+     */
+    static String getDecodedColumns() {
+        return getDecodedColumns(WeatherEntry.COLUMN_LOCATION_ID);
+    }
+
+    /**
+     * @return The columns of {@link ArchiveEntry#VIEW_NAME}, which read the archive back in the
+     * same units, along with the month, the number of days and the span of each row
+     */
+    static String getDecodedArchiveColumns() {
+        return getDecodedColumns(ArchiveEntry.COLUMN_LOCATION_ID, ArchiveEntry.COLUMN_MONTH,
+                ArchiveEntry.COLUMN_DAYS, ArchiveEntry.COLUMN_SPAN);
+    }
+
+    /* The stored date as the _ID, then the columns read as they are stored, then the weather */
+    private static String getDecodedColumns(String... storedColumns) {
+        StringBuilder columns = new StringBuilder()
+                .append(WeatherEntry.COLUMN_DATE).append(" AS ").append(WeatherEntry._ID);
+        for (String column : storedColumns) {
+            columns.append(", ").append(column);
+        }
+        columns.append(", ").append(WeatherEntry.COLUMN_DATE).append(" * ")
+                .append(SunshineDateUtils.DAY_IN_MILLIS)
+                .append(" AS ").append(WeatherEntry.COLUMN_DATE)
+                .append(", ").append(WeatherEntry.COLUMN_WEATHER_ID);
+        for (String column : METRIC_COLUMNS) {
+            columns.append(", ").append(column).append(" / ").append(METRIC_SCALE).append(".0")
+                    .append(" AS ").append(column);
+        }
+        return columns.toString();
+    }
+}
\ No newline at end of file
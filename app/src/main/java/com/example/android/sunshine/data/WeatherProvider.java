@@ -17,24 +17,61 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.Pair;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * insert (one row at a time or in bulk), update, query and delete data, and to apply a batch of
+ * those operations in a single transaction. It also serves the archive of past weather, which
+ * is maintained through {@link #call(String, String, Bundle)}. Queries of the forecast and of a
+ * single date are answered from an in-memory copy of the weather table, see
+ * {@link WeatherReplica}, or from memory when that date was read recently, see
+ * {@link WeatherRowCache}. Results of up to {@link CompactCursor#MAX_ROWS} rows are returned
+ * as CompactCursors, so that the cursors loaders hold on to don't each keep a CursorWindow.
+ * <p>
+ * The weather table stores dates and measurements as compact integers, see
+ * {@link WeatherEncoding}. Weather is read through {@link WeatherContract.WeatherEntry#VIEW_NAME},
+ * which converts it back, so the columns callers select and sort by keep their units. The
+ * provider's own predicates compare the view's _ID, which is the stored date, so that SQLite can
+ * still seek along the weather table's primary key.
  * <p>
- * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * Getting the type of the data from a URI isn't implemented, for the sake of brevity and
+ * simplicity.
+ * <p>
+ * Sunshine keeps the weather of every location it has fetched, see
+ * {@link WeatherContract.LocationEntry}. Weather URIs scoped to a location address that
+ * location's weather; the others address the preferred location's, which is looked up by its
+ * setting in the location table, and added to it if it isn't there yet.
  */
 public class WeatherProvider extends ContentProvider {
 
@@ -45,6 +82,15 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_STATS = 102;
+    public static final int CODE_WEATHER_FROM_DATE = 103;
+    public static final int CODE_WEATHER_WITH_DATE_RANGE = 104;
+    public static final int CODE_ARCHIVE = 200;
+    public static final int CODE_ARCHIVE_WITH_DATE_RANGE = 201;
+    public static final int CODE_ARCHIVE_STATS = 202;
+    public static final int CODE_PROFILE = 300;
+    public static final int CODE_LOCATION = 400;
+    public static final int CODE_LOCATION_WITH_ID = 401;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -52,8 +98,163 @@ public class WeatherProvider extends ContentProvider {
      * common convention in Android programming.
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    private static final String TAG = WeatherProvider.class.getSimpleName();
+
+    /*
+     * Adds a location under the _ID after the largest the location table has ever held, which
+     * its AUTOINCREMENT sequence remembers, so that a deleted location's _ID is never reused.
+     * AUTOINCREMENT itself would start at 1, so the _ID is given explicitly: IDs start at 0, the
+     * location the weather stored before there was a location table belongs to.
+     */
+    private static final String SQL_INSERT_LOCATION =
+            "INSERT INTO " + WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                    WeatherContract.LocationEntry._ID + ", " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ") VALUES ((" +
+                    "SELECT seq + 1 FROM sqlite_sequence WHERE name = '" +
+                    WeatherContract.LocationEntry.TABLE_NAME + "'), ?)";
+
+    /*
+     * The _ID a preferred location that isn't tracked yet resolves to. No weather belongs to it,
+     * so queries of such a location return no rows.
+     */
+    private static final long UNTRACKED_LOCATION_ID = -1;
+
+    /* Selects a location's weather, by the column the weather table's primary key starts with */
+    private static final String WEATHER_LOCATION_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    /*
+     * Selects a location's weather of a single date, in the weather table itself rather than its
+     * view, so that updates and deletes seek straight to the row along the primary key. Its
+     * arguments are the location and the date as stored, see getDateSelectionArgs.
+     */
+    private static final String STORED_DATE_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    /* Selects a location's weather of a single date in the weather view, like the above */
+    private static final String WEATHER_DATE_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND " +
+            WeatherContract.WeatherEntry._ID + " = ?";
+
+    /*
+     * The aggregates returned by the statistics URIs of the weather table and of the archive.
+     * Archived rows may cover several days each, so the archive's averages are weighted by the
+     * number of days of each row.
+     */
+    private static final Map<String, String> sWeatherStatsProjectionMap =
+            buildStatsProjectionMap(null);
+    private static final Map<String, String> sArchiveStatsProjectionMap =
+            buildStatsProjectionMap(WeatherContract.ArchiveEntry.COLUMN_DAYS);
+
+    /*
+     * The INSERT used by bulkInsert. Its arguments are bound by position, in the order the
+     * columns are listed here, and in the units the weather table stores. Conflicting rows are
+     * replaced by the table's ON CONFLICT REPLACE.
+     */
+    private static final String SQL_INSERT_WEATHER =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /*
+     * Selects a location's weather between two dates, both included. Its arguments are the
+     * location, then the dates as stored, see getDayArgs. The weather table's primary key is
+     * (location, date), so SQLite seeks straight to the first day of the range.
+     */
+    private static final String WEATHER_RANGE_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND " +
+            WeatherContract.WeatherEntry._ID + " BETWEEN ? AND ?";
+
+    /* Selects a location's weather from a date onwards, like WEATHER_RANGE_SELECTION */
+    private static final String WEATHER_FROM_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND " +
+            WeatherContract.WeatherEntry._ID + " >= ?";
+
+    /*
+     * Appended to the queries of the from and range URIs. The limit and offset are bound rather
+     * than written into the SQL, so that the SQL of a query doesn't change from page to page. A
+     * negative limit means no limit.
+     */
+    private static final String SQL_LIMIT_OFFSET = " LIMIT ? OFFSET ?";
+
+    /*
+     * Selects the archived weather of a location that overlaps a range of dates in the archive
+     * view, see getArchiveRangeSelectionArgs. Like the weather view, the archive view's _ID is
+     * the stored date, in days. The archive's primary key is (location, month, date), so bounding
+     * the months as well as the dates lets SQLite seek straight to the first month of the range
+     * instead of scanning the archive from its first row.
+     */
+    private static final String ARCHIVE_RANGE_SELECTION =
+            WeatherContract.ArchiveEntry.COLUMN_LOCATION_ID + " = ? AND " +
+            WeatherContract.ArchiveEntry.COLUMN_MONTH + " BETWEEN ? AND ? AND " +
+            WeatherContract.ArchiveEntry._ID + " BETWEEN ? AND ? AND " +
+            WeatherContract.ArchiveEntry._ID + " + " +
+            WeatherContract.ArchiveEntry.COLUMN_SPAN + " > ?";
+
+    /*
+     * applyBatch yields the database to other writers at most this often, so that a long batch
+     * doesn't hold the write lock for its whole duration.
+     */
+    private static final int MAX_OPERATIONS_PER_YIELD_POINT = 500;
+
+    /* About as many queries as run at once: the loaders, a sync and the widget or watch */
+    private static final int MAX_SPARE_WINDOWS = 4;
+
+    /*
+     * Incremented once a write of the preferred location's weather, or of the tracked locations,
+     * has committed, before any observer is notified. ForecastRepository lives in the same
+     * process and reads it before it loads, so that a caller that has just written, such as a
+     * sync about to notify the user, never reads the forecast from before its write.
+     */
+    private static final AtomicLong sForecastGeneration = new AtomicLong();
+
     private WeatherDbHelper mOpenHelper;
 
+    /*
+     * Set while the current thread is applying a batch. Writes made as part of a batch don't
+     * notify observers themselves; instead, they add the dates they changed, by location, so
+     * that applyBatch notifies each of them once for the whole batch once it has committed.
+     */
+    private final ThreadLocal<Map<Long, Set<Long>>> mBatchChangedDates = new ThreadLocal<>();
+
+    /*
+     * The preferred location's setting and _ID, as last looked up. Weather URIs that aren't
+     * scoped to a location are resolved to this _ID for as long as the setting stays the same.
+     */
+    private volatile Pair<String, Long> mPreferredLocation;
+
+    /*
+     * The weather of recently queried dates. Every write below invalidates the dates it may have
+     * changed once it is committed, so that the cache never outlives the rows it copies.
+     */
+    private final WeatherRowCache mRowCache = new WeatherRowCache();
+
+    /*
+     * A copy of the whole weather table, in builds that replicate it. Every write of a single day
+     * below reads that day back into it just before committing, and publishes it once committed.
+     * Writes of more than a day drop it once committed instead.
+     */
+    private final WeatherReplica mReplica = new WeatherReplica();
+
+    /*
+     * CursorWindows that SQLite fills small results into, see compactSmallResult. Each is used by
+     * one query at a time, and at most MAX_SPARE_WINDOWS of them are kept between queries.
+     */
+    private final ArrayDeque<CursorWindow> mSpareWindows = new ArrayDeque<>();
+
+    /* Times every query and write in builds that profile the provider, see ProfileEntry */
+    private final WeatherProviderProfiler mProfiler = new WeatherProviderProfiler();
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -86,15 +287,60 @@ public class WeatherProvider extends ContentProvider {
          * they aren't going to change. In Sunshine, we use CODE_WEATHER or CODE_WEATHER_WITH_DATE.
          */
 
-        /* This URI is content://com.example.android.sunshine/weather/ */
-        matcher.addURI(authority, WeatherContract.PATH_WEATHER, CODE_WEATHER);
+        /*
+         * Every weather URI can also be scoped to a location, such as
+         * content://com.example.android.sunshine/location/2/weather/, and matches the same code
+         * either way. See getLocationId.
+         */
+        String[] weatherPaths = {
+                WeatherContract.PATH_WEATHER,
+                WeatherContract.PATH_LOCATION + "/#/" + WeatherContract.PATH_WEATHER};
+        for (String weatherPath : weatherPaths) {
+
+            /* This URI is content://com.example.android.sunshine/weather/ */
+            matcher.addURI(authority, weatherPath, CODE_WEATHER);
+
+            /*
+             * This URI would look something like content://com.example.android.sunshine/weather/1472214172
+             * The "/#" signifies to the UriMatcher that if PATH_WEATHER is followed by ANY number,
+             * that it should return the CODE_WEATHER_WITH_DATE code
+             */
+            matcher.addURI(authority, weatherPath + "/#", CODE_WEATHER_WITH_DATE);
+
+            /*
+             * content://com.example.android.sunshine/weather/from/<date> and
+             * content://com.example.android.sunshine/weather/range/<from date>/<to date>
+             */
+            matcher.addURI(authority, weatherPath + "/" + WeatherContract.PATH_FROM + "/#",
+                    CODE_WEATHER_FROM_DATE);
+            matcher.addURI(authority, weatherPath + "/" + WeatherContract.PATH_RANGE + "/#/#",
+                    CODE_WEATHER_WITH_DATE_RANGE);
+
+            /* content://com.example.android.sunshine/weather/stats?from=<from date>&to=<to date> */
+            matcher.addURI(authority, weatherPath + "/" + WeatherContract.PATH_STATS,
+                    CODE_WEATHER_STATS);
+        }
 
         /*
-         * This URI would look something like content://com.example.android.sunshine/weather/1472214172
-         * The "/#" signifies to the UriMatcher that if PATH_WEATHER is followed by ANY number,
-         * that it should return the CODE_WEATHER_WITH_DATE code
+         * content://com.example.android.sunshine/archive/ and /archive/<from date>/<to date>,
+         * which can be scoped to a location like the weather URIs above
          */
-        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
+        String[] archivePaths = {
+                WeatherContract.PATH_ARCHIVE,
+                WeatherContract.PATH_LOCATION + "/#/" + WeatherContract.PATH_ARCHIVE};
+        for (String archivePath : archivePaths) {
+            matcher.addURI(authority, archivePath, CODE_ARCHIVE);
+            matcher.addURI(authority, archivePath + "/#/#", CODE_ARCHIVE_WITH_DATE_RANGE);
+            matcher.addURI(authority, archivePath + "/" + WeatherContract.PATH_STATS,
+                    CODE_ARCHIVE_STATS);
+        }
+
+        /* content://com.example.android.sunshine/profile/ */
+        matcher.addURI(authority, WeatherContract.PATH_PROFILE, CODE_PROFILE);
+
+        /* content://com.example.android.sunshine/location/ and /location/<location ID> */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#", CODE_LOCATION_WITH_ID);
 
         return matcher;
     }
@@ -126,11 +372,9 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * Handles requests to insert a set of new rows. In Sunshine, we are only going to be
-     * inserting multiple rows of data at a time from a weather forecast. There is no use case
-     * for inserting a single row of data into our ContentProvider, and so we are only going to
-     * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
-     * to provide proper functionality for the insert method as well.
+     * Handles requests to insert a set of new rows, such as a whole weather forecast at once. Use
+     * {@link #insert(Uri, ContentValues)} or {@link #update(Uri, ContentValues, String, String[])}
+     * to change a single day instead.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
@@ -140,35 +384,54 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final long startNanos = mProfiler.begin();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
 
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
+                /*
+                 * Validate the whole batch before we start writing, so a bad date at the end of
+                 * a large ingest fails fast instead of rolling back everything written before it.
+                 */
+                long locationId = getLocationIdForInsert(uri);
+                long[] weatherDates = getNormalizedDates(values, locationId);
+                Map<Long, Set<Long>> changedDates = newChanges(locationId, weatherDates);
+
+                /*
+                 * SQLiteDatabase#insert builds, compiles and binds a new INSERT from each row's
+                 * ContentValues. Every row we insert has the same columns, so we compile the
+                 * statement once and only rebind its arguments for each row.
+                 */
+                SQLiteStatement insertWeather = db.compileStatement(SQL_INSERT_WEATHER);
+
+                /*
+                 * A non-exclusive transaction still keeps other writers out, but makes it clear
+                 * that readers are welcome: with write-ahead logging they keep reading the last
+                 * committed weather until we commit.
+                 */
+                db.beginTransactionNonExclusive();
                 int rowsInserted = 0;
                 try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                    for (int i = 0; i < values.length; i++) {
+                        if (insertWeather(insertWeather, locationId, values[i],
+                                weatherDates[i])) {
                             rowsInserted++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
+                    insertWeather.close();
+                    invalidateRowCache(changedDates);
+                    mReplica.invalidate();
                 }
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyWeatherChanged(changedDates);
                 }
 
+                mProfiler.endWrite("bulkInsert", uri, null, rowsInserted, startNanos);
                 return rowsInserted;
 
             default:
@@ -176,6 +439,86 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Reads and validates the date of every row in a batch of weather, in a single pass.
+     *
+     * @param values     The rows of weather about to be inserted
+     * @param locationId The location of the URI the rows are inserted at
+     * @return The date of each row, in the same order as the rows
+     * @throws IllegalArgumentException If any row is missing its date, its date isn't normalized
+     *                                  or it names a location other than the URI's
+     */
+    private static long[] getNormalizedDates(ContentValues[] values, long locationId) {
+        long[] weatherDates = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Long weatherDate = values[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (weatherDate == null || !SunshineDateUtils.isDateNormalized(weatherDate)) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+            Long rowLocationId =
+                    values[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+            if (rowLocationId != null && rowLocationId != locationId) {
+                throw new IllegalArgumentException("Weather of location " + rowLocationId
+                        + " can't be inserted for location " + locationId);
+            }
+            weatherDates[i] = weatherDate;
+        }
+        return weatherDates;
+    }
+
+    /**
+     * Binds one row of weather to the compiled {@link #SQL_INSERT_WEATHER} statement and
+     * executes it. Like SQLiteDatabase#insert, a row that violates a constraint is skipped rather
+     * than failing the whole batch.
+     *
+     * @param insertWeather The compiled insert statement
+     * @param locationId    The location of the URI the row is inserted at
+     * @param value         The row of weather to insert
+     * @param weatherDate   The row's already validated date
+     * @return true if the row was inserted, false otherwise
+     */
+    private static boolean insertWeather(SQLiteStatement insertWeather, long locationId,
+                                         ContentValues value, long weatherDate) {
+        /* The _ID is the stored date itself, so it isn't bound */
+        insertWeather.bindLong(1, locationId);
+        insertWeather.bindLong(2, WeatherEncoding.encodeDate(weatherDate));
+        bindLong(insertWeather, 3,
+                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        for (int i = 0; i < WeatherEncoding.METRIC_COLUMNS.length; i++) {
+            bindMetric(insertWeather, 4 + i,
+                    value.getAsDouble(WeatherEncoding.METRIC_COLUMNS[i]));
+        }
+
+        try {
+            /*
+             * Inserting into a WITHOUT ROWID table doesn't produce a rowid, so the value returned
+             * here isn't meaningful beyond -1 signalling a failure.
+             */
+            return insertWeather.executeInsert() != -1;
+        } catch (SQLiteConstraintException e) {
+            Log.e(TAG, "Error inserting weather for " + weatherDate, e);
+            return false;
+        }
+    }
+
+    /* Binds a value, leaving missing values null so that the NOT NULL constraints reject them */
+    private static void bindLong(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    /* Binds the stored form of a metric, leaving missing values null like bindLong */
+    private static void bindMetric(SQLiteStatement statement, int index, Double value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, WeatherEncoding.encodeMetric(value));
+        }
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -195,13 +538,15 @@ public class WeatherProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
 
+        final long startNanos = mProfiler.begin();
         Cursor cursor;
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
          */
-        switch (sUriMatcher.match(uri)) {
+        int match = sUriMatcher.match(uri);
+        switch (match) {
 
             /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -231,11 +576,55 @@ public class WeatherProvider extends ContentProvider {
                  * one "?", we have to create a string array that only contains one element
                  * because this method signature accepts a string array.
                  */
-                String[] selectionArguments = new String[]{normalizedUtcDateString};
+                long normalizedUtcDate = Long.parseLong(normalizedUtcDateString);
+                long locationId = getLocationId(uri);
+                String[] selectionArguments = getDateSelectionArgs(locationId, normalizedUtcDate);
 
-                cursor = mOpenHelper.getReadableDatabase().query(
-                        /* Table we are going to query */
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+
+                /*
+                 * A single day is answered from the replica only once a query of the forecast
+                 * has loaded it. Until then, the row cache below copies just the day asked for
+                 * rather than the replica copying the whole table.
+                 */
+                long day = WeatherEncoding.encodeDate(normalizedUtcDate);
+                if (!db.inTransaction()) {
+                    cursor = mReplica.query(locationId, day, day, projection, sortOrder, -1, 0);
+                    if (cursor != null) {
+                        break;
+                    }
+                }
+
+                /*
+                 * Recently read days are answered from memory. A query with its own sort order,
+                 * or one made inside a transaction that might still be rolled back, always goes
+                 * to the database. On a miss, we read every column of the day so that the cached
+                 * rows can answer later queries whatever their projection.
+                 */
+                if (sortOrder == null && !db.inTransaction()) {
+                    cursor = mRowCache.query(locationId, normalizedUtcDate, projection);
+                    if (cursor != null) {
+                        break;
+                    }
+
+                    long generation = mRowCache.getGeneration();
+                    cursor = mRowCache.put(locationId, normalizedUtcDate, generation,
+                            readRows(db.query(WeatherContract.WeatherEntry.VIEW_NAME,
+                                    null,
+                                    WEATHER_DATE_SELECTION,
+                                    selectionArguments,
+                                    null,
+                                    null,
+                                    null), Integer.MAX_VALUE),
+                            projection);
+                    if (cursor != null) {
+                        break;
+                    }
+                }
+
+                cursor = db.query(
+                        /* The view that reads the weather table back in its columns' units */
+                        WeatherContract.WeatherEntry.VIEW_NAME,
                         /*
                          * A projection designates the columns we want returned in our Cursor.
                          * Passing null will return all columns of data within the Cursor.
@@ -252,7 +641,7 @@ public class WeatherProvider extends ContentProvider {
                          * within the selectionArguments array will be inserted into the
                          * selection statement by SQLite under the hood.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        WEATHER_DATE_SELECTION,
                         selectionArguments,
                         null,
                         null,
@@ -267,20 +656,233 @@ public class WeatherProvider extends ContentProvider {
              *      content://com.example.android.sunshine/weather/
              *
              * sUriMatcher's match method will return the code that indicates to us that we need
-             * to return all of the weather in our weather table.
+             * to return all of the weather of a location.
              *
              * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * the location has in our weather table.
              */
             case CODE_WEATHER: {
+                long locationId = getLocationId(uri);
+                SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+
+                /* Only SQLite can evaluate a selection, but every row can come from the replica */
+                if (selection == null) {
+                    cursor = queryReplica(db, locationId, Long.MIN_VALUE, Long.MAX_VALUE,
+                            projection, sortOrder, -1, 0);
+                    if (cursor != null) {
+                        break;
+                    }
+                }
+
+                cursor = db.query(
+                        WeatherContract.WeatherEntry.VIEW_NAME,
+                        projection,
+                        DatabaseUtils.concatenateWhere(WEATHER_LOCATION_SELECTION, selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{Long.toString(locationId)}, selectionArgs),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * The weather from a date onwards, or between two dates, both included, such as
+             *
+             *      content://com.example.android.sunshine/weather/from/1472169600000
+             *      content://com.example.android.sunshine/weather/range/1472169600000/1472688000000
+             *
+             * Rows are returned by date unless a sort order is given, and the optional limit and
+             * offset query parameters return a page of them.
+             *
+             * Every value, dates included, is bound as an argument instead of being written into
+             * the SQL. The SQL of a loader's query is then the same every time it reloads, so
+             * SQLiteDatabase finds the statement it compiled last time in the connection's
+             * prepared statement cache instead of compiling the query again.
+             */
+            case CODE_WEATHER_FROM_DATE:
+            case CODE_WEATHER_WITH_DATE_RANGE: {
+                long locationId = getLocationId(uri);
+                List<String> segments = getUnscopedPathSegments(uri);
+                long fromDate = Long.parseLong(segments.get(2));
+                int limit = getIntQueryParameter(uri,
+                        WeatherContract.WeatherEntry.QUERY_PARAMETER_LIMIT, -1);
+                int offset = getIntQueryParameter(uri,
+                        WeatherContract.WeatherEntry.QUERY_PARAMETER_OFFSET, 0);
+                SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+
+                String rangeSelection;
+                String[] rangeSelectionArgs;
+                long toDay;
+                if (match == CODE_WEATHER_FROM_DATE) {
+                    rangeSelection = WEATHER_FROM_SELECTION;
+                    rangeSelectionArgs = new String[]{
+                            Long.toString(locationId),
+                            Long.toString(WeatherEncoding.encodeFirstDateFrom(fromDate))};
+                    toDay = Long.MAX_VALUE;
+                } else {
+                    rangeSelection = WEATHER_RANGE_SELECTION;
+                    rangeSelectionArgs = getWeatherRangeSelectionArgs(locationId, fromDate,
+                            Long.parseLong(segments.get(3)));
+                    toDay = Long.parseLong(rangeSelectionArgs[2]);
+                }
+
+                /* The replica holds a location's rows by date, which is the default order */
+                if (selection == null) {
+                    cursor = queryReplica(db, locationId,
+                            Long.parseLong(rangeSelectionArgs[1]), toDay, projection, sortOrder,
+                            limit, offset);
+                    if (cursor != null) {
+                        break;
+                    }
+                }
+
+                String sql = SQLiteQueryBuilder.buildQueryString(
+                        false,
+                        WeatherContract.WeatherEntry.VIEW_NAME,
+                        projection,
+                        DatabaseUtils.concatenateWhere(rangeSelection, selection),
+                        null,
+                        null,
+                        sortOrder == null ? WeatherContract.WeatherEntry._ID : sortOrder,
+                        null) + SQL_LIMIT_OFFSET;
+
+                String[] limitArgs = new String[]{
+                        Integer.toString(limit),
+                        Integer.toString(offset)};
+
+                String[] queryArgs = DatabaseUtils.appendSelectionArgs(
+                        DatabaseUtils.appendSelectionArgs(rangeSelectionArgs, selectionArgs),
+                        limitArgs);
+
+                cursor = db.rawQuery(sql, queryArgs);
+
+                break;
+            }
+
+            /*
+             * The archive of the preferred location, or of the location the URI is scoped to,
+             * optionally filtered by the selection. Rows are returned by date unless a sort order
+             * is given.
+             */
+            case CODE_ARCHIVE: {
+                selection = DatabaseUtils.concatenateWhere(
+                        WeatherContract.ArchiveEntry.COLUMN_LOCATION_ID + " = ?", selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(
+                        new String[]{Long.toString(getLocationId(uri))}, selectionArgs);
+
                 cursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.ArchiveEntry.VIEW_NAME,
                         projection,
                         selection,
                         selectionArgs,
                         null,
                         null,
-                        sortOrder);
+                        sortOrder == null ? WeatherContract.ArchiveEntry.COLUMN_DATE : sortOrder);
+
+                break;
+            }
+
+            /*
+             * The archived weather of a location between two dates, both included, such as
+             *
+             *      content://com.example.android.sunshine/archive/1472169600000/1474675200000
+             *
+             * for the preferred location, or the same URI scoped to another location. A
+             * compacted row covers several days, so it is returned if any of its days falls
+             * within the range, even when its own date is before the start of the range.
+             */
+            case CODE_ARCHIVE_WITH_DATE_RANGE: {
+                List<String> segments = getUnscopedPathSegments(uri);
+                long fromDate = Long.parseLong(segments.get(1));
+                long toDate = Long.parseLong(segments.get(2));
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.VIEW_NAME,
+                        projection,
+                        DatabaseUtils.concatenateWhere(ARCHIVE_RANGE_SELECTION, selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                getArchiveRangeSelectionArgs(getLocationId(uri), fromDate,
+                                        toDate),
+                                selectionArgs),
+                        null,
+                        null,
+                        sortOrder == null ? WeatherContract.ArchiveEntry.COLUMN_DATE : sortOrder);
+
+                break;
+            }
+
+            /*
+             * A single row of statistics, such as the lowest and highest temperatures, over the
+             * forecast or the archive between two dates, both included:
+             *
+             *      content://com.example.android.sunshine/weather/stats?from=1472169600000
+             *              &to=1472688000000
+             *
+             * The aggregates are computed by SQLite while it walks the range along the primary
+             * key, so no more than one row ever has to be copied into the cursor.
+             */
+            case CODE_WEATHER_STATS:
+            case CODE_ARCHIVE_STATS: {
+                long fromDate = getDateQueryParameter(uri,
+                        WeatherContract.StatsEntry.QUERY_PARAMETER_FROM);
+                long toDate = getDateQueryParameter(uri,
+                        WeatherContract.StatsEntry.QUERY_PARAMETER_TO);
+
+                SQLiteQueryBuilder statsQuery = new SQLiteQueryBuilder();
+                statsQuery.setStrict(true);
+
+                String rangeSelection;
+                String[] rangeSelectionArgs;
+                if (match == CODE_WEATHER_STATS) {
+                    statsQuery.setTables(WeatherContract.WeatherEntry.VIEW_NAME);
+                    statsQuery.setProjectionMap(sWeatherStatsProjectionMap);
+                    rangeSelection = WEATHER_RANGE_SELECTION;
+                    rangeSelectionArgs = getWeatherRangeSelectionArgs(getLocationId(uri),
+                            fromDate, toDate);
+                } else {
+                    statsQuery.setTables(WeatherContract.ArchiveEntry.VIEW_NAME);
+                    statsQuery.setProjectionMap(sArchiveStatsProjectionMap);
+                    rangeSelection = ARCHIVE_RANGE_SELECTION;
+                    rangeSelectionArgs = getArchiveRangeSelectionArgs(getLocationId(uri),
+                            fromDate, toDate);
+                }
+
+                cursor = statsQuery.query(
+                        mOpenHelper.getReadableDatabase(),
+                        projection,
+                        DatabaseUtils.concatenateWhere(rangeSelection, selection),
+                        DatabaseUtils.appendSelectionArgs(rangeSelectionArgs, selectionArgs),
+                        null,
+                        null,
+                        null);
+
+                break;
+            }
+
+            /* The provider's own profile, which isn't timed itself */
+            case CODE_PROFILE:
+                return mProfiler.getStats();
+
+            /* The tracked locations, or one of them, by _ID unless a sort order is given */
+            case CODE_LOCATION:
+            case CODE_LOCATION_WITH_ID: {
+                if (match == CODE_LOCATION_WITH_ID) {
+                    selection = DatabaseUtils.concatenateWhere(
+                            WeatherContract.LocationEntry._ID + " = ?", selection);
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(
+                            new String[]{uri.getLastPathSegment()}, selectionArgs);
+                }
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder == null ? WeatherContract.LocationEntry._ID : sortOrder);
 
                 break;
             }
@@ -289,10 +891,137 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor = compactSmallResult(cursor);
+
+        mProfiler.endQuery(mOpenHelper.getReadableDatabase(), uri, selection, cursor, startNanos);
+
+        /*
+         * The weather of a single date is only reloaded when that date changes. Every other
+         * query of the weather spans many days, so it is reloaded whenever any of them changes.
+         * A query scoped to a location is reloaded when that location's weather changes.
+         */
+        Uri notificationUri;
+        switch (match) {
+            case CODE_WEATHER:
+            case CODE_WEATHER_FROM_DATE:
+            case CODE_WEATHER_WITH_DATE_RANGE:
+            case CODE_WEATHER_STATS:
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_LIST_URI;
+                if (isScopedToLocation(uri)) {
+                    notificationUri = WeatherContract.WeatherEntry.buildUriForLocation(
+                            notificationUri, getLocationId(uri));
+                }
+                break;
+
+            case CODE_LOCATION:
+            case CODE_LOCATION_WITH_ID:
+                notificationUri = WeatherContract.LocationEntry.CONTENT_LIST_URI;
+                break;
+
+            /* Archiving and compaction notify the archive as a whole, whatever its location */
+            case CODE_ARCHIVE:
+            case CODE_ARCHIVE_WITH_DATE_RANGE:
+            case CODE_ARCHIVE_STATS:
+                notificationUri = WeatherContract.ArchiveEntry.CONTENT_URI;
+                break;
+
+            default:
+                notificationUri = uri;
+        }
+
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
+    /**
+     * Runs the archive's maintenance operations, which move rows between tables or rewrite many
+     * rows at once and so have no natural insert, update or delete form. See
+     * {@link WeatherContract.ArchiveEntry#METHOD_ARCHIVE_PAST_WEATHER} and
+     * {@link WeatherContract.ArchiveEntry#METHOD_COMPACT_ARCHIVE}. Also reports the hit and miss
+     * counts of the cache of recently queried dates, see
+     * {@link WeatherContract.WeatherEntry#METHOD_GET_CACHE_STATS}, and maintains the database
+     * file, see {@link WeatherContract.MaintenanceEntry#METHOD_RUN_MAINTENANCE}.
+     *
+     * @param method The operation to run
+     * @param arg    For METHOD_ARCHIVE_PAST_WEATHER, today's normalized date
+     * @param extras For METHOD_COMPACT_ARCHIVE, EXTRA_RETENTION_MONTHS
+     * @return A Bundle with the number of rows affected in EXTRA_ROW_COUNT, the cache's counts
+     * for METHOD_GET_CACHE_STATS, or the maintenance report for METHOD_RUN_MAINTENANCE
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        final long startNanos = mProfiler.begin();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowCount;
+
+        switch (method) {
+
+            case WeatherContract.ArchiveEntry.METHOD_ARCHIVE_PAST_WEATHER: {
+                long normalizedToday = Long.parseLong(arg);
+                if (!SunshineDateUtils.isDateNormalized(normalizedToday)) {
+                    throw new IllegalArgumentException("Date must be normalized to archive");
+                }
+
+                Map<Long, Set<Long>> archivedDates;
+                db.beginTransactionNonExclusive();
+                try {
+                    archivedDates = queryChanges(db,
+                            WeatherContract.WeatherEntry._ID + " < ?",
+                            getDayArgs(normalizedToday));
+                    rowCount = WeatherArchive.archivePastWeather(db, normalizedToday);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                invalidateRowCache(archivedDates);
+                mReplica.invalidate();
+                if (rowCount > 0) {
+                    notifyWeatherChanged(archivedDates);
+                    getContext().getContentResolver()
+                            .notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI, null);
+                }
+                break;
+            }
+
+            case WeatherContract.ArchiveEntry.METHOD_COMPACT_ARCHIVE: {
+                int retentionMonths = extras == null ? 0
+                        : extras.getInt(WeatherContract.ArchiveEntry.EXTRA_RETENTION_MONTHS);
+
+                rowCount = WeatherArchive.compact(db, System.currentTimeMillis(), retentionMonths);
+                if (rowCount > 0) {
+                    getContext().getContentResolver()
+                            .notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI, null);
+                }
+                break;
+            }
+
+            case WeatherContract.WeatherEntry.METHOD_GET_CACHE_STATS: {
+                Bundle stats = new Bundle();
+                stats.putInt(WeatherContract.WeatherEntry.EXTRA_CACHE_HITS,
+                        mRowCache.getHitCount() + mReplica.getHitCount());
+                stats.putInt(WeatherContract.WeatherEntry.EXTRA_CACHE_MISSES,
+                        mRowCache.getMissCount());
+                return stats;
+            }
+
+            /* Maintenance doesn't change any weather, so nobody needs to be notified */
+            case WeatherContract.MaintenanceEntry.METHOD_RUN_MAINTENANCE:
+                return WeatherDbMaintenance.run(db,
+                        getContext().getDatabasePath(WeatherDbHelper.DATABASE_NAME));
+
+            default:
+                return super.call(method, arg, extras);
+        }
+
+        mProfiler.endWrite(method, WeatherContract.ArchiveEntry.CONTENT_URI, null, rowCount,
+                startNanos);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.ArchiveEntry.EXTRA_ROW_COUNT, rowCount);
+        return result;
+    }
+
     /**
      * Deletes data at a given URI with optional arguments for more fine tuned deletions.
      *
@@ -303,10 +1032,16 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        final long startNanos = mProfiler.begin();
 
         /* Users of the delete method will expect the number of rows deleted to be returned. */
         int numRowsDeleted;
 
+        /* The dates of the rows that may be deleted, whose observers we have to notify */
+        Map<Long, Set<Long>> changedDates;
+
+        WeatherReplica.Write replicaWrite;
+
         /*
          * If we pass null as the selection to SQLiteDatabase#delete, our entire table will be
          * deleted. However, if we do pass null and delete all of the rows in the table, we won't
@@ -318,23 +1053,106 @@ public class WeatherProvider extends ContentProvider {
 
         switch (sUriMatcher.match(uri)) {
 
-            case CODE_WEATHER:
-                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+            case CODE_WEATHER: {
+                long locationId = getLocationId(uri);
+                String[] locationArgs = DatabaseUtils.appendSelectionArgs(
+                        new String[]{Long.toString(locationId)}, selectionArgs);
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    changedDates = queryChanges(db,
+                            DatabaseUtils.concatenateWhere(WEATHER_LOCATION_SELECTION, selection),
+                            locationArgs);
+                    numRowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            DatabaseUtils.concatenateWhere(WEATHER_LOCATION_SELECTION,
+                                    getStoredSelection(selection)),
+                            locationArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                invalidateRowCache(changedDates);
+                mReplica.invalidate();
+                replicaWrite = null;
 
                 break;
+            }
 
-            default:
+            case CODE_WEATHER_WITH_DATE: {
+                long locationId = getLocationId(uri);
+                long date = Long.parseLong(uri.getLastPathSegment());
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    numRowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            getStoredSelectionForDate(selection),
+                            DatabaseUtils.appendSelectionArgs(
+                                    getDateSelectionArgs(locationId, date), selectionArgs));
+                    replicaWrite = readBackReplica(db, locationId, date);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                changedDates = newChanges(locationId, date);
+                invalidateRowCache(changedDates);
+
+                break;
+            }
+
+            /*
+             * Stops tracking a location. Its weather and its archive go with it, in the same
+             * transaction, so no weather is ever left without its location.
+             */
+            case CODE_LOCATION_WITH_ID: {
+                long locationId = Long.parseLong(uri.getLastPathSegment());
+                String[] locationArgs = new String[]{Long.toString(locationId)};
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    numRowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME,
+                            DatabaseUtils.concatenateWhere(
+                                    WeatherContract.LocationEntry._ID + " = ?", selection),
+                            DatabaseUtils.appendSelectionArgs(locationArgs, selectionArgs));
+                    if (numRowsDeleted > 0) {
+                        db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                                WEATHER_LOCATION_SELECTION, locationArgs);
+                        db.delete(WeatherContract.ArchiveEntry.TABLE_NAME,
+                                WeatherContract.ArchiveEntry.COLUMN_LOCATION_ID + " = ?",
+                                locationArgs);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                /* Forget every trace of the location, whose rows and weather are gone */
+                mRowCache.invalidateAll();
+                mReplica.invalidate();
+                mPreferredLocation = null;
+
+                if (numRowsDeleted != 0) {
+                    sendLocationChanged(locationId);
+                }
+
+                mProfiler.endWrite("delete", uri, selection, numRowsDeleted, startNanos);
+                return numRowsDeleted;
+            }
+
+            default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        /* If we actually deleted any rows, notify that a change has occurred to this URI */
+        publishReplica(replicaWrite);
+
+        /* If we actually deleted any rows, notify that a change has occurred to their dates */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyWeatherChanged(changedDates);
         }
 
+        mProfiler.endWrite("delete", uri, selection, numRowsDeleted, startNanos);
         return numRowsDeleted;
     }
 
@@ -354,25 +1172,753 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Handles requests to insert a single row of weather, for example to correct the forecast
+     * for one day without rewriting the rest. A row for the same location and date replaces the
+     * existing one.
+     * <p>
+     * Also adds a location to track. Inserting a location setting that is already tracked
+     * updates its other columns and returns its existing URI, so that its weather is kept.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the inserted weather or location, or null if it couldn't be inserted
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        final long startNanos = mProfiler.begin();
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER: {
+                long locationId = getLocationIdForInsert(uri);
+                long weatherDate = getNormalizedDates(new ContentValues[]{values}, locationId)[0];
+                Map<Long, Set<Long>> changedDates = newChanges(locationId, weatherDate);
+
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                SQLiteStatement insertWeather = db.compileStatement(SQL_INSERT_WEATHER);
+                boolean inserted;
+                WeatherReplica.Write replicaWrite;
+                db.beginTransactionNonExclusive();
+                try {
+                    inserted = insertWeather(insertWeather, locationId, values, weatherDate);
+                    replicaWrite = readBackReplica(db, locationId, weatherDate);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    insertWeather.close();
+                    invalidateRowCache(changedDates);
+                }
+                publishReplica(replicaWrite);
+
+                mProfiler.endWrite("insert", uri, null, inserted ? 1 : 0, startNanos);
+                if (!inserted) {
+                    return null;
+                }
+
+                notifyWeatherChanged(changedDates);
+                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(weatherDate);
+                return isScopedToLocation(uri)
+                        ? WeatherContract.WeatherEntry.buildUriForLocation(weatherUri, locationId)
+                        : weatherUri;
+            }
+
+            case CODE_LOCATION: {
+                String setting = values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (setting == null || values.containsKey(WeatherContract.LocationEntry._ID)) {
+                    throw new IllegalArgumentException(
+                            "A location needs a setting, and is given its _ID when it is added");
+                }
+
+                long locationId = trackLocation(mOpenHelper.getWritableDatabase(), setting,
+                        values);
+
+                mProfiler.endWrite("insert", uri, null, 1, startNanos);
+                sForecastGeneration.incrementAndGet();
+                getContext().getContentResolver()
+                        .notifyChange(WeatherContract.LocationEntry.CONTENT_LIST_URI, null);
+                return WeatherContract.LocationEntry.buildLocationUri(locationId);
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    /**
+     * Updates the weather at a given URI. Use the URI of a single date to change one day's
+     * weather in place; the URI of all weather updates every row that matches the selection.
+     * <p>
+     * The location and date identify a row and the _ID is derived from the date, so none of them
+     * can be changed. To move weather to another date, delete it and insert it again.
+     * <p>
+     * Also updates a tracked location, such as the time it was last synced, at its own URI.
+     *
+     * @param uri           The URI of the weather or location to update
+     * @param values        The new values of the columns to change
+     * @param selection     An optional restriction to apply to rows when updating
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows updated
+     */
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+
+        final long startNanos = mProfiler.begin();
+
+        if (values.containsKey(WeatherContract.WeatherEntry._ID)
+                || values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID)
+                || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+            throw new IllegalArgumentException("The location, date and _ID of weather can't be "
+                    + "updated. Delete the weather and insert it again instead.");
+        }
+
+        int numRowsUpdated;
+        Map<Long, Set<Long>> changedDates;
+        WeatherReplica.Write replicaWrite;
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER: {
+                long locationId = getLocationId(uri);
+                String[] locationArgs = DatabaseUtils.appendSelectionArgs(
+                        new String[]{Long.toString(locationId)}, selectionArgs);
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    changedDates = queryChanges(db,
+                            DatabaseUtils.concatenateWhere(WEATHER_LOCATION_SELECTION, selection),
+                            locationArgs);
+                    numRowsUpdated = db.update(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherEncoding.encode(values),
+                            DatabaseUtils.concatenateWhere(WEATHER_LOCATION_SELECTION,
+                                    getStoredSelection(selection)),
+                            locationArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                invalidateRowCache(changedDates);
+                mReplica.invalidate();
+                replicaWrite = null;
+
+                break;
+            }
+
+            case CODE_WEATHER_WITH_DATE: {
+                long locationId = getLocationId(uri);
+                long date = Long.parseLong(uri.getLastPathSegment());
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransactionNonExclusive();
+                try {
+                    numRowsUpdated = db.update(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherEncoding.encode(values),
+                            getStoredSelectionForDate(selection),
+                            DatabaseUtils.appendSelectionArgs(
+                                    getDateSelectionArgs(locationId, date), selectionArgs));
+                    replicaWrite = readBackReplica(db, locationId, date);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                changedDates = newChanges(locationId, date);
+                invalidateRowCache(changedDates);
+
+                break;
+            }
+
+            /* A location's weather doesn't change, so only observers of locations are notified */
+            case CODE_LOCATION_WITH_ID: {
+                numRowsUpdated = mOpenHelper.getWritableDatabase().update(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        values,
+                        DatabaseUtils.concatenateWhere(
+                                WeatherContract.LocationEntry._ID + " = ?", selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{uri.getLastPathSegment()}, selectionArgs));
+
+                /* The preferred location may have been given another location's setting */
+                mPreferredLocation = null;
+
+                if (numRowsUpdated != 0) {
+                    getContext().getContentResolver()
+                            .notifyChange(WeatherContract.LocationEntry.CONTENT_LIST_URI, null);
+                }
+
+                mProfiler.endWrite("update", uri, selection, numRowsUpdated, startNanos);
+                return numRowsUpdated;
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        publishReplica(replicaWrite);
+
+        if (numRowsUpdated != 0) {
+            notifyWeatherChanged(changedDates);
+        }
+
+        mProfiler.endWrite("update", uri, selection, numRowsUpdated, startNanos);
+        return numRowsUpdated;
     }
 
+    /**
+     * Applies a batch of inserts, updates and deletes in a single transaction, so that either all
+     * of them take effect or none do. Observers are notified after the batch commits, once for
+     * each date the batch changed and once for the weather as a whole, rather than once per
+     * operation.
+     * <p>
+     * Long batches give other writers a chance to run every {@link #MAX_OPERATIONS_PER_YIELD_POINT}
+     * operations, at operations built with
+     * {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)}. Yielding commits the
+     * work done so far, so only allow it where the batch may safely be split.
+     *
+     * @param operations The operations to apply
+     * @return The result of each operation, in the same order as the operations
+     * @throws OperationApplicationException If any operation fails, in which case none of the
+     *                                       operations are applied
+     */
+    @NonNull
     @Override
-    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+
+        Map<Long, Set<Long>> batchChangedDates = new TreeMap<>();
+        mBatchChangedDates.set(batchChangedDates);
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                int operationsSinceYield = 0;
+                for (int i = 0; i < numOperations; i++) {
+                    ContentProviderOperation operation = operations.get(i);
+
+                    if (++operationsSinceYield > MAX_OPERATIONS_PER_YIELD_POINT
+                            && operation.isYieldAllowed()) {
+                        operationsSinceYield = 0;
+                        db.yieldIfContendedSafely();
+                    }
+
+                    results[i] = operation.apply(this, results, i);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+
+                /*
+                 * Each write of the batch invalidated its dates before the batch committed, or
+                 * before a yield point committed part of it, so another thread may have cached
+                 * a date again since. Only now is every write visible to that thread. The same
+                 * goes for the replica, which the writes of a batch leave to us.
+                 */
+                mRowCache.invalidateAll();
+                mReplica.invalidate();
+            }
+        } finally {
+            mBatchChangedDates.remove();
+        }
+
+        /* Only notify once the whole batch is visible to the queries our observers will run */
+        if (!batchChangedDates.isEmpty()) {
+            sendWeatherChanged(batchChangedDates);
+        }
+
+        return results;
+    }
+
+    /**
+     * Notifies observers that the weather of some dates has changed. While the current thread is
+     * applying a batch, the notifications are held back so that applyBatch can send them once
+     * for the whole batch.
+     *
+     * @param changes The normalized dates of the weather that changed, by location
+     */
+    private void notifyWeatherChanged(Map<Long, Set<Long>> changes) {
+        Map<Long, Set<Long>> changedDates = mBatchChangedDates.get();
+        if (changedDates == null) {
+            sendWeatherChanged(changes);
+            return;
+        }
+
+        for (Map.Entry<Long, Set<Long>> locationChanges : changes.entrySet()) {
+            Set<Long> dates = changedDates.get(locationChanges.getKey());
+            if (dates == null) {
+                dates = new TreeSet<>();
+                changedDates.put(locationChanges.getKey(), dates);
+            }
+            dates.addAll(locationChanges.getValue());
+        }
+    }
+
+    /**
+     * @return The number of writes of the preferred location's weather, or of the tracked
+     * locations, that this process has committed
+     */
+    static long getForecastGeneration() {
+        return sForecastGeneration.get();
+    }
+
+    /*
+     * Notifies the URI of each changed date, then the list URI once for all of them, for each
+     * location that changed. The weather of the preferred location is also notified on the URIs
+     * that aren't scoped to a location, whose list URI ForecastRepository observes. We don't
+     * notify CONTENT_URI, as that would reach the observers of every date.
+     */
+    private void sendWeatherChanged(Map<Long, Set<Long>> changes) {
+        ContentResolver contentResolver = getContext().getContentResolver();
+        long preferredLocationId = getPreferredLocationId();
+        for (Map.Entry<Long, Set<Long>> locationChanges : changes.entrySet()) {
+            long locationId = locationChanges.getKey();
+            if (locationChanges.getValue().isEmpty()) {
+                continue;
+            }
+            if (locationId == preferredLocationId) {
+                sForecastGeneration.incrementAndGet();
+            }
+
+            for (long date : locationChanges.getValue()) {
+                Uri dateUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(date);
+                contentResolver.notifyChange(
+                        WeatherContract.WeatherEntry.buildUriForLocation(dateUri, locationId),
+                        null);
+                if (locationId == preferredLocationId) {
+                    contentResolver.notifyChange(dateUri, null);
+                }
+            }
+            contentResolver.notifyChange(WeatherContract.WeatherEntry.buildUriForLocation(
+                    WeatherContract.WeatherEntry.CONTENT_LIST_URI, locationId), null);
+            if (locationId == preferredLocationId) {
+                contentResolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_LIST_URI, null);
+            }
+        }
+    }
+
+    /*
+     * Notifies the observers of a location that was deleted, along with every query of its
+     * weather, which all lie below its URI.
+     */
+    private void sendLocationChanged(long locationId) {
+        sForecastGeneration.incrementAndGet();
+        ContentResolver contentResolver = getContext().getContentResolver();
+        contentResolver.notifyChange(
+                WeatherContract.LocationEntry.buildLocationUri(locationId), null);
+        contentResolver.notifyChange(WeatherContract.LocationEntry.CONTENT_LIST_URI, null);
+    }
+
+    /* The dates of a single location's weather that a write changed */
+    private static Map<Long, Set<Long>> newChanges(long locationId, long... dates) {
+        Set<Long> changedDates = new TreeSet<>();
+        for (long date : dates) {
+            changedDates.add(date);
+        }
+        Map<Long, Set<Long>> changes = new TreeMap<>();
+        changes.put(locationId, changedDates);
+        return changes;
+    }
+
+    /* Drops the cached weather of the dates a write changed */
+    private void invalidateRowCache(Map<Long, Set<Long>> changes) {
+        for (Map.Entry<Long, Set<Long>> locationChanges : changes.entrySet()) {
+            mRowCache.invalidate(locationChanges.getKey(), locationChanges.getValue());
+        }
+    }
+
+    /*
+     * Returns the location a weather or archive URI addresses: the location it is scoped to, or
+     * else the preferred location, which is only looked up.
+     */
+    private long getLocationId(Uri uri) {
+        if (isScopedToLocation(uri)) {
+            return Long.parseLong(uri.getPathSegments().get(1));
+        }
+        return getPreferredLocationId();
+    }
+
+    /*
+     * Returns the location weather inserted at a URI belongs to. Weather inserted for the
+     * preferred location, rather than at a URI scoped to a location, needs the location to be
+     * tracked, so that is the one place besides the location URI where a setting is added.
+     */
+    private long getLocationIdForInsert(Uri uri) {
+        if (isScopedToLocation(uri)) {
+            return Long.parseLong(uri.getPathSegments().get(1));
+        }
+
+        long locationId = getPreferredLocationId();
+        if (locationId == UNTRACKED_LOCATION_ID) {
+            String setting = SunshinePreferences.getPreferredWeatherLocation(getContext());
+            locationId = trackLocation(mOpenHelper.getWritableDatabase(), setting, null);
+            mPreferredLocation = Pair.create(setting, locationId);
+        }
+        return locationId;
+    }
+
+    /* Whether a URI starts with a location, such as /location/2/weather/ */
+    private static boolean isScopedToLocation(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() > 1 && WeatherContract.PATH_LOCATION.equals(segments.get(0));
+    }
+
+    /*
+     * The path segments of a weather or archive URI from PATH_WEATHER or PATH_ARCHIVE on,
+     * whether or not it is scoped
+     */
+    private static List<String> getUnscopedPathSegments(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return isScopedToLocation(uri) ? segments.subList(2, segments.size()) : segments;
+    }
+
+    /*
+     * Returns the _ID of the preferred location. The setting is read from SunshinePreferences'
+     * snapshot, so as long as it doesn't change, this is a field load; when it does, looking up
+     * its _ID is a single probe of the location table's index on the setting. This only reads
+     * the database: a setting the user has just switched to is added by its first sync, through
+     * the location URI, and until then resolves to UNTRACKED_LOCATION_ID, which isn't cached.
+     */
+    private long getPreferredLocationId() {
+        String setting = SunshinePreferences.getPreferredWeatherLocation(getContext());
+        Pair<String, Long> preferredLocation = mPreferredLocation;
+        if (preferredLocation != null && preferredLocation.first.equals(setting)) {
+            return preferredLocation.second;
+        }
+
+        long locationId = DatabaseUtils.longForQuery(mOpenHelper.getReadableDatabase(),
+                "SELECT IFNULL((SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                        WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?), " +
+                        UNTRACKED_LOCATION_ID + ")",
+                new String[]{setting});
+        if (locationId != UNTRACKED_LOCATION_ID) {
+            mPreferredLocation = Pair.create(setting, locationId);
+        }
+        return locationId;
+    }
+
+    /**
+     * Returns the _ID of a location setting, adding it to the location table if it isn't there.
+     *
+     * @param db      The weather database
+     * @param setting The location setting, see LocationEntry#COLUMN_LOCATION_SETTING
+     * @param values  Other columns of the location to store, or null
+     * @return The location's _ID
+     */
+    private static long trackLocation(SQLiteDatabase db, String setting, ContentValues values) {
+        String[] settingArgs = new String[]{setting};
+        db.beginTransactionNonExclusive();
+        try {
+            Cursor locationCursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    settingArgs,
+                    null,
+                    null,
+                    null);
+            long locationId;
+            try {
+                locationId = locationCursor.moveToFirst() ? locationCursor.getLong(0) : -1;
+            } finally {
+                locationCursor.close();
+            }
+
+            /* The _ID is the table's rowid, which is what executeInsert returns */
+            if (locationId == -1) {
+                SQLiteStatement insertLocation = db.compileStatement(SQL_INSERT_LOCATION);
+                try {
+                    insertLocation.bindString(1, setting);
+                    locationId = insertLocation.executeInsert();
+                } finally {
+                    insertLocation.close();
+                }
+            }
+
+            if (values != null && values.size() > 1) {
+                db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                        WeatherContract.LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationId)});
+            }
+
+            db.setTransactionSuccessful();
+            return locationId;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /*
+     * Answers a query of the weather from the replica, loading the replica first if needed.
+     * Queries made within a transaction, such as those of a batch, may need to see writes the
+     * replica doesn't hold yet, so they go to SQLite. Returns null for the queries the replica
+     * can't answer.
+     */
+    private Cursor queryReplica(SQLiteDatabase db, Long locationId, long fromDay, long toDay,
+                                String[] projection, String sortOrder, int limit, int offset) {
+        if (!WeatherReplica.ENABLED || db.inTransaction()) {
+            return null;
+        }
+        mReplica.loadIfNeeded(db);
+        return mReplica.query(locationId, fromDay, toDay, projection, sortOrder, limit, offset);
+    }
+
+    /*
+     * Reads a single day back for the replica within a write's transaction, just before the
+     * write marks it successful. The writes of a batch leave the replica to applyBatch, which
+     * drops it.
+     */
+    private WeatherReplica.Write readBackReplica(SQLiteDatabase db, long locationId,
+                                                 long normalizedUtcDate) {
+        if (!WeatherReplica.ENABLED || mBatchChangedDates.get() != null) {
+            return null;
+        }
+        return mReplica.readBack(db, locationId, WeatherEncoding.encodeDate(normalizedUtcDate));
+    }
+
+    /*
+     * Returns a result of up to CompactCursor.MAX_ROWS rows as a CompactCursor, so that the
+     * cursor the caller keeps holds no window. Larger results are returned as they are.
+     */
+    private Cursor compactSmallResult(Cursor cursor) {
+        if (cursor instanceof CompactCursor) {
+            return cursor;
+        }
+        CompactCursor.Rows rows = readRows(cursor, CompactCursor.MAX_ROWS);
+        return rows == null ? cursor : rows.newCursor(null);
+    }
+
+    /*
+     * Copies the rows of a result and closes it, unless it has more than maxRows rows, in which
+     * case it is left open and null is returned. SQLite fills an SQLiteCursor's rows into a spare
+     * window rather than a window of its own, so reading a small result allocates no window at
+     * all. A larger result is detached from the spare window, to fill a window of its own as it
+     * is read.
+     */
+    private CompactCursor.Rows readRows(Cursor cursor, int maxRows) {
+        if (!(cursor instanceof SQLiteCursor)) {
+            if (cursor.getCount() > maxRows) {
+                return null;
+            }
+            try {
+                return CompactCursor.Rows.copyOf(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+        SQLiteCursor sqliteCursor = (SQLiteCursor) cursor;
+
+        CursorWindow window = takeSpareWindow();
+        /* The cursor releases this reference when it closes or is given another window */
+        window.acquireReference();
+        sqliteCursor.setWindow(window);
+        CompactCursor.Rows rows = null;
+        try {
+            if (sqliteCursor.getCount() <= maxRows) {
+                rows = CompactCursor.Rows.copyOf(sqliteCursor);
+            }
+            return rows;
+        } finally {
+            if (rows != null) {
+                sqliteCursor.close();
+            } else {
+                sqliteCursor.setWindow(null);
+            }
+            putSpareWindow(window);
+        }
+    }
+
+    private CursorWindow takeSpareWindow() {
+        synchronized (mSpareWindows) {
+            CursorWindow window = mSpareWindows.poll();
+            if (window != null) {
+                return window;
+            }
+        }
+        return new CursorWindow(TAG);
+    }
+
+    private void putSpareWindow(CursorWindow window) {
+        synchronized (mSpareWindows) {
+            if (mSpareWindows.size() < MAX_SPARE_WINDOWS) {
+                mSpareWindows.add(window);
+                return;
+            }
+        }
+        window.close();
+    }
+
+    /* Publishes the weather a write read back, once the write has committed */
+    private void publishReplica(WeatherReplica.Write replicaWrite) {
+        if (replicaWrite != null) {
+            mReplica.publish(replicaWrite);
+        }
+    }
+
+    /*
+     * Returns the distinct dates of the weather a selection matches, by location. Run it in the
+     * same transaction as the write it precedes, so that no other rows match by the time they're
+     * written. The selection is in the units of the view, as are the dates returned.
+     */
+    private static Map<Long, Set<Long>> queryChanges(SQLiteDatabase db, String selection,
+                                                     String[] selectionArgs) {
+        Cursor dateCursor = db.query(true,
+                WeatherContract.WeatherEntry.VIEW_NAME,
+                new String[]{
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null,
+                null);
+        try {
+            Map<Long, Set<Long>> changes = new TreeMap<>();
+            while (dateCursor.moveToNext()) {
+                Set<Long> dates = changes.get(dateCursor.getLong(0));
+                if (dates == null) {
+                    dates = new TreeSet<>();
+                    changes.put(dateCursor.getLong(0), dates);
+                }
+                dates.add(dateCursor.getLong(1));
+            }
+            return changes;
+        } finally {
+            dateCursor.close();
+        }
+    }
+
+    /*
+     * Callers write their selections in the units of the view, so updates and deletes of the
+     * weather table only touch the rows whose decoded weather matches. A null selection, or the
+     * "1" that stands for every row, needs no decoding.
+     */
+    private static String getStoredSelection(String selection) {
+        if (selection == null || "1".equals(selection)) {
+            return selection;
+        }
+        return "EXISTS (SELECT 1 FROM " + WeatherContract.WeatherEntry.VIEW_NAME +
+                " WHERE " + WeatherContract.WeatherEntry.VIEW_NAME + "." +
+                WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = " +
+                WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " AND " +
+                WeatherContract.WeatherEntry.VIEW_NAME + "." + WeatherContract.WeatherEntry._ID +
+                " = " + WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " AND (" + selection + "))";
+    }
+
+    /*
+     * Restricts a selection, in the units of the view, to the row of the date at the end of a
+     * CODE_WEATHER_WITH_DATE URI. Its arguments start with getDateSelectionArgs.
+     */
+    private static String getStoredSelectionForDate(String selection) {
+        return DatabaseUtils.concatenateWhere(STORED_DATE_SELECTION,
+                getStoredSelection(selection));
+    }
+
+    /* The arguments of WEATHER_DATE_SELECTION and STORED_DATE_SELECTION */
+    private static String[] getDateSelectionArgs(long locationId, long normalizedUtcDate) {
+        return new String[]{
+                Long.toString(locationId),
+                Long.toString(WeatherEncoding.encodeDate(normalizedUtcDate))};
+    }
+
+    /* The argument that selects a normalized date by the view's _ID */
+    private static String[] getDayArgs(long normalizedUtcDate) {
+        return new String[]{Long.toString(WeatherEncoding.encodeDate(normalizedUtcDate))};
+    }
+
+    /*
+     * The arguments of WEATHER_RANGE_SELECTION for a location. A range bounded by times within a
+     * day covers only the whole days between them, as it did when dates were compared in
+     * milliseconds.
+     */
+    private static String[] getWeatherRangeSelectionArgs(long locationId, long fromDate,
+                                                         long toDate) {
+        return new String[]{
+                Long.toString(locationId),
+                Long.toString(WeatherEncoding.encodeFirstDateFrom(fromDate)),
+                Long.toString(WeatherEncoding.encodeDate(toDate))};
+    }
+
+    /* Reads an optional integer from the query parameters of a URI */
+    private static int getIntQueryParameter(Uri uri, String name, int defaultValue) {
+        String value = uri.getQueryParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /*
+     * The arguments of ARCHIVE_RANGE_SELECTION. A compacted row covers several days, so a row is
+     * selected if any of its days falls within the range, even when its own date is before the
+     * start of the range. The range starts on the day holding fromDate, which is where a row
+     * stops overlapping it when rows were compared in milliseconds.
+     */
+    private static String[] getArchiveRangeSelectionArgs(long locationId, long fromDate,
+                                                         long toDate) {
+        long fromDay = WeatherEncoding.encodeDate(fromDate);
+        long earliestRowDay = fromDay - (WeatherArchive.DAYS_PER_COMPACTED_ROW - 1);
+        return new String[]{
+                Long.toString(locationId),
+                Integer.toString(WeatherArchive.getMonth(
+                        earliestRowDay * SunshineDateUtils.DAY_IN_MILLIS)),
+                Integer.toString(WeatherArchive.getMonth(toDate)),
+                Long.toString(earliestRowDay),
+                Long.toString(WeatherEncoding.encodeDate(toDate)),
+                Long.toString(fromDay)};
+    }
+
+    /* Reads a required date from the query parameters of a statistics URI */
+    private static long getDateQueryParameter(Uri uri, String name) {
+        String date = uri.getQueryParameter(name);
+        if (date == null) {
+            throw new IllegalArgumentException("Missing query parameter " + name + ": " + uri);
+        }
+        return Long.parseLong(date);
+    }
+
+    /*
+     * Maps each column of StatsEntry to its aggregate. Rows of the archive cover daysColumn days
+     * each, so averages are weighted by it; rows of the weather table cover one day each, which
+     * is what a null daysColumn stands for.
+     */
+    private static Map<String, String> buildStatsProjectionMap(String daysColumn) {
+        String daysExpression = daysColumn == null
+                ? "COUNT(*)"
+                : "IFNULL(SUM(" + daysColumn + "), 0)";
+
+        Map<String, String> projectionMap = new LinkedHashMap<>();
+        projectionMap.put(WeatherContract.StatsEntry.COLUMN_DAYS,
+                daysExpression + " AS " + WeatherContract.StatsEntry.COLUMN_DAYS);
+        projectionMap.put(WeatherContract.StatsEntry.COLUMN_MIN_TEMP,
+                "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS "
+                        + WeatherContract.StatsEntry.COLUMN_MIN_TEMP);
+        projectionMap.put(WeatherContract.StatsEntry.COLUMN_MAX_TEMP,
+                "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS "
+                        + WeatherContract.StatsEntry.COLUMN_MAX_TEMP);
+        putAverage(projectionMap, WeatherContract.StatsEntry.COLUMN_AVG_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, daysColumn);
+        putAverage(projectionMap, WeatherContract.StatsEntry.COLUMN_AVG_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, daysColumn);
+        putAverage(projectionMap, WeatherContract.StatsEntry.COLUMN_AVG_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY, daysColumn);
+        putAverage(projectionMap, WeatherContract.StatsEntry.COLUMN_AVG_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE, daysColumn);
+        putAverage(projectionMap, WeatherContract.StatsEntry.COLUMN_AVG_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, daysColumn);
+        return projectionMap;
+    }
+
+    private static void putAverage(Map<String, String> projectionMap, String statsColumn,
+                                   String column, String daysColumn) {
+        String average = daysColumn == null
+                ? "AVG(" + column + ")"
+                : "SUM(" + column + " * " + daysColumn + ") / SUM(" + daysColumn + ")";
+        projectionMap.put(statsColumn, average + " AS " + statsColumn);
     }
 
     /**
@@ -383,7 +1929,25 @@ public class WeatherProvider extends ContentProvider {
     @Override
     @TargetApi(11)
     public void shutdown() {
+        invalidateCaches();
+        synchronized (mSpareWindows) {
+            for (CursorWindow window : mSpareWindows) {
+                window.close();
+            }
+            mSpareWindows.clear();
+        }
         mOpenHelper.close();
         super.shutdown();
     }
+
+    /**
+     * Drops everything the provider holds in memory: the cached days, the replica and the
+     * preferred location. The provider only sees its own writes, so tests that write to the
+     * database around it call this for its next query to read the database.
+     */
+    void invalidateCaches() {
+        mRowCache.invalidateAll();
+        mReplica.invalidate();
+        mPreferredLocation = null;
+    }
 }
\ No newline at end of file
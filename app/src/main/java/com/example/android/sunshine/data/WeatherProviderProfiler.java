@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.BuildConfig;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times the queries and writes WeatherProvider serves, in builds where
+ * {@link BuildConfig#PROFILE_WEATHER_PROVIDER} is set (debug builds, by default). Any operation
+ * slower than {@link #SLOW_OPERATION_MILLIS} is logged under the tag "WeatherProvider". For a
+ * slow query, the log includes the plan SQLite chose for it, as reported by EXPLAIN QUERY PLAN,
+ * so that a full table scan shows up as "SCAN TABLE" rather than as a vague slowdown.
+ * <p>
+ * The number of operations of each kind, how many were slow and how long they took in total
+ * are available from {@link WeatherContract.ProfileEntry#CONTENT_URI}.
+ * <p>
+ * To time a query, the profiler counts its rows, which makes SQLite run it straight away
+ * instead of when the caller first reads the cursor. Release builds are left alone.
+ */
+final class WeatherProviderProfiler {
+
+    static final boolean ENABLED = BuildConfig.PROFILE_WEATHER_PROVIDER;
+
+    /* A frame at 60 frames per second. Anything slower would drop a frame on the main thread. */
+    static final long SLOW_OPERATION_MILLIS = 16;
+
+    private static final String TAG = WeatherProvider.class.getSimpleName();
+
+    /* The SQL of the last cursor opened on each thread, which EXPLAIN QUERY PLAN is run on */
+    private static final ThreadLocal<String> sLastQuerySql = new ThreadLocal<>();
+
+    /*
+     * WeatherDbHelper opens the database with this factory while profiling, so that the SQL of
+     * every query reaches us whichever SQLiteDatabase method built it. SQLiteQuery only exposes
+     * its SQL through toString.
+     */
+    static final SQLiteDatabase.CursorFactory CURSOR_FACTORY = new SQLiteDatabase.CursorFactory() {
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                                String editTable, SQLiteQuery query) {
+            String sql = query.toString();
+            sLastQuerySql.set(sql.substring(sql.indexOf(':') + 1).trim());
+            return new SQLiteCursor(masterQuery, editTable, query);
+        }
+    };
+
+    private final Map<String, OperationStats> mStatsByOperation = new LinkedHashMap<>();
+
+    /**
+     * Marks the start of an operation.
+     *
+     * @return The start time to pass to endQuery or endWrite
+     */
+    long begin() {
+        if (!ENABLED) {
+            return 0;
+        }
+        sLastQuerySql.remove();
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records a query once its cursor has been created, logging it if it was slow.
+     *
+     * @param db         The database the query ran on
+     * @param uri        The URI that was queried
+     * @param selection  The caller's selection
+     * @param cursor     The cursor returned by the query
+     * @param startNanos The time returned by begin
+     */
+    void endQuery(SQLiteDatabase db, Uri uri, String selection, Cursor cursor, long startNanos) {
+        if (!ENABLED) {
+            return;
+        }
+
+        int rows = cursor.getCount();
+        long elapsedMillis = getElapsedMillis(startNanos);
+        if (record("query", elapsedMillis)) {
+            String sql = sLastQuerySql.get();
+            Log.w(TAG, "Slow query took " + elapsedMillis + "ms for " + rows + " rows: " + uri
+                    + ", selection: " + selection + "\n"
+                    + (sql == null ? "Answered without SQL" : sql + "\n" + explain(db, sql)));
+        }
+    }
+
+    /**
+     * Records a write, logging it if it was slow.
+     *
+     * @param operation  The kind of write, such as "insert" or "delete"
+     * @param uri        The URI that was written
+     * @param selection  The caller's selection, if any
+     * @param rows       The number of rows written
+     * @param startNanos The time returned by begin
+     */
+    void endWrite(String operation, Uri uri, String selection, int rows, long startNanos) {
+        if (!ENABLED) {
+            return;
+        }
+
+        long elapsedMillis = getElapsedMillis(startNanos);
+        if (record(operation, elapsedMillis)) {
+            Log.w(TAG, "Slow " + operation + " took " + elapsedMillis + "ms for " + rows
+                    + " rows: " + uri + ", selection: " + selection);
+        }
+    }
+
+    /**
+     * Returns the statistics of every kind of operation recorded so far, one row per kind, with
+     * the columns of {@link WeatherContract.ProfileEntry}.
+     *
+     * @return A cursor over the statistics
+     */
+    synchronized Cursor getStats() {
+        MatrixCursor stats = new MatrixCursor(new String[]{
+                WeatherContract.ProfileEntry.COLUMN_OPERATION,
+                WeatherContract.ProfileEntry.COLUMN_COUNT,
+                WeatherContract.ProfileEntry.COLUMN_SLOW_COUNT,
+                WeatherContract.ProfileEntry.COLUMN_TOTAL_MILLIS,
+                WeatherContract.ProfileEntry.COLUMN_MAX_MILLIS});
+        for (Map.Entry<String, OperationStats> entry : mStatsByOperation.entrySet()) {
+            OperationStats operationStats = entry.getValue();
+            stats.addRow(Arrays.<Object>asList(
+                    entry.getKey(),
+                    operationStats.count,
+                    operationStats.slowCount,
+                    operationStats.totalMillis,
+                    operationStats.maxMillis));
+        }
+        return stats;
+    }
+
+    /* Adds an operation to its kind's statistics, returning whether it was slow */
+    private synchronized boolean record(String operation, long elapsedMillis) {
+        OperationStats operationStats = mStatsByOperation.get(operation);
+        if (operationStats == null) {
+            operationStats = new OperationStats();
+            mStatsByOperation.put(operation, operationStats);
+        }
+
+        boolean slow = elapsedMillis > SLOW_OPERATION_MILLIS;
+        operationStats.count++;
+        operationStats.totalMillis += elapsedMillis;
+        operationStats.maxMillis = Math.max(operationStats.maxMillis, elapsedMillis);
+        if (slow) {
+            operationStats.slowCount++;
+        }
+        return slow;
+    }
+
+    private static long getElapsedMillis(long startNanos) {
+        return (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000000;
+    }
+
+    /*
+     * Returns SQLite's plan for a query, one step per line. The query's arguments aren't
+     * available here, so they are left unbound; SQLite plans the query the same way without them.
+     */
+    private static String explain(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+        Cursor planCursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detailIndex = planCursor.getColumnIndexOrThrow("detail");
+            while (planCursor.moveToNext()) {
+                plan.append("  ").append(planCursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            planCursor.close();
+        }
+        return plan.toString();
+    }
+
+    private static final class OperationStats {
+        int count;
+        int slowCount;
+        long totalMillis;
+        long maxMillis;
+    }
+}
\ No newline at end of file
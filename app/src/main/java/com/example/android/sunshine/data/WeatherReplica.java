@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An in-memory copy of every row of the weather table, in builds where
+ * {@link BuildConfig#REPLICATE_WEATHER_PROVIDER} is set. The live forecast is at most a few dozen
+ * rows, so WeatherProvider answers the queries of the forecast list and of a single day from
+ * this copy, with any projection of the weather's columns and any order of them, instead of
+ * looking the rows up in SQLite and filling a CursorWindow with them. SQLite remains the only
+ * durable copy.
+ * <p>
+ * WeatherProvider keeps the copy in sync from its write path. A write of a single day reads that
+ * day back inside its own transaction, just before committing, and once the transaction has
+ * committed publishes the copy with that day replaced. Writes of more than a day, such as a
+ * sync's bulk insert, drop the copy instead of reading every row back inside their transaction.
+ * Writes that bypass the provider aren't seen by the copy.
+ * <p>
+ * A query that finds no copy, such as the first one after the provider starts or after a bulk
+ * write, loads it. Like WeatherRowCache, a load or a write is only kept if no other write started
+ * while it was reading. Tables of more than {@link #MAX_ROWS} rows aren't copied at all, and
+ * their queries go to SQLite.
+ */
+final class WeatherReplica {
+
+    static final boolean ENABLED = BuildConfig.REPLICATE_WEATHER_PROVIDER;
+
+    /* A few years of a daily forecast: more than the forecast ever holds, but bounded */
+    static final int MAX_ROWS = 512;
+
+    /* Every row of the weather view, ordered by location and date as the table stores them */
+    private static final String SQL_LOAD =
+            "SELECT * FROM " + WeatherEntry.VIEW_NAME +
+                    " ORDER BY " + WeatherEntry.COLUMN_LOCATION_ID + ", " + WeatherEntry._ID +
+                    " LIMIT " + (MAX_ROWS + 1);
+
+    /* A location's weather of a single day, which a write reads back */
+    private static final String SQL_LOAD_DAY =
+            "SELECT * FROM " + WeatherEntry.VIEW_NAME +
+                    " WHERE " + WeatherEntry.COLUMN_LOCATION_ID + " = ? AND " +
+                    WeatherEntry._ID + " = ?";
+
+    /* The copied rows, or null if they haven't been loaded or there were too many of them */
+    private CompactCursor.Rows mRows;
+
+    /* Whether mRows is up to date, even if it is null because there were too many rows */
+    private boolean mLoaded;
+
+    /* Incremented by every write, when it starts and when it is published */
+    private long mGeneration;
+
+    private int mHitCount;
+
+    /**
+     * The copy as a write left it, to be published once the write has committed.
+     */
+    static final class Write {
+
+        private final long mGeneration;
+
+        /* The copy with the written day replaced, or null if there was no copy to update */
+        private final CompactCursor.Rows mRows;
+
+        private Write(long generation, CompactCursor.Rows rows) {
+            mGeneration = generation;
+            mRows = rows;
+        }
+    }
+
+    /**
+     * Copies the weather, unless it is already copied. The copy is only kept if no write started
+     * while it was read.
+     *
+     * @param db The weather database, outside of any transaction
+     */
+    void loadIfNeeded(SQLiteDatabase db) {
+        long generation;
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+            generation = mGeneration;
+        }
+
+        CompactCursor.Rows rows = readRows(db);
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mRows = rows;
+                mLoaded = true;
+            }
+        }
+    }
+
+    /**
+     * Reads a location's weather of a single day back within a write's transaction, just before
+     * the write marks it successful, so that the day is exactly what the write commits. Until
+     * the copy is published, queries go to SQLite.
+     *
+     * @param db         The weather database, within the write's transaction
+     * @param locationId The location whose weather was written
+     * @param day        The stored form of the date that was written, see WeatherEncoding
+     * @return The copy to publish once the transaction has committed
+     */
+    Write readBack(SQLiteDatabase db, long locationId, long day) {
+        long generation;
+        CompactCursor.Rows rows;
+        synchronized (this) {
+            rows = mRows;
+            mRows = null;
+            mLoaded = false;
+            generation = ++mGeneration;
+        }
+
+        if (rows != null) {
+            Cursor cursor = db.rawQuery(SQL_LOAD_DAY,
+                    new String[]{Long.toString(locationId), Long.toString(day)});
+            try {
+                rows = replaceDay(rows, locationId, day, CompactCursor.Rows.copyOf(cursor));
+            } finally {
+                cursor.close();
+            }
+        }
+        return new Write(generation, rows);
+    }
+
+    /**
+     * Publishes the copy a write left once it has committed, unless another write started since.
+     * A load that was still reading during the write is then no longer kept either. Without a
+     * copy to publish, this drops the copy as {@link #invalidate()} does, since a load that
+     * started after readBack may have kept the rows from before the commit, and the next query
+     * loads it again.
+     *
+     * @param write The copy returned by {@link #readBack(SQLiteDatabase, long, long)}
+     */
+    synchronized void publish(Write write) {
+        if (write.mGeneration == mGeneration) {
+            mRows = write.mRows;
+            mLoaded = write.mRows != null;
+            mGeneration++;
+        }
+    }
+
+    /*
+     * Drops the copy once a write of more than a day has committed, such as a bulk insert or a
+     * batch. A load that was still reading during the write is no longer kept either.
+     */
+    synchronized void invalidate() {
+        mRows = null;
+        mLoaded = false;
+        mGeneration++;
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /* Reads every row of the weather, or returns null if there are more than MAX_ROWS of them */
+    private static CompactCursor.Rows readRows(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SQL_LOAD, null);
+        try {
+            return cursor.getCount() > MAX_ROWS ? null : CompactCursor.Rows.copyOf(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Replaces the rows of a location's day, kept in the order of the table, with the rows read
+     * back for it: none if the day was deleted, one otherwise. Returns null if the copy would
+     * grow past MAX_ROWS.
+     */
+    private static CompactCursor.Rows replaceDay(CompactCursor.Rows rows, long locationId,
+                                                 long day, CompactCursor.Rows dayRows) {
+        int locationColumn = rows.getColumnIndex(WeatherEntry.COLUMN_LOCATION_ID);
+        int dayColumn = rows.getColumnIndex(WeatherEntry._ID);
+
+        int start = 0;
+        while (start < rows.getRowCount()
+                && (rows.getLong(start, locationColumn) < locationId
+                || rows.getLong(start, locationColumn) == locationId
+                && rows.getLong(start, dayColumn) < day)) {
+            start++;
+        }
+        int removeCount = start < rows.getRowCount()
+                && rows.getLong(start, locationColumn) == locationId
+                && rows.getLong(start, dayColumn) == day ? 1 : 0;
+
+        if (rows.getRowCount() - removeCount + dayRows.getRowCount() > MAX_ROWS) {
+            return null;
+        }
+        return rows.splice(start, removeCount, dayRows);
+    }
+
+    /**
+     * Returns a location's weather between two dates, both included.
+     *
+     * @param locationId The location of the weather, or null for every location
+     * @param fromDay    The stored form of the first date, see WeatherEncoding
+     * @param toDay      The stored form of the last date
+     * @param projection The columns to return, or null for all of them
+     * @param sortOrder  A list of columns, each optionally followed by ASC or DESC, or null to
+     *                   sort by location and date
+     * @param limit      The largest number of rows to return, or a negative number for all of
+     *                   them
+     * @param offset     The number of rows to skip
+     * @return A cursor over the rows, or null if the weather isn't copied, or the projection or
+     * sort order isn't a plain list of the weather's columns
+     */
+    Cursor query(Long locationId, long fromDay, long toDay, String[] projection, String sortOrder,
+                 int limit, int offset) {
+        CompactCursor.Rows rows;
+        synchronized (this) {
+            rows = mRows;
+        }
+        if (rows == null) {
+            return null;
+        }
+
+        Comparator<Integer> order = null;
+        if (sortOrder != null) {
+            order = parseSortOrder(rows, sortOrder);
+            if (order == null) {
+                return null;
+            }
+        }
+
+        int locationColumn = rows.getColumnIndex(WeatherEntry.COLUMN_LOCATION_ID);
+        int dayColumn = rows.getColumnIndex(WeatherEntry._ID);
+        List<Integer> selected = new ArrayList<>();
+        for (int row = 0; row < rows.getRowCount(); row++) {
+            long day = rows.getLong(row, dayColumn);
+            if ((locationId == null || rows.getLong(row, locationColumn) == locationId)
+                    && day >= fromDay && day <= toDay) {
+                selected.add(row);
+            }
+        }
+
+        /* A stable sort, so that rows that tie stay in the order of the table */
+        if (order != null) {
+            Collections.sort(selected, order);
+        }
+
+        int first = Math.min(Math.max(offset, 0), selected.size());
+        int last = limit < 0 ? selected.size() : Math.min(first + limit, selected.size());
+        int[] rowIndexes = new int[last - first];
+        for (int i = first; i < last; i++) {
+            rowIndexes[i - first] = selected.get(i);
+        }
+        Cursor cursor = rows.newCursor(projection, rowIndexes);
+        if (cursor != null) {
+            synchronized (this) {
+                mHitCount++;
+            }
+        }
+        return cursor;
+    }
+
+    /*
+     * Parses an ORDER BY of columns, such as "max DESC, date", into a comparison of rows. Returns
+     * null for anything else, such as an expression or a COLLATE, which only SQLite can sort by.
+     */
+    private static Comparator<Integer> parseSortOrder(final CompactCursor.Rows rows,
+                                                      String sortOrder) {
+        String[] terms = sortOrder.split(",");
+        final int[] columns = new int[terms.length];
+        final boolean[] descending = new boolean[terms.length];
+
+        for (int i = 0; i < terms.length; i++) {
+            List<String> words = new ArrayList<>(Arrays.asList(terms[i].trim().split("\\s+")));
+            if (words.size() == 2) {
+                String direction = words.remove(1);
+                if ("DESC".equalsIgnoreCase(direction)) {
+                    descending[i] = true;
+                } else if (!"ASC".equalsIgnoreCase(direction)) {
+                    return null;
+                }
+            }
+            if (words.size() != 1) {
+                return null;
+            }
+            columns[i] = rows.getColumnIndex(words.get(0));
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+
+        return new Comparator<Integer>() {
+            @Override
+            public int compare(Integer row1, Integer row2) {
+                for (int i = 0; i < columns.length; i++) {
+                    int comparison = rows.compare(row1, row2, columns[i]);
+                    if (comparison != 0) {
+                        return descending[i] ? -comparison : comparison;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+}
\ No newline at end of file
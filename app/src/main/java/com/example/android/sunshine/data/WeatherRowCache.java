@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.util.LruCache;
+import android.util.Pair;
+
+import java.util.Collection;
+
+/**
+ * Keeps the weather of recently queried dates in memory, so that WeatherProvider can answer
+ * repeated queries for the same day without going through SQLite and a CursorWindow. Today's
+ * weather in particular is read by the notification, the watch face and the detail screen after
+ * every sync. The weather is kept as {@link CompactCursor.Rows}, and hits are answered with
+ * CompactCursors over them.
+ * <p>
+ * WeatherProvider invalidates a date whenever it writes that date's weather, and every date after
+ * a batch. Writes that bypass the provider aren't seen by the cache.
+ * <p>
+ * A query that misses reads the weather, then caches it. If the date is written in between, the
+ * weather it read may already be stale, so it is only cached if nothing was invalidated since the
+ * query started: see {@link #getGeneration()}.
+ */
+final class WeatherRowCache {
+
+    /* Enough for today and the rest of a two week forecast, with a little room to spare */
+    private static final int MAX_CACHED_DATES = 16;
+
+    /* Keyed by location, then date */
+    private final LruCache<Pair<Long, Long>, CompactCursor.Rows> mRowsByDate =
+            new LruCache<>(MAX_CACHED_DATES);
+
+    /* Incremented by every invalidation */
+    private long mGeneration;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Returns the cache's current generation. Read it before querying the database for a date
+     * that missed, and pass it to
+     * {@link #put(long, long, long, CompactCursor.Rows, String[])} with the result.
+     *
+     * @return The number of invalidations so far
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the cached weather of a location's date.
+     *
+     * @param locationId The location of the weather
+     * @param date       The normalized date of the weather
+     * @param projection The columns to return, or null for all of them
+     * @return A cursor over the cached rows, or null if the date isn't cached or the projection
+     * names a column the cache doesn't hold
+     */
+    synchronized Cursor query(long locationId, long date, String[] projection) {
+        CompactCursor.Rows rows = mRowsByDate.get(Pair.create(locationId, date));
+        Cursor cursor = rows == null ? null : rows.newCursor(projection);
+        if (cursor == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return cursor;
+    }
+
+    /**
+     * Caches the rows of every column of a date's weather, unless the cache was invalidated
+     * after the given generation.
+     *
+     * @param locationId The location of the weather
+     * @param date       The normalized date of the weather
+     * @param generation The generation read before the rows were queried
+     * @param rows       The date's weather, with every column
+     * @param projection The columns to return, or null for all of them
+     * @return A cursor over the rows, or null if the projection names a column they don't hold
+     */
+    Cursor put(long locationId, long date, long generation, CompactCursor.Rows rows,
+               String[] projection) {
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mRowsByDate.put(Pair.create(locationId, date), rows);
+            }
+        }
+
+        return rows.newCursor(projection);
+    }
+
+    /**
+     * Drops the cached weather of the given dates of a location.
+     *
+     * @param locationId The location whose weather was written
+     * @param dates      The normalized dates whose weather was written
+     */
+    synchronized void invalidate(long locationId, Collection<Long> dates) {
+        mGeneration++;
+        for (long date : dates) {
+            mRowsByDate.remove(Pair.create(locationId, date));
+        }
+    }
+
+    /* Drops the cached weather of every date */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRowsByDate.evictAll();
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+}
\ No newline at end of file
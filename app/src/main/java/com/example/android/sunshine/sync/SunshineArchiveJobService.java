@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+import com.firebase.jobdispatcher.RetryStrategy;
+
+/**
+ * Compacts the weather archive in the background: drops the history that is older than the
+ * user wants to keep and downsamples older months. Compaction rewrites whole months, so it is
+ * scheduled to run while the device is charging.
+ */
+public class SunshineArchiveJobService extends JobService {
+
+    private AsyncTask<Void, Void, Void> mCompactArchiveTask;
+
+    /**
+     * The entry point to your Job. Implementations should offload work to another thread of
+     * execution as soon as possible.
+     *
+     * This is called by the Job Dispatcher to tell us we should start our job. Keep in mind this
+     * method is run on the application's main thread, so we need to offload work to a background
+     * thread.
+     *
+     * @return whether there is more work remaining.
+     */
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+
+        mCompactArchiveTask = new AsyncTask<Void, Void, Void>(){
+            @Override
+            protected Void doInBackground(Void... voids) {
+                Context context = getApplicationContext();
+
+                Bundle extras = new Bundle();
+                extras.putInt(WeatherContract.ArchiveEntry.EXTRA_RETENTION_MONTHS,
+                        SunshinePreferences.getArchiveRetentionMonths(context));
+
+                context.getContentResolver().call(
+                        WeatherContract.ArchiveEntry.CONTENT_URI,
+                        WeatherContract.ArchiveEntry.METHOD_COMPACT_ARCHIVE,
+                        null,
+                        extras);
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                jobFinished(jobParameters, false);
+            }
+        };
+
+        /* Not the serial executor, where compaction would hold up the list and the other jobs */
+        mCompactArchiveTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    /**
+     * Called when the scheduling engine has decided to interrupt the execution of a running job,
+     * most likely because the runtime constraints associated with the job are no longer satisfied.
+     * Compaction runs in a single transaction, so the archive is never left half compacted, and
+     * a compaction that didn't get to run is retried.
+     *
+     * @return whether the job should be retried
+     * @see Job.Builder#setRetryStrategy(RetryStrategy)
+     * @see RetryStrategy
+     */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mCompactArchiveTask != null) {
+            mCompactArchiveTask.cancel(true);
+        }
+        return true;
+    }
+}
\ No newline at end of file
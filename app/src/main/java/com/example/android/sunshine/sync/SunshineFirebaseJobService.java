@@ -56,7 +56,11 @@ public class SunshineFirebaseJobService extends JobService {
             }
         };
 
-        mFetchWeatherTask.execute();
+        /*
+         * The download can take a while, so it mustn't queue the forecast list's formatting or
+         * the other jobs behind it on AsyncTask's serial executor
+         */
+        mFetchWeatherTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         return true;
     }
 
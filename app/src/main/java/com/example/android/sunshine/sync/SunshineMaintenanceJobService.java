@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.Context;
+import android.os.AsyncTask;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+/**
+ * Maintains the weather database file in the background: checks its integrity, returns its free
+ * pages to the file system and refreshes its query statistics. The first run rewrites the whole
+ * file, so it is scheduled with JobScheduler to run only while the device is idle and charging,
+ * which FirebaseJobDispatcher has no constraint for.
+ */
+public class SunshineMaintenanceJobService extends JobService {
+
+    private AsyncTask<Void, Void, Void> mMaintenanceTask;
+
+    /**
+     * Called by JobScheduler to start the job, on the application's main thread, so the work is
+     * offloaded to a background thread.
+     *
+     * @return whether there is more work remaining.
+     */
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+
+        mMaintenanceTask = new AsyncTask<Void, Void, Void>(){
+            @Override
+            protected Void doInBackground(Void... voids) {
+                Context context = getApplicationContext();
+                context.getContentResolver().call(
+                        WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.MaintenanceEntry.METHOD_RUN_MAINTENANCE,
+                        null,
+                        null);
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                jobFinished(jobParameters, false);
+            }
+        };
+
+        /* A VACUUM may take seconds, so it gets a pool thread rather than the serial executor */
+        mMaintenanceTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    /**
+     * Called by JobScheduler when the device is no longer idle or charging. A statement SQLite
+     * has started can't be interrupted, so maintenance already under way runs to completion, and
+     * the job isn't retried before its next period.
+     *
+     * @return whether the job should be retried
+     */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mMaintenanceTask != null) {
+            mMaintenanceTask.cancel(true);
+        }
+        return false;
+    }
+}
\ No newline at end of file
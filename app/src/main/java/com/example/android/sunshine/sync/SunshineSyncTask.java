@@ -17,19 +17,32 @@ package com.example.android.sunshine.sync;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.ContentUris;
 import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
 import android.text.format.DateUtils;
 
+import com.example.android.sunshine.data.ForecastSnapshot;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SunshineSyncTask {
 
+    /*
+     * Incremented every time the user picks a new location. A sync remembers the value it started
+     * with, and if that value has moved on by the time its download finishes, the results belong
+     * to a location the user no longer cares about and are thrown away.
+     */
+    private static final AtomicInteger sLocationGeneration = new AtomicInteger();
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
@@ -40,6 +53,11 @@ public class SunshineSyncTask {
      */
     synchronized public static void syncWeather(Context context) {
 
+        int locationGeneration = startSync();
+
+        /* The location we are fetching, whose weather is stored under its own location _ID */
+        String locationSetting = SunshinePreferences.getPreferredWeatherLocation(context);
+
         try {
             /*
              * The getUrl method will return the URL that we need to get the forecast JSON for the
@@ -51,6 +69,12 @@ public class SunshineSyncTask {
             /* Use the URL to retrieve the JSON */
             String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
 
+            /*
+             * Parsing the response stores the city's coordinates in SharedPreferences, so we must
+             * not get that far if the location changed while we were downloading.
+             */
+            if (isSuperseded(locationGeneration)) return;
+
             /* Parse the JSON into a list of weather values */
             ContentValues[] weatherValues = OpenWeatherJsonUtils
                     .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
@@ -61,20 +85,50 @@ public class SunshineSyncTask {
              * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
              * there isn't any to insert.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
+            if (weatherValues != null && weatherValues.length != 0
+                    && !isSuperseded(locationGeneration)) {
                 /* Get a handle on the ContentResolver to delete and insert data */
                 ContentResolver sunshineContentResolver = context.getContentResolver();
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
+                /*
+                 * Record the location, and when it was synced, and write its weather under its
+                 * own _ID. Weather already stored for other locations stays where it is, ready
+                 * for when the user switches back to one of them.
+                 */
+                long locationId = trackLocation(context, locationSetting);
+                Uri weatherUri = WeatherContract.WeatherEntry.buildUriForLocation(
+                        WeatherContract.WeatherEntry.CONTENT_URI, locationId);
+
+                /*
+                 * Days that have passed are kept as history, so move them into the archive
+                 * before we replace the forecast.
+                 */
+                long normalizedToday =
+                        SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+                sunshineContentResolver.call(
+                        WeatherContract.ArchiveEntry.CONTENT_URI,
+                        WeatherContract.ArchiveEntry.METHOD_ARCHIVE_PAST_WEATHER,
+                        Long.toString(normalizedToday),
                         null);
 
+                /*
+                 * Inserting a day replaces its old forecast, so we only delete the days the new
+                 * forecast no longer covers. Deleting the whole forecast first would tell the
+                 * observers of every day that it had changed, twice.
+                 */
+                sunshineContentResolver.delete(
+                        weatherUri,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " NOT BETWEEN ? AND ?",
+                        getDateRange(weatherValues));
+
                 /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+                sunshineContentResolver.bulkInsert(weatherUri, weatherValues);
+
+                /*
+                 * Leave a snapshot of the forecast list for MainActivity to show on its first
+                 * frame, the next time it starts.
+                 */
+                writeForecastSnapshot(context, locationSetting, locationId);
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
@@ -109,8 +163,100 @@ public class SunshineSyncTask {
             }
 
         } catch (Exception e) {
+            /* A cancelled request for a superseded location is expected, not worth reporting */
+            if (isSuperseded(locationGeneration)) return;
+
             /* Server probably invalid */
             e.printStackTrace();
         }
     }
+
+    /**
+     * Records that a sync is beginning, before it reads the location it syncs.
+     *
+     * @return The location generation the sync belongs to
+     */
+    static int startSync() {
+        SunshineSyncUtils.onSyncStarted();
+        return sLocationGeneration.get();
+    }
+
+    /**
+     * Abandons any sync that is currently running for the previous location. The download in
+     * progress, if any, is disconnected, and a sync that has already downloaded its data will
+     * discard it rather than write it to the database.
+     */
+    public static void cancelInFlightSync() {
+        sLocationGeneration.incrementAndGet();
+        NetworkUtils.cancelActiveRequest();
+    }
+
+    /**
+     * Adds a location to the location table, or updates it if it is already tracked, with the
+     * coordinates its forecast was returned for and the current time as its last sync.
+     *
+     * @param context         Used to access the ContentResolver and the coordinates
+     * @param locationSetting The location as the user entered it
+     * @return The location's _ID
+     */
+    private static long trackLocation(Context context, String locationSetting) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_SYNC,
+                System.currentTimeMillis());
+        if (SunshinePreferences.isLocationLatLonAvailable(context)) {
+            double[] coordinates = SunshinePreferences.getLocationCoordinates(context);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, coordinates[0]);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, coordinates[1]);
+        }
+
+        Uri locationUri = context.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        return ContentUris.parseId(locationUri);
+    }
+
+    /**
+     * Reads a location's forecast from today onwards back from the ContentProvider, as the
+     * forecast list will, and writes it to the {@link ForecastSnapshot}.
+     *
+     * @param context         Used to access the ContentResolver and the app's files directory
+     * @param locationSetting The location as the user entered it
+     * @param locationId      The location's _ID
+     */
+    private static void writeForecastSnapshot(Context context, String locationSetting,
+                                              long locationId) {
+        Uri forecastUri = WeatherContract.WeatherEntry.buildUriForLocation(
+                WeatherContract.WeatherEntry.buildWeatherUriFromToday(), locationId);
+        Cursor forecast = context.getContentResolver().query(
+                forecastUri, ForecastSnapshot.COLUMNS, null, null, null);
+        if (forecast == null) return;
+        try {
+            ForecastSnapshot.write(context, locationSetting, forecast);
+        } finally {
+            forecast.close();
+        }
+    }
+
+    /**
+     * @param weatherValues The days of a forecast, which mustn't be empty
+     * @return The selection arguments of the first and last dates of the forecast
+     */
+    private static String[] getDateRange(ContentValues[] weatherValues) {
+        long firstDate = Long.MAX_VALUE;
+        long lastDate = Long.MIN_VALUE;
+        for (ContentValues weatherValue : weatherValues) {
+            long date = weatherValue.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            firstDate = Math.min(firstDate, date);
+            lastDate = Math.max(lastDate, date);
+        }
+        return new String[]{Long.toString(firstDate), Long.toString(lastDate)};
+    }
+
+    /**
+     * @param locationGeneration The location generation observed when the sync started
+     * @return true if the location has changed since the sync started
+     */
+    static boolean isSuperseded(int locationGeneration) {
+        return locationGeneration != sLocationGeneration.get();
+    }
 }
\ No newline at end of file
@@ -15,10 +15,14 @@
  */
 package com.example.android.sunshine.sync;
 
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.data.WeatherContract;
@@ -46,6 +50,37 @@ public class SunshineSyncUtils {
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /*
+     * The weather archive is compacted about once a day, whenever the device is charging within
+     * that window.
+     */
+    private static final int ARCHIVE_COMPACTION_INTERVAL_SECONDS =
+            (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int ARCHIVE_COMPACTION_FLEXTIME_SECONDS =
+            (int) TimeUnit.HOURS.toSeconds(12);
+
+    private static final String SUNSHINE_ARCHIVE_TAG = "sunshine-archive";
+
+    /* The database file is maintained about once a day, the next time the device is idle */
+    private static final long DATABASE_MAINTENANCE_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /* Identifies the maintenance job among the app's JobScheduler jobs */
+    private static final int DATABASE_MAINTENANCE_JOB_ID = 1;
+
+    /*
+     * A sync started for a change of location normally begins within seconds. If it hasn't begun
+     * after this long, its service may never run, so the next change starts a sync of its own.
+     */
+    static final long LOCATION_SYNC_PENDING_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /*
+     * Whether a sync started for a change of location hasn't begun yet, and when it was started,
+     * in elapsed realtime. Further changes before it begins don't start another sync, as it reads
+     * the location when it begins.
+     */
+    private static boolean sLocationSyncPending;
+    private static long sLocationSyncRequestedAt;
+
     /**
      * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
      * @param context Context used to create the GooglePlayDriver that powers the
@@ -99,6 +134,61 @@ public class SunshineSyncUtils {
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+
+    /**
+     * Schedules a repeating compaction of the weather archive using FirebaseJobDispatcher. It
+     * doesn't need the network, but rewrites whole months of history, so it only runs while the
+     * device is charging.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void scheduleArchiveCompaction(@NonNull final Context context) {
+
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        Job compactArchiveJob = dispatcher.newJobBuilder()
+                .setService(SunshineArchiveJobService.class)
+                .setTag(SUNSHINE_ARCHIVE_TAG)
+                .setConstraints(Constraint.DEVICE_CHARGING)
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(true)
+                .setTrigger(Trigger.executionWindow(
+                        ARCHIVE_COMPACTION_INTERVAL_SECONDS,
+                        ARCHIVE_COMPACTION_INTERVAL_SECONDS + ARCHIVE_COMPACTION_FLEXTIME_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(compactArchiveJob);
+    }
+
+    /**
+     * Schedules a repeating maintenance of the weather database file using JobScheduler, which,
+     * unlike FirebaseJobDispatcher, can wait for the device to be idle as well as charging.
+     * Scheduling the job again would restart its period, so it is only scheduled once.
+     *
+     * @param context Context used to get the JobScheduler
+     */
+    static void scheduleDatabaseMaintenance(@NonNull final Context context) {
+
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == DATABASE_MAINTENANCE_JOB_ID) return;
+        }
+
+        JobInfo maintenanceJob = new JobInfo.Builder(DATABASE_MAINTENANCE_JOB_ID,
+                new ComponentName(context, SunshineMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(DATABASE_MAINTENANCE_INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build();
+
+        jobScheduler.schedule(maintenanceJob);
+    }
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -121,6 +211,8 @@ public class SunshineSyncUtils {
          * periodically.
          */
         scheduleFirebaseJobDispatcherSync(context);
+        scheduleArchiveCompaction(context);
+        scheduleDatabaseMaintenance(context);
 
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
@@ -132,8 +224,12 @@ public class SunshineSyncUtils {
             @Override
             public void run() {
 
-                /* URI for every row of weather data in our weather table*/
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                /*
+                 * URI for the weather data from today onwards in our weather table. We only need
+                 * to know whether there is any, so one row is enough.
+                 */
+                Uri forecastQueryUri = WeatherContract.WeatherEntry.buildUriWithLimit(
+                        WeatherContract.WeatherEntry.buildWeatherUriFromToday(), 1, 0);
 
                 /*
                  * Since this query is going to be used only as a check to see if we have any
@@ -142,14 +238,12 @@ public class SunshineSyncUtils {
                  * to determine what weather details need to be displayed.
                  */
                 String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
-                String selectionStatement = WeatherContract.WeatherEntry
-                        .getSqlSelectForTodayOnwards();
 
                 /* Here, we perform the query to check to see if we have any weather data */
                 Cursor cursor = context.getContentResolver().query(
                         forecastQueryUri,
                         projectionColumns,
-                        selectionStatement,
+                        null,
                         null,
                         null);
                 /*
@@ -189,4 +283,60 @@ public class SunshineSyncUtils {
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
         context.startService(intentToSyncImmediately);
     }
+
+    /**
+     * Helper method to sync after the user changes their preferred location. Any sync still
+     * working on the previous location is cancelled right away, and a sync for the new location
+     * is started straight after it, unless one started for an earlier change hasn't begun yet.
+     *
+     * @param context The Context used to start the IntentService for the sync.
+     */
+    public static void startLocationChangeSync(@NonNull final Context context) {
+        if (requestLocationChangeSync()) {
+            try {
+                startImmediateSync(context);
+            } catch (RuntimeException e) {
+                /* The sync won't begin, so the next change must start one of its own */
+                onSyncStarted();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Cancels the sync of the previous location, and decides whether the new location needs a
+     * sync of its own.
+     *
+     * @return true if a sync must be started, false if a pending one will sync the new location
+     */
+    static boolean requestLocationChangeSync() {
+        return requestLocationChangeSync(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Same as {@link #requestLocationChangeSync()}, at the given time. A pending sync that
+     * hasn't begun within {@link #LOCATION_SYNC_PENDING_TIMEOUT_MILLIS} is no longer waited for.
+     *
+     * @param now The current time, in elapsed realtime
+     * @return true if a sync must be started, false if a pending one will sync the new location
+     */
+    synchronized static boolean requestLocationChangeSync(long now) {
+        SunshineSyncTask.cancelInFlightSync();
+        if (sLocationSyncPending
+                && now - sLocationSyncRequestedAt < LOCATION_SYNC_PENDING_TIMEOUT_MILLIS) {
+            return false;
+        }
+        sLocationSyncPending = true;
+        sLocationSyncRequestedAt = now;
+        return true;
+    }
+
+    /**
+     * Called as any sync begins, or when one started for a change of location couldn't be. From
+     * then on, no pending sync will read the location, so a later change of location needs a
+     * sync of its own.
+     */
+    synchronized static void onSyncStarted() {
+        sLocationSyncPending = false;
+    }
 }
\ No newline at end of file
@@ -83,6 +83,13 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /*
+     * The connection currently being read by getResponseFromHttpUrl, if any. We keep a handle on
+     * it so that a request for a location the user has since replaced can be torn down from
+     * another thread instead of running to completion.
+     */
+    private static volatile HttpURLConnection sActiveConnection;
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -170,6 +177,7 @@ public final class NetworkUtils {
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
         HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        sActiveConnection = urlConnection;
         try {
             InputStream in = urlConnection.getInputStream();
 
@@ -184,7 +192,19 @@ public final class NetworkUtils {
             scanner.close();
             return response;
         } finally {
+            sActiveConnection = null;
             urlConnection.disconnect();
         }
     }
+
+    /**
+     * Disconnects the request currently in progress in {@link #getResponseFromHttpUrl(URL)}, if
+     * there is one. The thread blocked reading the response will receive an IOException.
+     */
+    public static void cancelActiveRequest() {
+        HttpURLConnection activeConnection = sActiveConnection;
+        if (activeConnection != null) {
+            activeConnection.disconnect();
+        }
+    }
 }
\ No newline at end of file
@@ -15,12 +15,17 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.text.format.DateUtils;
+import android.util.LruCache;
 
 import com.example.android.sunshine.R;
 
 import java.text.SimpleDateFormat;
+import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -32,6 +37,90 @@ public final class SunshineDateUtils {
     /* Milliseconds in a day */
     public static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
 
+    /* Enough for the forecast list, its detail screen and the notification, in both forms */
+    private static final int MAX_FRIENDLY_DATES = 64;
+
+    /*
+     * Friendly date strings that were already built, by the date, the day they were built on,
+     * the locale and whether they show the full date. They also depend on the time zone, and are
+     * all dropped whenever the time zone, the locale or the date changes, see
+     * sFriendlyDateInvalidator.
+     */
+    private static final LruCache<FriendlyDateKey, String> sFriendlyDates =
+            new LruCache<>(MAX_FRIENDLY_DATES);
+
+    /* Registered with the application context the first time a date is named */
+    private static volatile BroadcastReceiver sFriendlyDateInvalidator;
+
+    /*
+     * Incremented whenever the time zone or the locale changes. A SimpleDateFormat keeps the
+     * time zone and the locale it was built with, so formats built before are rebuilt.
+     */
+    private static volatile int sFormatGeneration;
+
+    /*
+     * SimpleDateFormat isn't thread-safe, so each thread that names days, whether it is the main
+     * thread, a sync or the notification's, keeps a format of its own, see getDayNameFormat.
+     */
+    private static final ThreadLocal<DayNameFormat> sDayNameFormat = new ThreadLocal<>();
+
+    /**
+     * A format of day names, such as "Wednesday", along with what it was built for.
+     */
+    private static final class DayNameFormat {
+
+        private final SimpleDateFormat mFormat;
+        private final Locale mLocale;
+        private final int mGeneration;
+
+        DayNameFormat(Locale locale, int generation) {
+            mFormat = new SimpleDateFormat("EEEE", locale);
+            mLocale = locale;
+            mGeneration = generation;
+        }
+    }
+
+    /**
+     * The arguments a friendly date string is built from, along with the day it is built on and
+     * the locale it is built in.
+     */
+    private static final class FriendlyDateKey {
+
+        private final long mNormalizedUtcMidnight;
+        private final long mDaysFromEpochToToday;
+        private final Locale mLocale;
+        private final boolean mShowFullDate;
+
+        FriendlyDateKey(long normalizedUtcMidnight, long daysFromEpochToToday, Locale locale,
+                        boolean showFullDate) {
+            mNormalizedUtcMidnight = normalizedUtcMidnight;
+            mDaysFromEpochToToday = daysFromEpochToToday;
+            mLocale = locale;
+            mShowFullDate = showFullDate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FriendlyDateKey)) {
+                return false;
+            }
+            FriendlyDateKey other = (FriendlyDateKey) o;
+            return mNormalizedUtcMidnight == other.mNormalizedUtcMidnight
+                    && mDaysFromEpochToToday == other.mDaysFromEpochToToday
+                    && mShowFullDate == other.mShowFullDate
+                    && mLocale.equals(other.mLocale);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (mNormalizedUtcMidnight ^ (mNormalizedUtcMidnight >>> 32));
+            result = 31 * result + (int) (mDaysFromEpochToToday ^ (mDaysFromEpochToToday >>> 32));
+            result = 31 * result + mLocale.hashCode();
+            result = 31 * result + (mShowFullDate ? 1 : 0);
+            return result;
+        }
+    }
+
     /**
      * This method returns the number of milliseconds (UTC time) for today's date at midnight in
      * the local time zone. For example, if you live in California and the day is September 20th,
@@ -199,6 +288,66 @@ public final class SunshineDateUtils {
      * or "Friday"
      */
     public static String getFriendlyDateString(Context context, long normalizedUtcMidnight, boolean showFullDate) {
+        registerFriendlyDateInvalidator(context);
+
+        /*
+         * The string only changes with the day it is built on, the locale and the time zone. The
+         * first two are part of the key, and every change of the time zone clears the memo.
+         */
+        FriendlyDateKey key = new FriendlyDateKey(normalizedUtcMidnight,
+                elapsedDaysSinceEpoch(System.currentTimeMillis()), Locale.getDefault(),
+                showFullDate);
+        String friendlyDate = sFriendlyDates.get(key);
+        if (friendlyDate == null) {
+            friendlyDate = buildFriendlyDateString(context, normalizedUtcMidnight, showFullDate);
+            sFriendlyDates.put(key, friendlyDate);
+        }
+        return friendlyDate;
+    }
+
+    /*
+     * Clears the memo of friendly date strings whenever the time zone or the locale changes,
+     * and at local midnight or whenever the clock is set, so that it only ever holds strings for
+     * a handful of days. Changes of the time zone or the locale also retire the day name formats.
+     * Returns the invalidator, to which tests deliver these broadcasts, as only the system may
+     * send them.
+     */
+    static BroadcastReceiver registerFriendlyDateInvalidator(Context context) {
+        BroadcastReceiver registered = sFriendlyDateInvalidator;
+        if (registered != null) {
+            return registered;
+        }
+        synchronized (SunshineDateUtils.class) {
+            if (sFriendlyDateInvalidator != null) {
+                return sFriendlyDateInvalidator;
+            }
+            BroadcastReceiver invalidator = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    String action = intent.getAction();
+                    if (Intent.ACTION_TIMEZONE_CHANGED.equals(action)
+                            || Intent.ACTION_LOCALE_CHANGED.equals(action)) {
+                        sFormatGeneration++;
+                    }
+                    sFriendlyDates.evictAll();
+                }
+            };
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+            filter.addAction(Intent.ACTION_DATE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            context.getApplicationContext().registerReceiver(invalidator, filter);
+            sFriendlyDateInvalidator = invalidator;
+            return invalidator;
+        }
+    }
+
+    /*
+     * Builds the string getFriendlyDateString returns, see above.
+     */
+    private static String buildFriendlyDateString(Context context, long normalizedUtcMidnight,
+                                                  boolean showFullDate) {
 
         /*
          * NOTE: localDate should be localDateMidnightMillis and should be straight from the
@@ -241,7 +390,7 @@ public final class SunshineDateUtils {
                  * documentation on DateFormat#getBestDateTimePattern(Locale, String)
                  * https://developer.android.com/reference/android/text/format/DateFormat.html#getBestDateTimePattern
                  */
-                String localizedDayName = new SimpleDateFormat("EEEE").format(localDate);
+                String localizedDayName = getDayNameFormat().format(localDate);
                 return readableDate.replace(localizedDayName, dayName);
             } else {
                 return readableDate;
@@ -302,8 +451,30 @@ public final class SunshineDateUtils {
                 return context.getString(R.string.tomorrow);
 
             default:
-                SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-                return dayFormat.format(dateInMillis);
+                registerFriendlyDateInvalidator(context);
+                return getDayNameFormat().format(dateInMillis);
+        }
+    }
+
+    /**
+     * Returns the calling thread's format of day names, such as "Wednesday", building it the
+     * first time, and again after the locale or the time zone has changed. Callers must have
+     * registered the invalidator that tracks time zone changes, see
+     * registerFriendlyDateInvalidator.
+     *
+     * @return A format of day names in the current locale and time zone, only to be used by the
+     * calling thread
+     */
+    private static SimpleDateFormat getDayNameFormat() {
+        Locale locale = Locale.getDefault();
+        int generation = sFormatGeneration;
+        DayNameFormat dayNameFormat = sDayNameFormat.get();
+        if (dayNameFormat == null
+                || dayNameFormat.mGeneration != generation
+                || !dayNameFormat.mLocale.equals(locale)) {
+            dayNameFormat = new DayNameFormat(locale, generation);
+            sDayNameFormat.set(dayNameFormat);
         }
+        return dayNameFormat.mFormat;
     }
 }
\ No newline at end of file
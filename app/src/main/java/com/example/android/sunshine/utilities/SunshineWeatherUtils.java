@@ -17,9 +17,14 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.example.android.sunshine.R;
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.Arrays;
+import java.util.Locale;
 
 /**
  * Contains useful utilities for a weather app, such as conversion between Celsius and Fahrenheit,
@@ -30,6 +35,42 @@ public final class SunshineWeatherUtils {
 
     private static final String LOG_TAG = SunshineWeatherUtils.class.getSimpleName();
 
+    /* The art of each kind of weather, indexed by WeatherConditions' KIND_ constants */
+    private static final int[] SMALL_ART_BY_KIND = new int[WeatherConditions.KIND_COUNT];
+    private static final int[] LARGE_ART_BY_KIND = new int[WeatherConditions.KIND_COUNT];
+
+    static {
+        /* Conditions OpenWeatherMap doesn't define are drawn as storms */
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_UNKNOWN] = R.drawable.ic_storm;
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_STORM] = R.drawable.ic_storm;
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_LIGHT_RAIN] = R.drawable.ic_light_rain;
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_RAIN] = R.drawable.ic_rain;
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_SNOW] = R.drawable.ic_snow;
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_FOG] = R.drawable.ic_fog;
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_CLEAR] = R.drawable.ic_clear;
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_LIGHT_CLOUDS] = R.drawable.ic_light_clouds;
+        SMALL_ART_BY_KIND[WeatherConditions.KIND_CLOUDS] = R.drawable.ic_cloudy;
+
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_UNKNOWN] = R.drawable.art_storm;
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_STORM] = R.drawable.art_storm;
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_LIGHT_RAIN] = R.drawable.art_light_rain;
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_RAIN] = R.drawable.art_rain;
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_SNOW] = R.drawable.art_snow;
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_FOG] = R.drawable.art_fog;
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_CLEAR] = R.drawable.art_clear;
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_LIGHT_CLOUDS] = R.drawable.art_light_clouds;
+        LARGE_ART_BY_KIND[WeatherConditions.KIND_CLOUDS] = R.drawable.art_clouds;
+    }
+
+    /*
+     * The string resource of each weather condition, indexed by weather ID, and 0 for the IDs
+     * OpenWeatherMap doesn't define
+     */
+    private static final int[] CONDITION_STRING_IDS = buildConditionStringIds();
+
+    /* The condition strings of the last locale they were resolved in */
+    private static volatile ConditionStrings sConditionStrings;
+
     /**
      * This method will convert a temperature from Celsius to Fahrenheit.
      *
@@ -133,7 +174,9 @@ public final class SunshineWeatherUtils {
 
     /**
      * Helper method to provide the string according to the weather
-     * condition id returned by the OpenWeatherMap call.
+     * condition id returned by the OpenWeatherMap call. The strings of every condition are
+     * resolved together the first time one is asked for in a locale, see
+     * {@link #getConditionStrings(Context)}, so this is usually an array access.
      *
      * @param context   Android context
      * @param weatherId from OpenWeatherMap API response
@@ -142,173 +185,115 @@ public final class SunshineWeatherUtils {
      * @return String for the weather condition, null if no relation is found.
      */
     public static String getStringForWeatherCondition(Context context, int weatherId) {
-        int stringId;
-        if (weatherId >= 200 && weatherId <= 232) {
-            stringId = R.string.condition_2xx;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            stringId = R.string.condition_3xx;
-        } else switch (weatherId) {
-            case 500:
-                stringId = R.string.condition_500;
-                break;
-            case 501:
-                stringId = R.string.condition_501;
-                break;
-            case 502:
-                stringId = R.string.condition_502;
-                break;
-            case 503:
-                stringId = R.string.condition_503;
-                break;
-            case 504:
-                stringId = R.string.condition_504;
-                break;
-            case 511:
-                stringId = R.string.condition_511;
-                break;
-            case 520:
-                stringId = R.string.condition_520;
-                break;
-            case 531:
-                stringId = R.string.condition_531;
-                break;
-            case 600:
-                stringId = R.string.condition_600;
-                break;
-            case 601:
-                stringId = R.string.condition_601;
-                break;
-            case 602:
-                stringId = R.string.condition_602;
-                break;
-            case 611:
-                stringId = R.string.condition_611;
-                break;
-            case 612:
-                stringId = R.string.condition_612;
-                break;
-            case 615:
-                stringId = R.string.condition_615;
-                break;
-            case 616:
-                stringId = R.string.condition_616;
-                break;
-            case 620:
-                stringId = R.string.condition_620;
-                break;
-            case 621:
-                stringId = R.string.condition_621;
-                break;
-            case 622:
-                stringId = R.string.condition_622;
-                break;
-            case 701:
-                stringId = R.string.condition_701;
-                break;
-            case 711:
-                stringId = R.string.condition_711;
-                break;
-            case 721:
-                stringId = R.string.condition_721;
-                break;
-            case 731:
-                stringId = R.string.condition_731;
-                break;
-            case 741:
-                stringId = R.string.condition_741;
-                break;
-            case 751:
-                stringId = R.string.condition_751;
-                break;
-            case 761:
-                stringId = R.string.condition_761;
-                break;
-            case 762:
-                stringId = R.string.condition_762;
-                break;
-            case 771:
-                stringId = R.string.condition_771;
-                break;
-            case 781:
-                stringId = R.string.condition_781;
-                break;
-            case 800:
-                stringId = R.string.condition_800;
-                break;
-            case 801:
-                stringId = R.string.condition_801;
-                break;
-            case 802:
-                stringId = R.string.condition_802;
-                break;
-            case 803:
-                stringId = R.string.condition_803;
-                break;
-            case 804:
-                stringId = R.string.condition_804;
-                break;
-            case 900:
-                stringId = R.string.condition_900;
-                break;
-            case 901:
-                stringId = R.string.condition_901;
-                break;
-            case 902:
-                stringId = R.string.condition_902;
-                break;
-            case 903:
-                stringId = R.string.condition_903;
-                break;
-            case 904:
-                stringId = R.string.condition_904;
-                break;
-            case 905:
-                stringId = R.string.condition_905;
-                break;
-            case 906:
-                stringId = R.string.condition_906;
-                break;
-            case 951:
-                stringId = R.string.condition_951;
-                break;
-            case 952:
-                stringId = R.string.condition_952;
-                break;
-            case 953:
-                stringId = R.string.condition_953;
-                break;
-            case 954:
-                stringId = R.string.condition_954;
-                break;
-            case 955:
-                stringId = R.string.condition_955;
-                break;
-            case 956:
-                stringId = R.string.condition_956;
-                break;
-            case 957:
-                stringId = R.string.condition_957;
-                break;
-            case 958:
-                stringId = R.string.condition_958;
-                break;
-            case 959:
-                stringId = R.string.condition_959;
-                break;
-            case 960:
-                stringId = R.string.condition_960;
-                break;
-            case 961:
-                stringId = R.string.condition_961;
-                break;
-            case 962:
-                stringId = R.string.condition_962;
-                break;
-            default:
-                return context.getString(R.string.condition_unknown, weatherId);
+        if (weatherId >= 0 && weatherId <= WeatherConditions.MAX_WEATHER_ID) {
+            String condition = getConditionStrings(context).mStrings[weatherId];
+            if (condition != null) {
+                return condition;
+            }
         }
+        return context.getString(R.string.condition_unknown, weatherId);
+    }
 
-        return context.getString(stringId);
+    /*
+     * Returns the strings of every weather condition in the current locale, resolving them the
+     * first time, and again whenever the locale has changed since.
+     */
+    private static ConditionStrings getConditionStrings(Context context) {
+        Locale locale = Locale.getDefault();
+        ConditionStrings conditionStrings = sConditionStrings;
+        if (conditionStrings == null || !conditionStrings.mLocale.equals(locale)) {
+            conditionStrings = new ConditionStrings(context, locale);
+            sConditionStrings = conditionStrings;
+        }
+        return conditionStrings;
+    }
+
+    /**
+     * The string of every weather condition in a locale, indexed by weather ID, and null for the
+     * IDs OpenWeatherMap doesn't define.
+     */
+    private static final class ConditionStrings {
+
+        private final Locale mLocale;
+        private final String[] mStrings = new String[WeatherConditions.MAX_WEATHER_ID + 1];
+
+        ConditionStrings(Context context, Locale locale) {
+            mLocale = locale;
+            /* Many IDs share a string, which only needs to be looked up once */
+            SparseArray<String> stringsById = new SparseArray<>();
+            for (int weatherId = 0; weatherId < CONDITION_STRING_IDS.length; weatherId++) {
+                int stringId = CONDITION_STRING_IDS[weatherId];
+                if (stringId == 0) {
+                    continue;
+                }
+                String string = stringsById.get(stringId);
+                if (string == null) {
+                    string = context.getString(stringId);
+                    stringsById.put(stringId, string);
+                }
+                mStrings[weatherId] = string;
+            }
+        }
+    }
+
+    /* Fills in the table of string resources, see CONDITION_STRING_IDS */
+    private static int[] buildConditionStringIds() {
+        int[] strings = new int[WeatherConditions.MAX_WEATHER_ID + 1];
+        Arrays.fill(strings, 200, 232 + 1, R.string.condition_2xx);
+        Arrays.fill(strings, 300, 321 + 1, R.string.condition_3xx);
+        strings[500] = R.string.condition_500;
+        strings[501] = R.string.condition_501;
+        strings[502] = R.string.condition_502;
+        strings[503] = R.string.condition_503;
+        strings[504] = R.string.condition_504;
+        strings[511] = R.string.condition_511;
+        strings[520] = R.string.condition_520;
+        strings[531] = R.string.condition_531;
+        strings[600] = R.string.condition_600;
+        strings[601] = R.string.condition_601;
+        strings[602] = R.string.condition_602;
+        strings[611] = R.string.condition_611;
+        strings[612] = R.string.condition_612;
+        strings[615] = R.string.condition_615;
+        strings[616] = R.string.condition_616;
+        strings[620] = R.string.condition_620;
+        strings[621] = R.string.condition_621;
+        strings[622] = R.string.condition_622;
+        strings[701] = R.string.condition_701;
+        strings[711] = R.string.condition_711;
+        strings[721] = R.string.condition_721;
+        strings[731] = R.string.condition_731;
+        strings[741] = R.string.condition_741;
+        strings[751] = R.string.condition_751;
+        strings[761] = R.string.condition_761;
+        strings[762] = R.string.condition_762;
+        strings[771] = R.string.condition_771;
+        strings[781] = R.string.condition_781;
+        strings[800] = R.string.condition_800;
+        strings[801] = R.string.condition_801;
+        strings[802] = R.string.condition_802;
+        strings[803] = R.string.condition_803;
+        strings[804] = R.string.condition_804;
+        strings[900] = R.string.condition_900;
+        strings[901] = R.string.condition_901;
+        strings[902] = R.string.condition_902;
+        strings[903] = R.string.condition_903;
+        strings[904] = R.string.condition_904;
+        strings[905] = R.string.condition_905;
+        strings[906] = R.string.condition_906;
+        strings[951] = R.string.condition_951;
+        strings[952] = R.string.condition_952;
+        strings[953] = R.string.condition_953;
+        strings[954] = R.string.condition_954;
+        strings[955] = R.string.condition_955;
+        strings[956] = R.string.condition_956;
+        strings[957] = R.string.condition_957;
+        strings[958] = R.string.condition_958;
+        strings[959] = R.string.condition_959;
+        strings[960] = R.string.condition_960;
+        strings[961] = R.string.condition_961;
+        strings[962] = R.string.condition_962;
+        return strings;
     }
 
     /**
@@ -326,42 +311,7 @@ public final class SunshineWeatherUtils {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getSmallArtResourceIdForWeatherCondition(int weatherId) {
-
-        /*
-         * Based on weather code data for Open Weather Map.
-         */
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        } else if (weatherId >= 900 && weatherId <= 906) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 958 && weatherId <= 962) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 951 && weatherId <= 957) {
-            return R.drawable.ic_clear;
-        }
-
-        Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
-        return R.drawable.ic_storm;
+        return SMALL_ART_BY_KIND[getKind(weatherId)];
     }
 
     /**
@@ -379,41 +329,15 @@ public final class SunshineWeatherUtils {
      * @return resource ID for the corresponding icon. -1 if no relation is found.
      */
     public static int getLargeArtResourceIdForWeatherCondition(int weatherId) {
+        return LARGE_ART_BY_KIND[getKind(weatherId)];
+    }
 
-        /*
-         * Based on weather code data for Open Weather Map.
-         */
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        } else if (weatherId >= 900 && weatherId <= 906) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 958 && weatherId <= 962) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 951 && weatherId <= 957) {
-            return R.drawable.art_clear;
+    /* Looks up the kind of art to draw, logging the IDs OpenWeatherMap doesn't define */
+    private static int getKind(int weatherId) {
+        int kind = WeatherConditions.getKind(weatherId);
+        if (kind == WeatherConditions.KIND_UNKNOWN) {
+            Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
         }
-
-        Log.e(LOG_TAG, "Unknown Weather: " + weatherId);
-        return R.drawable.art_storm;
+        return kind;
     }
 }
\ No newline at end of file
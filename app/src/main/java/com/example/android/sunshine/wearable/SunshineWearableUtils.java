@@ -3,10 +3,9 @@ package com.example.android.sunshine.wearable;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.net.Uri;
 import android.util.Log;
 
-import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.ForecastRepository;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -19,22 +18,6 @@ import com.google.android.gms.wearable.Wearable;
 public class SunshineWearableUtils {
     private static final String TAG = "SunshineWearableUtils";
 
-    // Forecast data columns
-    public static final String[] FORECAST_PROJECTION = {
-            WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
-            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
-            WeatherContract.WeatherEntry.COLUMN_DEGREES,
-    };
-
-    public static final int INDEX_WEATHER_DATE          = 0;
-    public static final int INDEX_WEATHER_MAX_TEMP      = 1;
-    public static final int INDEX_WEATHER_MIN_TEMP      = 2;
-    public static final int INDEX_WEATHER_ID            = 3;
-
     // DataMap
     public static final String FORECAST_PATH   = "/forecast";
     public static final String MAX_TEMP_KEY    = "max_temp";
@@ -59,26 +42,21 @@ public class SunshineWearableUtils {
     }
 
     public static PutDataMapRequest loadTodaysForecast(Context context) {
-        Uri todaysForecastUri = WeatherContract.WeatherEntry
-                .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
         PutDataMapRequest dataMap = PutDataMapRequest.create(FORECAST_PATH);
         dataMap.setUrgent();
-        Cursor todaysWeatherCursor = context.getContentResolver().query(
-                todaysForecastUri,
-                FORECAST_PROJECTION,
-                null,
-                null,
-                null);
+        Cursor todaysWeatherCursor = ForecastRepository.getInstance(context)
+                .queryDay(today, ForecastRepository.FORECAST_COLUMNS);
 
         if(todaysWeatherCursor != null && todaysWeatherCursor.moveToNext()) {
+            double high = todaysWeatherCursor.getDouble(ForecastRepository.INDEX_WEATHER_MAX_TEMP);
+            double low = todaysWeatherCursor.getDouble(ForecastRepository.INDEX_WEATHER_MIN_TEMP);
             dataMap.getDataMap().putString(MAX_TEMP_KEY,
-                    SunshineWeatherUtils.formatTemperature(context,
-                            todaysWeatherCursor.getDouble(INDEX_WEATHER_MAX_TEMP)));
+                    SunshineWeatherUtils.formatTemperature(context, high));
             dataMap.getDataMap().putString(MIN_TEMP_KEY,
-                    SunshineWeatherUtils.formatTemperature(context,
-                            todaysWeatherCursor.getDouble(INDEX_WEATHER_MIN_TEMP)));
+                    SunshineWeatherUtils.formatTemperature(context, low));
             dataMap.getDataMap().putInt(WEATHER_ID_KEY,
-                    todaysWeatherCursor.getInt(INDEX_WEATHER_ID));
+                    todaysWeatherCursor.getInt(ForecastRepository.INDEX_WEATHER_CONDITION_ID));
             dataMap.getDataMap().putLong(TIMESTAMP_KEY, System.currentTimeMillis());
             todaysWeatherCursor.close();
         }
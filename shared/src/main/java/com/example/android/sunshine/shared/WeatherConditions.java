@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+/**
+ * The kind of picture Sunshine draws for each OpenWeatherMap weather condition ID, shared by the
+ * phone app and the watch face. The kinds are looked up in a dense table indexed by weather ID,
+ * built once, and each module turns a kind into its own drawable with an array indexed by kind.
+ * Finding the drawable for a condition is then two array accesses, on every list bind and every
+ * watch face update.
+ * <p>
+ * See http://openweathermap.org/weather-conditions for a list of all IDs.
+ */
+public final class WeatherConditions {
+
+    /* For IDs OpenWeatherMap doesn't define; both modules draw a storm and log them */
+    public static final int KIND_UNKNOWN = 0;
+    public static final int KIND_STORM = 1;
+    public static final int KIND_LIGHT_RAIN = 2;
+    public static final int KIND_RAIN = 3;
+    public static final int KIND_SNOW = 4;
+    public static final int KIND_FOG = 5;
+    public static final int KIND_CLEAR = 6;
+    public static final int KIND_LIGHT_CLOUDS = 7;
+    public static final int KIND_CLOUDS = 8;
+
+    /* The size of the arrays the modules index by kind */
+    public static final int KIND_COUNT = 9;
+
+    /* The largest weather ID OpenWeatherMap defines */
+    public static final int MAX_WEATHER_ID = 962;
+
+    private static final byte[] KIND_BY_WEATHER_ID = buildKinds();
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * Returns the kind of picture to draw for a weather condition.
+     *
+     * @param weatherId from OpenWeatherMap API response
+     * @return One of the KIND_ constants, KIND_UNKNOWN if the ID isn't one OpenWeatherMap defines
+     */
+    public static int getKind(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_WEATHER_ID) {
+            return KIND_UNKNOWN;
+        }
+        return KIND_BY_WEATHER_ID[weatherId];
+    }
+
+    /* Fills in the table with the ranges of IDs of each kind */
+    private static byte[] buildKinds() {
+        byte[] kinds = new byte[MAX_WEATHER_ID + 1];
+        fill(kinds, 200, 232, KIND_STORM);
+        fill(kinds, 300, 321, KIND_LIGHT_RAIN);
+        fill(kinds, 500, 504, KIND_RAIN);
+        fill(kinds, 511, 511, KIND_SNOW);
+        fill(kinds, 520, 531, KIND_RAIN);
+        fill(kinds, 600, 622, KIND_SNOW);
+        /* 761 (dust) is fog, as it always was: it was also listed as a storm, too late to count */
+        fill(kinds, 701, 761, KIND_FOG);
+        fill(kinds, 771, 771, KIND_STORM);
+        fill(kinds, 781, 781, KIND_STORM);
+        fill(kinds, 800, 800, KIND_CLEAR);
+        fill(kinds, 801, 801, KIND_LIGHT_CLOUDS);
+        fill(kinds, 802, 804, KIND_CLOUDS);
+        fill(kinds, 900, 906, KIND_STORM);
+        fill(kinds, 951, 957, KIND_CLEAR);
+        fill(kinds, 958, 962, KIND_STORM);
+        return kinds;
+    }
+
+    private static void fill(byte[] kinds, int fromWeatherId, int toWeatherId, int kind) {
+        for (int weatherId = fromWeatherId; weatherId <= toWeatherId; weatherId++) {
+            kinds[weatherId] = (byte) kind;
+        }
+    }
+}
\ No newline at end of file
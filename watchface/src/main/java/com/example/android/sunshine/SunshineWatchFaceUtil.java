@@ -2,6 +2,8 @@ package com.example.android.sunshine;
 
 import android.util.Log;
 
+import com.example.android.sunshine.shared.WeatherConditions;
+
 /**
  * Created by gustavoballeste on 13/03/17.
  */
@@ -10,40 +12,28 @@ public class SunshineWatchFaceUtil {
 
     private static final String TAG = "SunshineWatchFace";
 
-    public static int getIconForWeatherCondition(int weatherId) {
+    /* The icon of each kind of weather, indexed by WeatherConditions' KIND_ constants */
+    private static final int[] ICON_BY_KIND = new int[WeatherConditions.KIND_COUNT];
+
+    static {
+        /* Conditions OpenWeatherMap doesn't define are drawn as storms */
+        ICON_BY_KIND[WeatherConditions.KIND_UNKNOWN] = R.drawable.ic_storm;
+        ICON_BY_KIND[WeatherConditions.KIND_STORM] = R.drawable.ic_storm;
+        ICON_BY_KIND[WeatherConditions.KIND_LIGHT_RAIN] = R.drawable.ic_light_rain;
+        ICON_BY_KIND[WeatherConditions.KIND_RAIN] = R.drawable.ic_rain;
+        ICON_BY_KIND[WeatherConditions.KIND_SNOW] = R.drawable.ic_snow;
+        ICON_BY_KIND[WeatherConditions.KIND_FOG] = R.drawable.ic_fog;
+        ICON_BY_KIND[WeatherConditions.KIND_CLEAR] = R.drawable.ic_clear;
+        ICON_BY_KIND[WeatherConditions.KIND_LIGHT_CLOUDS] = R.drawable.ic_light_clouds;
+        ICON_BY_KIND[WeatherConditions.KIND_CLOUDS] = R.drawable.ic_cloudy;
+    }
 
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 771 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        } else if (weatherId >= 900 && weatherId <= 906) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 958 && weatherId <= 962) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 951 && weatherId <= 957) {
-            return R.drawable.ic_clear;
+    public static int getIconForWeatherCondition(int weatherId) {
+        int kind = WeatherConditions.getKind(weatherId);
+        if (kind == WeatherConditions.KIND_UNKNOWN) {
+            Log.e(TAG, "Unknown Weather: " + weatherId);
         }
-
-        Log.e(TAG, "Unknown Weather: " + weatherId);
-        return R.drawable.ic_storm;
+        return ICON_BY_KIND[kind];
     }
 
 }